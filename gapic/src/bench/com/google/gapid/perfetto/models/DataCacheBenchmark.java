@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.Track.DataRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+
+/**
+ * Benchmarks {@link Track.DataCache} lookups of slice data, cached in adjacent chunks. The rows
+ * are bounded, so that all chunks fit within the default cache size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DataCacheBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  public int rows;
+
+  @Param({"4", "64"})
+  public int chunks;
+
+  private Track.DataCache cache;
+  private SliceTrack track;
+  private SliceTrack uncached;
+  private DataRequest hit;
+  private DataRequest stitched;
+  private DataRequest partial;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    QueryEngine qe = new QueryEngine(new FakeClient(), FakeClient.CAPTURE, null);
+    track = SliceTrack.forThread(qe, new ThreadInfo(1, 1, 1, 1, "thread", 4, 0));
+    uncached = SliceTrack.forThread(qe, new ThreadInfo(2, 2, 1, 2, "thread", 4, 0));
+
+    cache = new Track.DataCache();
+    TimeSpan trace = SyntheticTrace.bounds(rows);
+    long chunkDur = trace.getDuration() / chunks;
+    int chunkRows = rows / chunks;
+    for (int c = 0; c < chunks; c++) {
+      DataRequest req =
+          new DataRequest(new TimeSpan(c * chunkDur, (c + 1) * chunkDur), 1);
+      cache.put(track, req, chunk(req, c * chunkRows, chunkRows));
+    }
+
+    hit = new DataRequest(new TimeSpan(chunkDur / 4, chunkDur * 3 / 4), 1);
+    stitched = new DataRequest(trace, 1);
+    partial = new DataRequest(trace.expand(0, trace.getDuration() / 2), 1);
+  }
+
+  private static SliceTrack.Data chunk(DataRequest req, int first, int count) {
+    SliceTrack.Data data = new SliceTrack.Data(req, new long[count], new long[count],
+        new long[count], new int[count], new String[count], new String[count], new ArgSet[count]);
+    for (int i = 0; i < count; i++) {
+      data.ids[i] = first + i;
+      data.starts[i] = (first + i) * SyntheticTrace.SPACING;
+      data.ends[i] = data.starts[i] + SyntheticTrace.DURATION;
+    }
+    Arrays.fill(data.titles, "slice");
+    Arrays.fill(data.categories, "");
+    Arrays.fill(data.args, ArgSet.EMPTY);
+    return data;
+  }
+
+  @Benchmark
+  public Track.DataCache.Lookup<SliceTrack.Data> lookupHit() {
+    return cache.lookup(track, hit);
+  }
+
+  @Benchmark
+  public Track.DataCache.Lookup<SliceTrack.Data> lookupMiss() {
+    return cache.lookup(uncached, hit);
+  }
+
+  @Benchmark
+  public Track.DataCache.Lookup<SliceTrack.Data> lookupStitched() {
+    return cache.lookup(track, stitched);
+  }
+
+  @Benchmark
+  public Track.DataCache.Lookup<SliceTrack.Data> lookupPartial() {
+    return cache.lookup(track, partial);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.perfetto.Perfetto;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.Client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Client} answering Perfetto queries from canned results, so the models can be benchmarked
+ * without a server. Queries are matched by prefix. The scratch tables created by
+ * {@link QueryEngine#stream} hold the canned result of their query, which is then served in
+ * slices to the paged queries of the table. Any other query returns an empty result.
+ */
+public class FakeClient extends Client {
+  private static final Pattern CREATE =
+      Pattern.compile("create table (\\w+) as (.*)", Pattern.DOTALL);
+  private static final Pattern PAGED = Pattern.compile(
+      "select \\* from (\\w+) where rowid > (\\d+) and rowid <= (\\d+) order by rowid");
+  private static final Pattern DROP = Pattern.compile("drop table if exists (\\w+)");
+  private static final Perfetto.QueryResult EMPTY = Perfetto.QueryResult.getDefaultInstance();
+  private static final Map.Entry<String, Perfetto.QueryResult> NO_RESULT =
+      Maps.immutableEntry("", EMPTY);
+
+  public static final Path.Capture CAPTURE = Path.Capture.getDefaultInstance();
+
+  private final List<Map.Entry<String, Perfetto.QueryResult>> results = Lists.newArrayList();
+  // The canned results, with their prefix, of the queries the scratch tables were created with.
+  private final Map<String, Map.Entry<String, Perfetto.QueryResult>> tables =
+      Maps.newConcurrentMap();
+  // The pages are cut once, keyed by prefix and range, so repeated runs only measure the client.
+  private final Map<String, Perfetto.QueryResult> pages = Maps.newConcurrentMap();
+
+  public FakeClient respond(String prefix, Perfetto.QueryResult result) {
+    results.add(Maps.immutableEntry(prefix, result));
+    return this;
+  }
+
+  @Override
+  public ListenableFuture<Perfetto.QueryResult> perfettoQuery(Path.Capture capture, String query) {
+    Matcher m = CREATE.matcher(query);
+    if (m.matches()) {
+      tables.put(m.group(1), findEntry(m.group(2)));
+      return immediateFuture(EMPTY);
+    }
+    m = DROP.matcher(query);
+    if (m.matches()) {
+      tables.remove(m.group(1));
+      return immediateFuture(EMPTY);
+    }
+
+    m = PAGED.matcher(query);
+    if (!m.matches()) {
+      return immediateFuture(find(query));
+    }
+
+    Map.Entry<String, Perfetto.QueryResult> table = tables.getOrDefault(m.group(1), NO_RESULT);
+    long after = Long.parseLong(m.group(2)), to = Long.parseLong(m.group(3));
+    return immediateFuture(pages.computeIfAbsent(table.getKey() + "@" + after + ":" + to,
+        $ -> SyntheticTrace.slice(table.getValue(), after, to - after)));
+  }
+
+  private Perfetto.QueryResult find(String query) {
+    return findEntry(query).getValue();
+  }
+
+  private Map.Entry<String, Perfetto.QueryResult> findEntry(String query) {
+    for (Map.Entry<String, Perfetto.QueryResult> e : results) {
+      if (query.startsWith(e.getKey())) {
+        return e;
+      }
+    }
+    return NO_RESULT;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.Lists;
+import com.google.gapid.proto.perfetto.Perfetto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Benchmarks the decoding of {@link Perfetto.QueryResult query results} into
+ * {@link QueryEngine.Result}s and the access to their rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueryResultBenchmark {
+  private static final int BATCH_SIZE = 10000;
+
+  @Param({"10000", "100000", "1000000", "10000000"})
+  public int rows;
+
+  private Perfetto.QueryResult sched;
+  private Perfetto.QueryResult slices;
+  private List<QueryEngine.Result> batches;
+  private QueryEngine.Result decoded;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sched = SyntheticTrace.sched(rows);
+    slices = SyntheticTrace.slices(rows);
+    batches = Lists.newArrayList();
+    for (int offset = 0; offset < rows; offset += BATCH_SIZE) {
+      batches.add(new QueryEngine.Result(SyntheticTrace.slice(sched, offset, BATCH_SIZE)));
+    }
+    decoded = new QueryEngine.Result(slices);
+  }
+
+  @Benchmark
+  public QueryEngine.Result decodeLongs() {
+    return new QueryEngine.Result(sched);
+  }
+
+  @Benchmark
+  public QueryEngine.Result decodeMixed() {
+    return new QueryEngine.Result(slices);
+  }
+
+  @Benchmark
+  public QueryEngine.Result concatBatches() {
+    return QueryEngine.Result.concat(batches);
+  }
+
+  @Benchmark
+  public void forEachRow(Blackhole bh) {
+    decoded.forEachRow((i, r) -> {
+      bh.consume(r.getLong(1));
+      bh.consume(r.getString(4));
+    });
+  }
+
+  @Benchmark
+  public long[] getLongs() {
+    return decoded.getLongs(8);
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.proto.perfetto.Perfetto;
+import com.google.gapid.proto.perfetto.Perfetto.QueryResult.ColumnDesc;
+
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Generates synthetic {@link Perfetto.QueryResult query results}, shaped like the ones of the
+ * track queries. Row {@code i} starts at {@code i * SPACING}, so a trace of {@code n} rows spans
+ * {@code n * SPACING} nanoseconds.
+ */
+public class SyntheticTrace {
+  public static final long SPACING = 1000;
+  public static final long DURATION = 750;
+  public static final int THREADS = 64;
+  public static final int NAMES = 256;
+  public static final int ARG_SETS = 128;
+
+  // Shared, so that large results do not hold millions of copies of the same strings.
+  private static final String[] CATEGORY_VALUES = strings("category", 8);
+  private static final String[] NAME_VALUES = strings("slice", NAMES);
+
+  private SyntheticTrace() {
+  }
+
+  public static TimeSpan bounds(int rows) {
+    return new TimeSpan(0, rows * SPACING);
+  }
+
+  public static Perfetto.QueryResult traceBounds(int rows) {
+    TimeSpan bounds = bounds(rows);
+    return new Builder(1)
+        .longs("start_ts", $ -> bounds.start)
+        .longs("end_ts", $ -> bounds.end)
+        .build();
+  }
+
+  // select cpu, freq_id, freq, idle_id
+  public static Perfetto.QueryResult cpus(int count) {
+    return new Builder(count)
+        .longs("cpu", i -> i)
+        .longs("freq_id", i -> i)
+        .doubles("freq", $ -> 2e6)
+        .longs("idle_id", i -> count + i)
+        .build();
+  }
+
+  // select ts, dur, utid, id
+  public static Perfetto.QueryResult sched(int rows) {
+    return new Builder(rows)
+        .longs("ts", i -> i * SPACING)
+        .longs("dur", $ -> DURATION)
+        .longs("utid", i -> 1 + i % THREADS)
+        .longs("id", i -> i)
+        .build();
+  }
+
+  // select quantum_ts, group_concat(id) ids, util
+  public static Perfetto.QueryResult schedSummary(int rows, Track.Window window) {
+    int buckets = window.getNumberOfBuckets();
+    long perBucket = Math.max(1, (long)rows / Math.max(1, buckets));
+    return new Builder(buckets)
+        .longs("quantum_ts", i -> i)
+        .strings("ids", i -> concatIds(i * perBucket, Math.min(perBucket, 16)))
+        .doubles("util", $ -> (double)DURATION / SPACING)
+        .build();
+  }
+
+  // select id, ts, dur, category, name, depth, stack_id, parent_stack_id, arg_set_id
+  public static Perfetto.QueryResult slices(int rows) {
+    return new Builder(rows)
+        .longs("id", i -> i)
+        .longs("ts", i -> i * SPACING)
+        .longs("dur", i -> DURATION >> (i % 4))
+        .strings("category", i -> CATEGORY_VALUES[i % CATEGORY_VALUES.length])
+        .strings("name", i -> NAME_VALUES[i % NAMES])
+        .longs("depth", i -> i % 4)
+        .longs("stack_id", i -> i % NAMES)
+        .longs("parent_stack_id", i -> (i + 1) % NAMES)
+        .longs("arg_set_id", i -> i % ARG_SETS)
+        .build();
+  }
+
+  // select min(start_ts), max(end_ts), depth, label, max(cnt), group_concat(id) id
+  public static Perfetto.QueryResult slicesSummary(int rows, Track.Window window) {
+    int buckets = window.getNumberOfBuckets() * 4;
+    long perBucket = Math.max(1, (long)rows / Math.max(1, buckets));
+    return new Builder(buckets)
+        .longs("start_ts", i -> window.start + (i / 4) * window.bucketSize)
+        .longs("end_ts", i -> window.start + (i / 4 + 1) * window.bucketSize)
+        .longs("depth", i -> i % 4)
+        .strings("label", i -> NAME_VALUES[i % NAMES])
+        .longs("cnt", $ -> perBucket)
+        .strings("id", i -> concatIds(i * perBucket, Math.min(perBucket, 16)))
+        .build();
+  }
+
+  // select ts, ts + dur, value, id
+  public static Perfetto.QueryResult counter(int rows) {
+    return new Builder(rows)
+        .longs("ts", i -> i * SPACING)
+        .longs("ts + dur", i -> (i + 1) * SPACING)
+        .doubles("value", i -> Math.sin(i / 100.0))
+        .longs("id", i -> i)
+        .build();
+  }
+
+  // select min(ts), max(ts + dur), avg(value), best_id, quantum_ts, count(*), max(dur)
+  public static Perfetto.QueryResult counterSummary(int rows, Track.Window window) {
+    int buckets = window.getNumberOfBuckets();
+    long perBucket = Math.max(1, (long)rows / Math.max(1, buckets));
+    return new Builder(buckets)
+        .longs("min(ts)", i -> window.start + i * window.bucketSize)
+        .longs("max(ts + dur)", i -> window.start + (i + 1) * window.bucketSize)
+        .doubles("avg(value)", i -> Math.sin(i / 100.0))
+        .longs("best_id", i -> i * perBucket)
+        .longs("quantum_ts", i -> i)
+        .longs("count(*)", $ -> perBucket)
+        .longs("max(dur)", $ -> SPACING)
+        .build();
+  }
+
+  private static String[] strings(String prefix, int count) {
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = prefix + i;
+    }
+    return result;
+  }
+
+  private static String concatIds(long first, long count) {
+    StringBuilder sb = new StringBuilder();
+    for (long id = first; id < first + count; id++) {
+      sb.append(sb.length() == 0 ? "" : ",").append(id);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the given number of rows of the given result, starting at the given row.
+   */
+  public static Perfetto.QueryResult slice(Perfetto.QueryResult result, long offset, long limit) {
+    int from = (int)Math.min(offset, result.getNumRecords());
+    int to = (int)Math.min(offset + limit, result.getNumRecords());
+    Perfetto.QueryResult.Builder r = Perfetto.QueryResult.newBuilder()
+        .addAllColumnDescriptors(result.getColumnDescriptorsList())
+        .setNumRecords(to - from);
+    for (Perfetto.QueryResult.ColumnValues column : result.getColumnsList()) {
+      Perfetto.QueryResult.ColumnValues.Builder c = r.addColumnsBuilder();
+      if (column.getLongValuesCount() > 0) {
+        c.addAllLongValues(column.getLongValuesList().subList(from, to));
+      }
+      if (column.getDoubleValuesCount() > 0) {
+        c.addAllDoubleValues(column.getDoubleValuesList().subList(from, to));
+      }
+      if (column.getStringValuesCount() > 0) {
+        c.addAllStringValues(column.getStringValuesList().subList(from, to));
+      }
+      if (column.getIsNullsCount() > 0) {
+        c.addAllIsNulls(column.getIsNullsList().subList(from, to));
+      }
+    }
+    return r.build();
+  }
+
+  private static class Builder {
+    private final int rows;
+    private final Perfetto.QueryResult.Builder result;
+
+    public Builder(int rows) {
+      this.rows = rows;
+      this.result = Perfetto.QueryResult.newBuilder().setNumRecords(rows);
+    }
+
+    public Builder longs(String name, IntToLongFunction values) {
+      Perfetto.QueryResult.ColumnValues.Builder column = add(name, ColumnDesc.Type.LONG);
+      for (int i = 0; i < rows; i++) {
+        column.addLongValues(values.applyAsLong(i)).addIsNulls(false);
+      }
+      return this;
+    }
+
+    public Builder doubles(String name, IntToDoubleFunction values) {
+      Perfetto.QueryResult.ColumnValues.Builder column = add(name, ColumnDesc.Type.DOUBLE);
+      for (int i = 0; i < rows; i++) {
+        column.addDoubleValues(values.applyAsDouble(i)).addIsNulls(false);
+      }
+      return this;
+    }
+
+    public Builder strings(String name, IntFunction<String> values) {
+      Perfetto.QueryResult.ColumnValues.Builder column = add(name, ColumnDesc.Type.STRING);
+      for (int i = 0; i < rows; i++) {
+        column.addStringValues(values.apply(i)).addIsNulls(false);
+      }
+      return this;
+    }
+
+    private Perfetto.QueryResult.ColumnValues.Builder add(String name, ColumnDesc.Type type) {
+      result.addColumnDescriptors(ColumnDesc.newBuilder().setName(name).setType(type));
+      return result.addColumnsBuilder();
+    }
+
+    public Perfetto.QueryResult build() {
+      return result.build();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.Track.DataRequest;
+import com.google.gapid.perfetto.models.Track.Window;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Benchmarks the {@link TimeSpan} math done for every track on every frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TimeSpanBenchmark {
+  private static final int SPANS = 10000;
+
+  private final TimeSpan trace = SyntheticTrace.bounds(10000000);
+  private final TimeSpan[] spans = new TimeSpan[SPANS];
+  private final long[] resolutions = new long[SPANS];
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Random random = new Random(42);
+    for (int i = 0; i < SPANS; i++) {
+      long start = (long)(random.nextDouble() * trace.end * 1.2) - trace.end / 10;
+      spans[i] = new TimeSpan(start, start + (long)(random.nextDouble() * trace.end / 10));
+      resolutions[i] = 1L << random.nextInt(24);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPANS)
+  public void contains(Blackhole bh) {
+    for (TimeSpan span : spans) {
+      bh.consume(trace.contains(span));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPANS)
+  public void boundedBy(Blackhole bh) {
+    for (TimeSpan span : spans) {
+      bh.consume(span.boundedBy(trace));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPANS)
+  public void expand(Blackhole bh) {
+    for (TimeSpan span : spans) {
+      bh.consume(trace.expand(span));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPANS)
+  public void pageAlign(Blackhole bh) {
+    for (int i = 0; i < SPANS; i++) {
+      bh.consume(new DataRequest(spans[i], resolutions[i]).pageAlign());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPANS)
+  public void computeWindow(Blackhole bh) {
+    for (int i = 0; i < SPANS; i++) {
+      bh.consume(Window.compute(new DataRequest(spans[i], resolutions[i]), 5));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.Unit;
+import com.google.gapid.perfetto.models.Track.DataRequest;
+import com.google.gapid.perfetto.models.Track.Window;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the data of the CPU, thread slice and counter tracks, from a
+ * {@link FakeClient} serving synthetic traces. The slices benchmarks request the whole trace at
+ * full resolution, the summary benchmarks request the whole trace as shown zoomed out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TrackBenchmark {
+  private static final long SCREEN_WIDTH = 2000;
+
+  @Param({"10000", "100000", "1000000", "10000000"})
+  public int rows;
+
+  private DataRequest slicesReq;
+  private DataRequest summaryReq;
+  private CpuTrack cpu;
+  private SliceTrack thread;
+  private CounterTrack counter;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    TimeSpan trace = SyntheticTrace.bounds(rows);
+    slicesReq = new DataRequest(trace, 1);
+    summaryReq = new DataRequest(trace, Math.max(
+        Window.minQuantum(1), trace.getDuration() / SCREEN_WIDTH));
+
+    FakeClient client = new FakeClient()
+        .respond("select start_ts, end_ts from trace_bounds", SyntheticTrace.traceBounds(rows))
+        .respond("select ts, dur, utid, id from ", SyntheticTrace.sched(rows))
+        .respond("select quantum_ts, group_concat(id) ids", SyntheticTrace.schedSummary(
+            rows, Window.quantized(trace, LodPyramid.baseQuantum(trace, Window.minQuantum(10)))))
+        .respond("select id, ts, dur, category, name, depth", SyntheticTrace.slices(rows))
+        .respond("select min(start_ts), max(end_ts)", SyntheticTrace.slicesSummary(
+            rows, Window.compute(summaryReq, 5)))
+        .respond("select ts, ts + dur, value, id from ", SyntheticTrace.counter(rows))
+        .respond("select min(ts), max(ts + dur), avg(value)", SyntheticTrace.counterSummary(
+            rows, Window.quantized(trace, LodPyramid.baseQuantum(trace, Window.minQuantum(5)))));
+    QueryEngine qe = new QueryEngine(client, FakeClient.CAPTURE, null);
+
+    cpu = new CpuTrack(qe,
+        CpuInfo.Cpu.of(0, new QueryEngine.Result(SyntheticTrace.cpus(1)).getRow(0)));
+    thread = SliceTrack.forThread(qe, new ThreadInfo(1, 1, 1, 1, "thread", 4, 0));
+    counter = new CounterTrack(qe, new CounterInfo(1, CounterInfo.Type.Global, 0, "counter", "",
+        Unit.NONE, CounterInfo.Interpolation.Event, rows, -1, 1, 0));
+    for (Track<?> track : new Track<?>[] { cpu, thread, counter }) {
+      track.initialize().get();
+    }
+    // Zoomed out CPU data is served from the pyramid built while loading the trace.
+    cpu.loadPyramid(qe, trace).get();
+
+    // Make sure the streamed queries are answered, rather than measuring empty results.
+    if (cpuSlices().ids.length == 0 || threadSlices().ids.length == 0) {
+      throw new IllegalStateException("The fake client returned no slices");
+    }
+  }
+
+  @Benchmark
+  public CpuTrack.Data cpuSlices() throws Exception {
+    return cpu.computeData(slicesReq).get();
+  }
+
+  @Benchmark
+  public CpuTrack.Data cpuSummary() throws Exception {
+    return cpu.computeData(summaryReq).get();
+  }
+
+  @Benchmark
+  public SliceTrack.Data threadSlices() throws Exception {
+    return thread.computeData(slicesReq).get();
+  }
+
+  @Benchmark
+  public SliceTrack.Data threadSummary() throws Exception {
+    return thread.computeData(summaryReq).get();
+  }
+
+  @Benchmark
+  public CounterTrack.Data counterValues() throws Exception {
+    return counter.computeData(slicesReq).get();
+  }
+
+  @Benchmark
+  public CounterTrack.Data counterSummary() throws Exception {
+    return counter.computeData(summaryReq).get();
+  }
+}
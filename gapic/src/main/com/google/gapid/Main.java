@@ -23,14 +23,24 @@ import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 
 import com.google.common.base.Throwables;
 import com.google.gapid.Server.GapisInitException;
+import com.google.gapid.image.ArrayImage;
+import com.google.gapid.image.FetchedImage;
 import com.google.gapid.models.Analytics;
+import com.google.gapid.models.CommandStream;
 import com.google.gapid.models.Devices;
 import com.google.gapid.models.Follower;
+import com.google.gapid.models.Memory;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Settings;
+import com.google.gapid.perfetto.canvas.FrameProfiler;
 import com.google.gapid.perfetto.canvas.PanelCanvas;
+import com.google.gapid.perfetto.canvas.TileCache;
+import com.google.gapid.perfetto.models.QueryEngine;
+import com.google.gapid.perfetto.models.SchedIndex;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.GapiPaths;
+import com.google.gapid.server.GapidClientCache;
 import com.google.gapid.server.GapisProcess;
 import com.google.gapid.util.Crash2ExceptionHandler;
 import com.google.gapid.util.ExceptionHandler;
@@ -43,6 +53,7 @@ import com.google.gapid.util.Messages;
 import com.google.gapid.util.OS;
 import com.google.gapid.util.Scheduler;
 import com.google.gapid.views.TracerDialog;
+import com.google.gapid.widgets.ImagePanel;
 import com.google.gapid.widgets.Theme;
 import com.google.gapid.widgets.Widgets;
 
@@ -255,8 +266,24 @@ public class Main {
     Follower.logFollowRequests,
     Server.useCache,
     PanelCanvas.showRedraws,
+    TileCache.tileCacheSize,
+    FrameProfiler.showProfiler,
+    FrameProfiler.slowFrameMs,
+    FrameProfiler.profileOut,
     TracerDialog.maxFrames,
     TracerDialog.maxPerfetto,
     TracerDialog.enableLoadValidationLayer,
+    GapidClientCache.getCacheSize,
+    GapidClientCache.followCacheSize,
+    Track.dataCacheSize,
+    Track.prefetchData,
+    QueryEngine.argsCacheSize,
+    QueryEngine.maxConcurrentQueries,
+    SchedIndex.schedIndexSize,
+    ArrayImage.pixelInfoCacheSize,
+    FetchedImage.levelCacheSize,
+    Memory.pageCacheSize,
+    CommandStream.nodePageSize,
+    ImagePanel.histogramCacheSize,
   };
 }
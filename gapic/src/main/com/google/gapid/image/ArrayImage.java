@@ -15,41 +15,65 @@
  */
 package com.google.gapid.image;
 
-import static com.google.gapid.util.Buffers.nativeBuffer;
+import static com.google.gapid.util.Buffers.copy;
+import static com.google.gapid.util.Buffers.slice;
 import static com.google.gapid.util.Caches.getUnchecked;
-import static com.google.gapid.util.Caches.softCache;
+import static com.google.gapid.util.Caches.weightedCache;
 import static com.google.gapid.util.Colors.DARK_LUMINANCE8_THRESHOLD;
 import static com.google.gapid.util.Colors.DARK_LUMINANCE_THRESHOLD;
 import static com.google.gapid.util.Colors.clamp;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.primitives.UnsignedBytes;
 import com.google.gapid.glviewer.gl.Texture;
 import com.google.gapid.image.Histogram.Binner;
 import com.google.gapid.proto.stream.Stream;
 import com.google.gapid.util.Colors;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.Weighers;
 
 import org.eclipse.swt.graphics.ImageData;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.Arrays;
 import java.util.Set;
 
 /**
- * An {@link Image} backed by a byte array.
+ * An {@link Image} backed by a direct, off-heap byte buffer. The buffer is passed to OpenGL as is,
+ * when uploading the image to a texture, and is shared, rather than copied, by the image's slices.
+ * The pixels of large textures thus do not occupy the Java heap.
  */
 public abstract class ArrayImage implements com.google.gapid.image.Image {
-  protected static final Cache<Image.Key, PixelInfo> PIXEL_INFO_CACHE = softCache();
+  // Key plus a pixel info with its min, max and alpha/luminance flags.
+  private static final long PIXEL_INFO_SIZE = 4 * Weighers.OBJECT_SIZE + 3 * 8;
+  // The channels binned for each component of the float images.
+  private static final Stream.Channel[] RGB_COMPONENTS = {
+      Stream.Channel.Red, Stream.Channel.Green, Stream.Channel.Blue, null
+  };
+  private static final Stream.Channel[] LUMINANCE_COMPONENTS = { Stream.Channel.Luminance };
+
+  public static final Flag<Integer> pixelInfoCacheSize = Flags.value("pixel-info-cache-mb", 4,
+      "Maximum size, in MiB, of the cache of computed image pixel infos.", true);
+
+  // The pixel infos of 8bit images also hold the counts of each value, see ImageStats. Created
+  // lazily, so that it is sized by the parsed flags.
+  protected static final Supplier<Cache<Image.Key, PixelInfo>> PIXEL_INFO_CACHE =
+      Suppliers.memoize(() -> weightedCache(pixelInfoCacheSize, (key, info) -> Weighers.toWeight(
+          PIXEL_INFO_SIZE + ((info instanceof ImageStats.ByteCounts) ?
+              ((ImageStats.ByteCounts)info).getSize() : 0))));
 
   public final int width, height, depth, bytesPerPixel;
-  protected final byte[] data;
+  protected final ByteBuffer data; // Direct, with its position at 0 and limit at its capacity.
   private final int internalFormat, format, type;
 
-  public ArrayImage(int width, int height, int depth, int bytesPerPixel, byte[] data,
+  public ArrayImage(int width, int height, int depth, int bytesPerPixel, ByteBuffer data,
       int internalFormat, int format, int type) {
     this.width = width;
     this.height = height;
@@ -61,6 +85,13 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     this.type = type;
   }
 
+  /**
+   * Returns the size, in bytes, of the pixel data of this image.
+   */
+  public long getSize() {
+    return data.capacity();
+  }
+
   @Override
   public int getWidth() {
     return width;
@@ -79,19 +110,18 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
   @Override
   public Image getSlice(int z) {
     int sliceSize = width * height * bytesPerPixel;
-    byte[] sliceData = Arrays.copyOfRange(data, sliceSize * z, sliceSize * (z + 1));
-    return create(width, height, 1, sliceData);
+    return create(width, height, 1, slice(data, sliceSize * z, sliceSize));
   }
 
   /**
    * Constructs and returns a new {@link Image} of the same format with the given
    * dimensions and data.
    */
-  protected abstract Image create(int w, int h, int d, byte[] pixels);
+  protected abstract Image create(int w, int h, int d, ByteBuffer pixels);
 
   @Override
   public void uploadToTexture(Texture texture) {
-    texture.loadData(width, height, internalFormat, format, type, nativeBuffer(data));
+    texture.loadData(width, height, internalFormat, format, type, data);
   }
 
   @Override
@@ -101,7 +131,7 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     return result;
   }
 
-  protected abstract void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride);
+  protected abstract void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride);
 
   @Override
   public PixelValue getPixel(int x, int y, int z) {
@@ -113,30 +143,31 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
   protected abstract PixelValue getPixel(int x, int y);
 
-  protected static ByteBuffer buffer(byte[] data) {
-    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  protected static ByteBuffer buffer(ByteBuffer data) {
+    return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
   }
 
   /**
-   * An {@link ArrayImage} builder.
+   * An {@link ArrayImage} builder, which assembles the pixels directly into the direct buffer of
+   * the image.
    */
   public abstract static class Builder {
     public final int width, height, depth;
-    public final byte[] data;
+    public final ByteBuffer data;
     private final int pixelSize;
 
     public Builder(int width, int height, int depth, int pixelSize) {
       this.width = width;
       this.height = height;
       this.depth = depth;
-      this.data = new byte[pixelSize * width * height * depth];
+      this.data = BufferUtils.createByteBuffer(pixelSize * width * height * depth);
       this.pixelSize = pixelSize;
     }
 
-    public Builder update(byte[] src, int x, int y, int z, int w, int h, int d) {
+    public Builder update(ByteBuffer src, int x, int y, int z, int w, int h, int d) {
       if (x == 0 && y == 0 && w == width && h == height) {
         // Simple case. Bulk copy.
-        System.arraycopy(src, 0, data, pixelSize * w * h * z, pixelSize * w * h * d);
+        copy(src, 0, data, pixelSize * w * h * z, pixelSize * w * h * d);
         return this;
       }
 
@@ -145,11 +176,11 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
         int srcOffset = pixelSize * slice * w * h;
         if (x == 0 && w == width) {
           // Copying complete rows of pixels is easy.
-          System.arraycopy(src, srcOffset, data, dstOffset + pixelSize * y * w, pixelSize * w * h);
+          copy(src, srcOffset, data, dstOffset + pixelSize * y * w, pixelSize * w * h);
         } else {
           // Copy one (incomplete) row at a time.
           for (int row = 0, p = y * width, s = 0; row < h; row++, p += width, s += w * pixelSize) {
-            System.arraycopy(src, srcOffset + s, data, dstOffset + pixelSize * (p + x), pixelSize * w);
+            copy(src, srcOffset + s, data, dstOffset + pixelSize * (p + x), pixelSize * w);
           }
         }
       }
@@ -158,11 +189,11 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     public Builder flip() {
       int s = pixelSize * width;
-      byte[] row = new byte[s];
-      for (int y = 0, i = 0, j = data.length - s; y < height / 2; y++, i += s, j -= s) {
-        System.arraycopy(data, i, row, 0, s);
-        System.arraycopy(data, j, data, i, s);
-        System.arraycopy(row, 0, data, j, s);
+      ByteBuffer row = BufferUtils.createByteBuffer(s);
+      for (int y = 0, i = 0, j = data.capacity() - s; y < height / 2; y++, i += s, j -= s) {
+        copy(data, i, row, 0, s);
+        copy(data, j, data, i, s);
+        copy(row, 0, data, j, s);
       }
       return this;
     }
@@ -176,30 +207,30 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
   public static class RGBA8Image extends ArrayImage {
     private final PixelInfo info;
 
-    public RGBA8Image(Image.Key key, int width, int height, int depth, byte[] data) {
+    public RGBA8Image(Image.Key key, int width, int height, int depth, ByteBuffer data) {
       this(width, height, depth, data,
-          getUnchecked(PIXEL_INFO_CACHE, key, () -> IntPixelInfo.compute(data, true)));
+          getUnchecked(PIXEL_INFO_CACHE.get(), key, () -> byteInfo(data, true)));
     }
 
-    private RGBA8Image(int width, int height, int depth, byte[] data, PixelInfo info) {
+    private RGBA8Image(int width, int height, int depth, ByteBuffer data, PixelInfo info) {
       super(width, height, depth, 4, data, GL11.GL_RGBA8, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
       this.info = info;
     }
 
     @Override
-    protected Image create(int w, int h, int d, byte[] pixels) {
+    protected Image create(int w, int h, int d, ByteBuffer pixels) {
       return new RGBA8Image(w, h, d, pixels, info);
     }
 
     @Override
-    protected void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride) {
+    protected void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride) {
       for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
           row++, si -= 4 * width, di += stride) {
         for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
-          dst[d + 0] = src[s + 0];
-          dst[d + 1] = src[s + 1];
-          dst[d + 2] = src[s + 2];
-          alpha[ai] = src[s + 3];
+          dst[d + 0] = src.get(s + 0);
+          dst[d + 1] = src.get(s + 1);
+          dst[d + 2] = src.get(s + 2);
+          alpha[ai] = src.get(s + 3);
         }
       }
     }
@@ -208,10 +239,10 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     protected PixelValue getPixel(int x, int y) {
       int i = 4 * (y * width + x);
       return new Pixel(
-          ((data[i + 3] & 0xFF) << 24) |
-          ((data[i + 0] & 0xFF) << 16) |
-          ((data[i + 1] & 0xFF) << 8) |
-          ((data[i + 2] & 0xFF) << 0));
+          ((data.get(i + 3) & 0xFF) << 24) |
+          ((data.get(i + 0) & 0xFF) << 16) |
+          ((data.get(i + 1) & 0xFF) << 8) |
+          ((data.get(i + 2) & 0xFF) << 0));
     }
 
     @Override
@@ -226,12 +257,8 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     public void bin(Binner binner) {
-      for (int i = 0, end = data.length - 3; i < end; ) {
-        binner.bin(UnsignedBytes.toInt(data[i++]) / 255f, Stream.Channel.Red);
-        binner.bin(UnsignedBytes.toInt(data[i++]) / 255f, Stream.Channel.Green);
-        binner.bin(UnsignedBytes.toInt(data[i++]) / 255f, Stream.Channel.Blue);
-        i++; // skip alpha
-      }
+      ImageStats.ofBytes(info, data, true).bin(
+          binner, Stream.Channel.Red, Stream.Channel.Green, Stream.Channel.Blue);
     }
 
     @Override
@@ -265,25 +292,26 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     private final FloatBuffer buffer;
     private final PixelInfo info;
 
-    public RGBAFloatImage(Image.Key key, int width, int height, int depth, byte[] data) {
+    public RGBAFloatImage(Image.Key key, int width, int height, int depth, ByteBuffer data) {
       super(width, height, depth, 16, data, GL30.GL_RGBA32F, GL11.GL_RGBA, GL11.GL_FLOAT);
       this.buffer = buffer(data).asFloatBuffer();
-      this.info = getUnchecked(PIXEL_INFO_CACHE, key, () -> FloatPixelInfo.compute(buffer, true));
+      this.info =
+          getUnchecked(PIXEL_INFO_CACHE.get(), key, () -> ImageStats.ofFloats(buffer, true));
     }
 
-    private RGBAFloatImage(int width, int height, int depth, byte[] data, PixelInfo info) {
+    private RGBAFloatImage(int width, int height, int depth, ByteBuffer data, PixelInfo info) {
       super(width, height, depth, 16, data, GL30.GL_RGBA32F, GL11.GL_RGBA, GL11.GL_FLOAT);
       this.buffer = buffer(data).asFloatBuffer();
       this.info = info;
     }
 
     @Override
-    protected Image create(int w, int h, int d, byte[] pixels) {
+    protected Image create(int w, int h, int d, ByteBuffer pixels) {
       return new RGBAFloatImage(w, h, d, pixels, info);
     }
 
     @Override
-    protected void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride) {
+    protected void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride) {
       for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
           row++, si -= 4 * width, di += stride) {
         for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
@@ -313,21 +341,7 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     public void bin(Histogram.Binner binner) {
-      for (int i = 0, end = buffer.remaining() - 3; i <= end; ) {
-        float value = buffer.get(i++);
-        if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-          binner.bin(value, Stream.Channel.Red);
-        }
-        value = buffer.get(i++);
-        if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-          binner.bin(value, Stream.Channel.Green);
-        }
-        value = buffer.get(i++);
-        if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-          binner.bin(value, Stream.Channel.Blue);
-        }
-        i++; // Skip alpha.
-      }
+      ImageStats.binFloats(buffer, RGB_COMPONENTS, binner);
     }
 
     @Override
@@ -364,18 +378,18 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
   public static class Luminance8Image extends ArrayImage {
     private final PixelInfo info;
 
-    public Luminance8Image(Image.Key key, int width, int height, int depth, byte[] data) {
+    public Luminance8Image(Image.Key key, int width, int height, int depth, ByteBuffer data) {
       this(width, height, depth, data,
-          getUnchecked(PIXEL_INFO_CACHE, key, () -> IntPixelInfo.compute(data, false)));
+          getUnchecked(PIXEL_INFO_CACHE.get(), key, () -> byteInfo(data, false)));
     }
 
-    private Luminance8Image(int width, int height, int depth, byte[] data, PixelInfo info) {
+    private Luminance8Image(int width, int height, int depth, ByteBuffer data, PixelInfo info) {
       super(width, height, depth, 1, data, GL11.GL_RGB8, GL11.GL_RED, GL11.GL_UNSIGNED_BYTE);
       this.info = info;
     }
 
     @Override
-    protected Image create(int w, int h, int d, byte[] pixels) {
+    protected Image create(int w, int h, int d, ByteBuffer pixels) {
       return new Luminance8Image(w, h, d, pixels, info);
     }
 
@@ -397,19 +411,18 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     public void bin(Binner binner) {
-      for (int i = 0; i < data.length; i++) {
-        binner.bin(UnsignedBytes.toInt(data[i]) / 255.0f, Stream.Channel.Luminance);
-      }
+      ImageStats.ofBytes(info, data, false).bin(binner, Stream.Channel.Luminance);
     }
 
     @Override
-    protected void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride) {
+    protected void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride) {
       for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
           row++, si -= width, di += stride) {
         for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
-          dst[d + 0] = src[s];
-          dst[d + 1] = src[s];
-          dst[d + 2] = src[s];
+          byte value = src.get(s);
+          dst[d + 0] = value;
+          dst[d + 1] = value;
+          dst[d + 2] = value;
           alpha[ai] = -1;
         }
       }
@@ -417,7 +430,7 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     protected PixelValue getPixel(int x, int y) {
-      return new Pixel(data[y * width + x]);
+      return new Pixel(data.get(y * width + x));
     }
 
     @Override
@@ -452,20 +465,21 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     private final FloatBuffer buffer;
     private final PixelInfo info;
 
-    public LuminanceFloatImage(Image.Key key, int width, int height, int depth, byte[] data) {
+    public LuminanceFloatImage(Image.Key key, int width, int height, int depth, ByteBuffer data) {
       super(width, height, depth, 4, data, GL30.GL_RGB32F, GL11.GL_RED, GL11.GL_FLOAT);
       this.buffer = buffer(data).asFloatBuffer();
-      this.info = getUnchecked(PIXEL_INFO_CACHE, key, () -> FloatPixelInfo.compute(buffer, false));
+      this.info =
+          getUnchecked(PIXEL_INFO_CACHE.get(), key, () -> ImageStats.ofFloats(buffer, false));
     }
 
-    private LuminanceFloatImage(int width, int height, int depth, byte[] data, PixelInfo info) {
+    private LuminanceFloatImage(int width, int height, int depth, ByteBuffer data, PixelInfo info) {
       super(width, height, depth, 4, data, GL30.GL_RGB32F, GL11.GL_RED, GL11.GL_FLOAT);
       this.buffer = buffer(data).asFloatBuffer();
       this.info = info;
     }
 
     @Override
-    protected Image create(int w, int h, int d, byte[] pixels) {
+    protected Image create(int w, int h, int d, ByteBuffer pixels) {
       return new LuminanceFloatImage(w, h, d, pixels, info);
     }
 
@@ -487,16 +501,11 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     public void bin(Binner binner) {
-      for (int i = 0; i < buffer.remaining(); i++) {
-        float value = buffer.get(i);
-        if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-          binner.bin(value, Stream.Channel.Luminance);
-        }
-      }
+      ImageStats.binFloats(buffer, LUMINANCE_COMPONENTS, binner);
     }
 
     @Override
-    protected void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride) {
+    protected void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride) {
       for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
           row++, si -= width, di += stride) {
         for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
@@ -544,18 +553,18 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
   public static class Count8Image extends ArrayImage {
     private final PixelInfo info;
 
-    public Count8Image(Image.Key key, int width, int height, int depth, byte[] data) {
+    public Count8Image(Image.Key key, int width, int height, int depth, ByteBuffer data) {
       this(width, height, depth, data,
-          getUnchecked(PIXEL_INFO_CACHE, key, () -> IntPixelInfo.compute(data, false)));
+          getUnchecked(PIXEL_INFO_CACHE.get(), key, () -> byteInfo(data, false)));
     }
 
-    private Count8Image(int width, int height, int depth, byte[] data, PixelInfo info) {
+    private Count8Image(int width, int height, int depth, ByteBuffer data, PixelInfo info) {
       super(width, height, depth, 1, data, GL11.GL_RGB8, GL11.GL_RED, GL11.GL_UNSIGNED_BYTE);
       this.info = info;
     }
 
     @Override
-    protected Image create(int w, int h, int d, byte[] pixels) {
+    protected Image create(int w, int h, int d, ByteBuffer pixels) {
       return new Count8Image(w, h, d, pixels, getInfo());
     }
 
@@ -576,19 +585,18 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     public void bin(Binner binner) {
-      for (int i = 0; i < data.length; i++) {
-        binner.bin(UnsignedBytes.toInt(data[i]) / 255.0f, Stream.Channel.Count);
-      }
+      ImageStats.ofBytes(info, data, false).bin(binner, Stream.Channel.Count);
     }
 
     @Override
-    protected void convert2D(byte[] src, byte[] dst, byte[] alpha, int stride) {
+    protected void convert2D(ByteBuffer src, byte[] dst, byte[] alpha, int stride) {
       for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
           row++, si -= width, di += stride) {
         for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
-          dst[d + 0] = src[s];
-          dst[d + 1] = src[s];
-          dst[d + 2] = src[s];
+          byte value = src.get(s);
+          dst[d + 0] = value;
+          dst[d + 1] = value;
+          dst[d + 2] = value;
           alpha[ai] = -1;
         }
       }
@@ -596,7 +604,7 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
 
     @Override
     protected PixelValue getPixel(int x, int y) {
-      return new Pixel(data[y * width + x]);
+      return new Pixel(data.get(y * width + x));
     }
 
     @Override
@@ -623,179 +631,8 @@ public abstract class ArrayImage implements com.google.gapid.image.Image {
     }
   }
 
-  private static class FloatPixelInfo implements PixelInfo {
-    private final double min, max, average;
-    private final double alphaMin, alphaMax;
-
-    private FloatPixelInfo(
-        double min, double max, double average, double alphaMin, double alphaMax) {
-      this.min = min;
-      this.max = max;
-      this.average = average;
-      this.alphaMin = alphaMin;
-      this.alphaMax = alphaMax;
-    }
-
-    public static PixelInfo compute(FloatBuffer buffer, boolean isRGBA) {
-      if (!buffer.hasRemaining()) {
-        return PixelInfo.NULL_INFO;
-      }
-
-      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, alphaMin, alphaMax;
-      double average = 0;
-      long count = 0;
-      if (isRGBA) {
-        alphaMin = Float.POSITIVE_INFINITY;
-        alphaMax = Float.NEGATIVE_INFINITY;
-        for (int i = 0, end = buffer.remaining() - 3; i <= end; ) {
-          float value = buffer.get(i++);
-          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-            min = Math.min(min, value);
-            max = Math.max(max, value);
-            average += value;
-            count++;
-          }
-          value = buffer.get(i++);
-          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-            min = Math.min(min, value);
-            max = Math.max(max, value);
-            average += value;
-            count++;
-          }
-          value = buffer.get(i++);
-          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-            min = Math.min(min, value);
-            max = Math.max(max, value);
-            average += value;
-            count++;
-          }
-          value = buffer.get(i++);
-          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-            alphaMin = Math.min(alphaMin, value);
-            alphaMax = Math.max(alphaMax, value);
-          }
-        }
-      } else {
-        alphaMin = alphaMax = 1;
-        for (int i = 0; i < buffer.remaining(); i++) {
-          float value = buffer.get(i);
-          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
-            min = Math.min(min, value);
-            max = Math.max(max, value);
-            average += value;
-            count++;
-          }
-        }
-      }
-      return new FloatPixelInfo(
-          min, max, (count == 0) ? 0.5 : (average / count), alphaMin, alphaMax);
-    }
-
-    @Override
-    public double getMin() {
-      return min;
-    }
-
-    @Override
-    public double getMax() {
-      return max;
-    }
-
-    @Override
-    public double getAverage() {
-      return average;
-    }
-
-    @Override
-    public double getAlphaMin() {
-      return alphaMin;
-    }
-
-    @Override
-    public double getAlphaMax() {
-      return alphaMax;
-    }
-  }
-
-  private static class IntPixelInfo implements PixelInfo {
-    private final double min, max, average;
-    private final double alphaMin, alphaMax;
-
-    private IntPixelInfo(double min, double max, double average, double alphaMin, double alphaMax) {
-      this.min = min;
-      this.max = max;
-      this.average = average;
-      this.alphaMin = alphaMin;
-      this.alphaMax = alphaMax;
-    }
-
-    public static PixelInfo compute(byte[] data, boolean isRGBA) {
-      if (data.length == 0) {
-        return PixelInfo.NULL_INFO;
-      }
-
-      int min = 255, max = 0, alphaMin, alphaMax;
-      double average = 0;
-      if (isRGBA) {
-        alphaMin = 255; alphaMax = 0;
-        for (int i = 0, end = data.length - 3; i < end; ) {
-          int value = UnsignedBytes.toInt(data[i++]);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          average += value;
-
-          value = UnsignedBytes.toInt(data[i++]);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          average += value;
-
-          value = UnsignedBytes.toInt(data[i++]);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          average += value;
-
-          value = UnsignedBytes.toInt(data[i++]);
-          alphaMin = Math.min(alphaMin, value);
-          alphaMax = Math.max(alphaMax, value);
-        }
-        average /= ((data.length / 4) * 3); // Truncate-divide first on purpose.
-      } else {
-        alphaMin = alphaMax = 255;
-        for (int i = 0; i < data.length; i++) {
-          int value = UnsignedBytes.toInt(data[i]);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          average += value;
-        }
-        average /= data.length;
-      }
-      return new IntPixelInfo(
-          min / 255.0, max / 255.0, average / 255.0, alphaMin / 255.0, alphaMax / 255.0);
-    }
-
-    @Override
-    public double getMin() {
-      return min;
-    }
-
-    @Override
-    public double getMax() {
-      return max;
-    }
-
-    @Override
-    public double getAverage() {
-      return average;
-    }
-
-    @Override
-    public double getAlphaMin() {
-      return alphaMin;
-    }
-
-    @Override
-    public double getAlphaMax() {
-      return alphaMax;
-    }
+  // Returns the counts of the given 8bit data, or the null info, if there is no data.
+  protected static PixelInfo byteInfo(ByteBuffer data, boolean isRGBA) {
+    return (data.capacity() == 0) ? PixelInfo.NULL_INFO : ImageStats.ofBytes(data, isRGBA);
   }
 }
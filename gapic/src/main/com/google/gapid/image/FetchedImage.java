@@ -24,6 +24,9 @@ import static com.google.gapid.util.Paths.resourceInfo;
 import static com.google.gapid.util.Paths.thumbnail;
 
 import com.google.common.base.Function;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.image.Image.Key;
@@ -32,19 +35,47 @@ import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.api.API;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
+import com.google.gapid.util.Caches;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.Values;
+import com.google.gapid.util.Weighers;
 
 import org.eclipse.swt.graphics.ImageData;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * A {@link MultiLayerAndLevelImage} fetched from the RPC server.
+ * A {@link MultiLayerAndLevelImage} fetched from the RPC server. The decoded levels are kept in a
+ * shared, size bounded cache, rather than for as long as the image is referenced. Large levels
+ * offer a {@link #getPreview(int, int) preview}, from a small mipmap level or a server side
+ * thumbnail, to be shown while the full level is loading.
  */
 public class FetchedImage implements MultiLayerAndLevelImage {
+  public static final Flag<Integer> levelCacheSize = Flags.value("texture-level-cache-mb", 512,
+      "Maximum size, in MiB, of the cache of decoded texture levels.", true);
+
+  // Levels with at least this many pixels are previewed while loading.
+  private static final long PREVIEW_MIN_PIXELS = 2048 * 2048;
+  // The maximum width and height of a preview.
+  private static final int PREVIEW_SIZE = 512;
+
+  // Created lazily, so that it is sized by the parsed flags.
+  private static final Supplier<Cache<Level, Image>> LEVEL_CACHE = Suppliers.memoize(() ->
+      Caches.weightedCache(levelCacheSize, (level, image) -> Weighers.toWeight(sizeOf(image))));
+  // The level loaded last, which is usually the one displayed. Kept even if it exceeds the budget.
+  private static final AtomicReference<Map.Entry<Level, Image>> LAST_LOADED =
+      new AtomicReference<Map.Entry<Level, Image>>(null);
+
   private final Layer[] layers;
+  // Loads a server side thumbnail of the first level of the first layer, or null.
+  private Supplier<ListenableFuture<Image>> thumbnail = null;
 
   public static ListenableFuture<FetchedImage> load(
       Client client, Path.Device device, ListenableFuture<Path.ImageInfo> imageInfo) {
@@ -99,29 +130,39 @@ public class FetchedImage implements MultiLayerAndLevelImage {
   public static ListenableFuture<FetchedImage> load(
       Client client, Path.Device device, Path.ResourceData imagePath, Images.Format format) {
     return MoreFutures.transform(client.get(imageData(imagePath, format.format), device), value -> {
-      API.ResourceData data = value.getResourceData();
-      API.Texture texture = data.getTexture();
-      switch (texture.getTypeCase()) {
-        case TEXTURE_1D:
-          return new FetchedImage(client, device, format, texture.getTexture1D());
-        case TEXTURE_1D_ARRAY:
-          return new FetchedImage(client, device, format, texture.getTexture1DArray());
-        case TEXTURE_2D:
-          return new FetchedImage(client, device, format, texture.getTexture2D());
-        case TEXTURE_2D_ARRAY:
-          return new FetchedImage(client, device, format, texture.getTexture2DArray());
-        case TEXTURE_3D:
-          return new FetchedImage(client, device, format, texture.getTexture3D());
-        case CUBEMAP:
-          return new FetchedImage(client, device, format, texture.getCubemap());
-        case CUBEMAP_ARRAY:
-          throw new UnsupportedOperationException("Cubemap Array images not yet implemented");
-        default:
-          throw new UnsupportedOperationException("Unexpected resource type: " + value);
-      }
+      FetchedImage image = create(client, device, format, value);
+      image.thumbnail = () -> MoreFutures.transformAsync(
+          client.get(thumbnail(imagePath, PREVIEW_SIZE, false), device), thumb ->
+              new SingleFacedLevel(client, device, Images.Format.Color8, thumb.getImageInfo())
+                  .doLoad());
+      return image;
     });
   }
 
+  private static FetchedImage create(
+      Client client, Path.Device device, Images.Format format, Service.Value value) {
+    API.ResourceData data = value.getResourceData();
+    API.Texture texture = data.getTexture();
+    switch (texture.getTypeCase()) {
+      case TEXTURE_1D:
+        return new FetchedImage(client, device, format, texture.getTexture1D());
+      case TEXTURE_1D_ARRAY:
+        return new FetchedImage(client, device, format, texture.getTexture1DArray());
+      case TEXTURE_2D:
+        return new FetchedImage(client, device, format, texture.getTexture2D());
+      case TEXTURE_2D_ARRAY:
+        return new FetchedImage(client, device, format, texture.getTexture2DArray());
+      case TEXTURE_3D:
+        return new FetchedImage(client, device, format, texture.getTexture3D());
+      case CUBEMAP:
+        return new FetchedImage(client, device, format, texture.getCubemap());
+      case CUBEMAP_ARRAY:
+        throw new UnsupportedOperationException("Cubemap Array images not yet implemented");
+      default:
+        throw new UnsupportedOperationException("Unexpected resource type: " + value);
+    }
+  }
+
   public static ListenableFuture<ImageData> loadImage(
       ListenableFuture<FetchedImage> futureImage, final int layer, final int level) {
     return MoreFutures.transformAsync(futureImage, image -> MoreFutures.transform(
@@ -144,6 +185,10 @@ public class FetchedImage implements MultiLayerAndLevelImage {
         immediateFuture(new FetchedImage(client, device, Images.Format.Color8, info)), 0, 0);
   }
 
+  private static long sizeOf(Image image) {
+    return (image instanceof ArrayImage) ? ((ArrayImage)image).getSize() : Weighers.OBJECT_SIZE;
+  }
+
   private static Images.Format getFormat(Info imageInfo) {
     return Images.Format.from(imageInfo.getFormat());
   }
@@ -274,6 +319,12 @@ public class FetchedImage implements MultiLayerAndLevelImage {
         layers[layerIdx].getImage(levelIdx);
   }
 
+  @Override
+  public ListenableFuture<Image> getPreview(int layerIdx, int levelIdx) {
+    return (layerIdx < 0 || layerIdx >= layers.length) ? null :
+        layers[layerIdx].getPreview(levelIdx, (layerIdx == 0 && levelIdx == 0) ? thumbnail : null);
+  }
+
   @Override
   public Image.Key getLevelKey(int level) {
     Key.Builder builder = new Key.Builder();
@@ -299,6 +350,32 @@ public class FetchedImage implements MultiLayerAndLevelImage {
           levels[level].get();
     }
 
+    // Returns a preview of the level, scaled from the first smaller level that fits the preview
+    // size, or else from the given thumbnail, if any. Returns null if no preview is needed.
+    public ListenableFuture<Image> getPreview(
+        int level, Supplier<ListenableFuture<Image>> thumbnail) {
+      if (level < 0 || level >= levels.length) {
+        return null;
+      }
+      Level target = levels[level];
+      if (target.isLoaded() ||
+          (long)target.getWidth() * target.getHeight() * target.getDepth() < PREVIEW_MIN_PIXELS) {
+        return null;
+      }
+
+      ListenableFuture<Image> preview = null;
+      for (int i = level + 1; preview == null && i < levels.length; i++) {
+        if (Math.max(levels[i].getWidth(), levels[i].getHeight()) <= PREVIEW_SIZE) {
+          preview = levels[i].get();
+        }
+      }
+      if (preview == null && thumbnail != null) {
+        preview = thumbnail.get();
+      }
+      return (preview == null) ? null : MoreFutures.transform(preview, image ->
+          new ScaledImage(image, target.getWidth(), target.getHeight(), target.getDepth()));
+    }
+
     public void appendLevelTo(int level, Image.Key.Builder keyBuilder) {
       levels[level].appendTo(keyBuilder);
     }
@@ -319,6 +396,21 @@ public class FetchedImage implements MultiLayerAndLevelImage {
         return null;
       }
 
+      @Override
+      public int getWidth() {
+        return 0;
+      }
+
+      @Override
+      public int getHeight() {
+        return 0;
+      }
+
+      @Override
+      public int getDepth() {
+        return 0;
+      }
+
       @Override
       public void appendTo(Image.Key.Builder keyBuilder) {
         // Do nothing.
@@ -326,39 +418,49 @@ public class FetchedImage implements MultiLayerAndLevelImage {
     };
 
     protected final Images.Format format;
-    private Image image;
 
     public Level(Images.Format format) {
       this.format = format;
     }
 
     public ListenableFuture<Image> get() {
-      Image result;
-      synchronized (this) {
-        result = image;
-      }
+      Image result = getLoaded();
       return (result == null) ? MoreFutures.transform(doLoad(), this) : immediateFuture(result);
     }
 
+    public boolean isLoaded() {
+      return getLoaded() != null;
+    }
+
+    private Image getLoaded() {
+      Map.Entry<Level, Image> last = LAST_LOADED.get();
+      return (last != null && last.getKey() == this) ?
+          last.getValue() : LEVEL_CACHE.get().getIfPresent(this);
+    }
+
     @Override
     public Image apply(Image input) {
-      synchronized (this) {
-        image = input;
-      }
-      return image;
+      LEVEL_CACHE.get().put(this, input);
+      LAST_LOADED.set(Maps.immutableEntry(this, input));
+      return input;
     }
 
     protected abstract ListenableFuture<Image> doLoad();
 
+    // The dimensions of the loaded image.
+    public abstract int getWidth();
+    public abstract int getHeight();
+    public abstract int getDepth();
+
     public abstract void appendTo(Image.Key.Builder keyBuilder);
 
-    protected static Image convertImage(Info info, Images.Format format, byte[] data) {
+    protected static Image convertImage(Info info, Images.Format format, ByteBuffer data) {
       return format.builder(Image.Key.of(info), info.getWidth(), info.getHeight(), info.getDepth())
           .update(data, 0, 0, 0, info.getWidth(), info.getHeight(), info.getDepth())
           .build();
     }
 
-    protected static Image convertImage(Info[] infos, Images.Format format, byte[][] data) {
+    protected static Image convertImage(Info[] infos, Images.Format format, ByteBuffer[] data) {
       assert (infos.length == data.length && infos.length == 6);
       // Typically these are all the same, but let's be safe.
       int width = Math.max(
@@ -409,7 +511,22 @@ public class FetchedImage implements MultiLayerAndLevelImage {
     @Override
     protected ListenableFuture<Image> doLoad() {
       return MoreFutures.transform(client.get(blob(imageInfo.getBytes()), device), data ->
-        convertImage(imageInfo, format, Values.getBytes(data)));
+        convertImage(imageInfo, format, Values.getBuffer(data)));
+    }
+
+    @Override
+    public int getWidth() {
+      return imageInfo.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return imageInfo.getHeight();
+    }
+
+    @Override
+    public int getDepth() {
+      return imageInfo.getDepth();
     }
 
     @Override
@@ -446,14 +563,38 @@ public class FetchedImage implements MultiLayerAndLevelImage {
         futures[i] = client.get(blob(imageInfos[i].getBytes()), device);
       }
       return MoreFutures.transform(Futures.allAsList(futures), values -> {
-        byte[][] data = new byte[values.size()][];
+        ByteBuffer[] data = new ByteBuffer[values.size()];
         for (int i = 0; i < data.length; i++) {
-          data[i] = Values.getBytes(values.get(i));
+          data[i] = Values.getBuffer(values.get(i));
         }
         return convertImage(imageInfos, format, data);
       });
     }
 
+    // The faces are laid out in a 4x3 grid of the largest face, see convertImage.
+    @Override
+    public int getWidth() {
+      int width = 0;
+      for (Info info : imageInfos) {
+        width = Math.max(width, info.getWidth());
+      }
+      return 4 * width;
+    }
+
+    @Override
+    public int getHeight() {
+      int height = 0;
+      for (Info info : imageInfos) {
+        height = Math.max(height, info.getHeight());
+      }
+      return 3 * height;
+    }
+
+    @Override
+    public int getDepth() {
+      return 1;
+    }
+
     @Override
     public void appendTo(Image.Key.Builder keyBuilder) {
       keyBuilder.add(imageInfos);
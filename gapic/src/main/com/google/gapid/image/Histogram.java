@@ -15,6 +15,8 @@
  */
 package com.google.gapid.image;
 
+import static com.google.gapid.util.Weighers.OBJECT_SIZE;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.toSet;
 
@@ -160,6 +162,13 @@ public class Histogram {
     return mapper.range(count);
   }
 
+  /**
+   * Returns an estimate of the retained size of this histogram in bytes.
+   */
+  public long getSize() {
+    return 4 * OBJECT_SIZE + bins.getSize();
+  }
+
   /**
    * Helper to build {@link Bins} instances with a given {@link Mapper}.
    */
@@ -178,9 +187,35 @@ public class Histogram {
      * Adds the given value as a data point for the given channel, incrementing it's bin count.
      */
     public void bin(float value, Stream.Channel channel) {
+      bin(value, channel, 1);
+    }
+
+    /**
+     * Adds the given value as the given number of data points for the given channel.
+     */
+    public void bin(float value, Stream.Channel channel, int count) {
       int binIdx = (int)(mapper.map(value) * (numBins - 1));
       binIdx = Math.max(0, Math.min(numBins - 1, binIdx));
-      bins[binIdx][getChannelIdx(channel)]++;
+      bins[binIdx][getChannelIdx(channel)] += count;
+    }
+
+    /**
+     * Returns a new, empty {@link Binner} with the same mapping, to bin a part of the data, which
+     * is later {@link #add(Binner) added} to this one.
+     */
+    public Binner partial() {
+      return new Binner(mapper, numBins);
+    }
+
+    /**
+     * Adds the counts of the given {@link #partial() partial} binner to this one.
+     */
+    public void add(Binner other) {
+      for (int bin = 0; bin < numBins; bin++) {
+        for (int channel = 0; channel < bins[bin].length; channel++) {
+          bins[bin][channel] += other.bins[bin][channel];
+        }
+      }
     }
 
     /**
@@ -365,6 +400,14 @@ public class Histogram {
       return bins.length;
     }
 
+    public long getSize() {
+      long size = OBJECT_SIZE + sizeOf(bins) + sizeOf(max) + sizeOf(total);
+      for (int[] bin : bins) {
+        size += sizeOf(bin);
+      }
+      return size;
+    }
+
     /**
      * Returns the index of the bin which matches the given percentile, or -1.
      */
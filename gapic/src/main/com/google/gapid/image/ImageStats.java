@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import static com.google.gapid.util.Weighers.OBJECT_SIZE;
+import static com.google.gapid.util.Weighers.sizeOf;
+
+import com.google.gapid.image.Image.PixelInfo;
+import com.google.gapid.proto.stream.Stream;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Computes the {@link PixelInfo} and the histogram bins of the pixel data of {@link ArrayImage
+ * ArrayImages}. The pixels are split into tiles, which are processed in parallel on the common
+ * fork-join pool, each into its own partial result, and the partial results are merged at the end.
+ * 8bit images are reduced to the counts of each channel value in a single pass, from which both
+ * the pixel info and the histogram bins are derived.
+ */
+public class ImageStats {
+  // The number of pixels processed by a single task.
+  private static final int TILE_SIZE = 1 << 16;
+
+  private ImageStats() {
+  }
+
+  /**
+   * Counts the values of the channels of the given 8bit RGBA or single channel data.
+   */
+  public static ByteCounts ofBytes(ByteBuffer data, boolean isRGBA) {
+    int stride = isRGBA ? 4 : 1;
+    int[][] counts = reduce(data.capacity() / stride, (from, to) -> {
+      int[][] result = new int[stride][256];
+      for (int i = from * stride, end = to * stride; i < end; ) {
+        for (int c = 0; c < stride; c++, i++) {
+          result[c][data.get(i) & 0xFF]++;
+        }
+      }
+      return result;
+    }, (a, b) -> {
+      for (int c = 0; c < a.length; c++) {
+        for (int v = 0; v < 256; v++) {
+          a[c][v] += b[c][v];
+        }
+      }
+      return a;
+    });
+    return new ByteCounts(data.capacity(), isRGBA, counts);
+  }
+
+  /**
+   * Returns the {@link ByteCounts} of the given data, which is the given pixel info, if it was
+   * computed for the same data, or else is computed.
+   */
+  public static ByteCounts ofBytes(PixelInfo info, ByteBuffer data, boolean isRGBA) {
+    if (info instanceof ByteCounts && ((ByteCounts)info).covers(data)) {
+      return (ByteCounts)info;
+    }
+    return ofBytes(data, isRGBA);
+  }
+
+  /**
+   * Computes the pixel info of the given 32bit float RGBA or single channel data. NaNs and
+   * infinities are ignored.
+   */
+  public static PixelInfo ofFloats(FloatBuffer buffer, boolean isRGBA) {
+    if (!buffer.hasRemaining()) {
+      return PixelInfo.NULL_INFO;
+    }
+
+    int stride = isRGBA ? 4 : 1, colors = isRGBA ? 3 : 1;
+    return reduce(buffer.remaining() / stride, (from, to) -> {
+      FloatInfo result = new FloatInfo(isRGBA);
+      for (int i = from * stride, end = to * stride; i < end; i += stride) {
+        for (int c = 0; c < colors; c++) {
+          float value = buffer.get(i + c);
+          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
+            result.min = Math.min(result.min, value);
+            result.max = Math.max(result.max, value);
+            result.sum += value;
+            result.count++;
+          }
+        }
+        if (isRGBA) {
+          float value = buffer.get(i + 3);
+          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
+            result.alphaMin = Math.min(result.alphaMin, value);
+            result.alphaMax = Math.max(result.alphaMax, value);
+          }
+        }
+      }
+      return result;
+    }, FloatInfo::merge);
+  }
+
+  /**
+   * Bins the values of the given 32bit float data, with the given number of components per pixel.
+   * The value of component c is binned into {@code channels[c]}, unless it is null, while NaNs and
+   * infinities are ignored.
+   */
+  public static void binFloats(
+      FloatBuffer buffer, Stream.Channel[] channels, Histogram.Binner binner) {
+    int stride = channels.length;
+    binner.add(reduce(buffer.remaining() / stride, (from, to) -> {
+      Histogram.Binner result = binner.partial();
+      for (int i = from * stride, end = to * stride; i < end; i += stride) {
+        for (int c = 0; c < stride; c++) {
+          float value = buffer.get(i + c);
+          if (channels[c] != null && !Float.isNaN(value) && !Float.isInfinite(value)) {
+            result.bin(value, channels[c]);
+          }
+        }
+      }
+      return result;
+    }, (a, b) -> {
+      a.add(b);
+      return a;
+    }));
+  }
+
+  private static <T> T reduce(int pixels, Tile<T> tile, BinaryOperator<T> merge) {
+    if (pixels <= TILE_SIZE) {
+      return tile.compute(0, pixels);
+    }
+    return ForkJoinPool.commonPool().invoke(new Task<T>(0, pixels, tile, merge));
+  }
+
+  /**
+   * Computes the partial result of the pixels in [from, to).
+   */
+  private static interface Tile<T> {
+    public T compute(int from, int to);
+  }
+
+  private static class Task<T> extends RecursiveTask<T> {
+    private final int from, to;
+    private final Tile<T> tile;
+    private final BinaryOperator<T> merge;
+
+    public Task(int from, int to, Tile<T> tile, BinaryOperator<T> merge) {
+      this.from = from;
+      this.to = to;
+      this.tile = tile;
+      this.merge = merge;
+    }
+
+    @Override
+    protected T compute() {
+      if (to - from <= TILE_SIZE) {
+        return tile.compute(from, to);
+      }
+      int mid = (from + to) >>> 1;
+      Task<T> left = new Task<T>(from, mid, tile, merge);
+      left.fork();
+      T right = new Task<T>(mid, to, tile, merge).compute();
+      return merge.apply(left.join(), right);
+    }
+  }
+
+  /**
+   * The counts of each value of the channels of 8bit data, which also serve as its pixel info.
+   */
+  public static class ByteCounts implements PixelInfo {
+    private final int length;
+    private final int[][] counts; // By component, then value.
+    private final double min, max, average;
+    private final double alphaMin, alphaMax;
+
+    public ByteCounts(int length, boolean isRGBA, int[][] counts) {
+      this.length = length;
+      this.counts = counts;
+
+      int colors = isRGBA ? 3 : 1, min = 255, max = 0;
+      double sum = 0;
+      for (int c = 0; c < colors; c++) {
+        for (int v = 0; v < 256; v++) {
+          if (counts[c][v] > 0) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += (double)v * counts[c][v];
+          }
+        }
+      }
+      this.min = min / 255.0;
+      this.max = max / 255.0;
+      // Truncate-divide the length first on purpose.
+      this.average = sum / (isRGBA ? (length / 4) * 3 : length) / 255.0;
+
+      if (isRGBA) {
+        int alphaMin = 255, alphaMax = 0;
+        for (int v = 0; v < 256; v++) {
+          if (counts[3][v] > 0) {
+            alphaMin = Math.min(alphaMin, v);
+            alphaMax = Math.max(alphaMax, v);
+          }
+        }
+        this.alphaMin = alphaMin / 255.0;
+        this.alphaMax = alphaMax / 255.0;
+      } else {
+        this.alphaMin = this.alphaMax = 1;
+      }
+    }
+
+    /**
+     * Returns whether these counts were computed for data of the same size as the given data.
+     * Images only share their pixel info with their slices, so this identifies the full image.
+     */
+    public boolean covers(ByteBuffer data) {
+      return data.capacity() == length;
+    }
+
+    /**
+     * Bins the counted values of component c into {@code channels[c]}, unless it is null.
+     */
+    public void bin(Histogram.Binner binner, Stream.Channel... channels) {
+      for (int c = 0; c < channels.length; c++) {
+        if (channels[c] == null) {
+          continue;
+        }
+        for (int v = 0; v < 256; v++) {
+          if (counts[c][v] > 0) {
+            binner.bin(v / 255f, channels[c], counts[c][v]);
+          }
+        }
+      }
+    }
+
+    public long getSize() {
+      long size = 2 * OBJECT_SIZE + sizeOf(counts);
+      for (int[] count : counts) {
+        size += sizeOf(count);
+      }
+      return size;
+    }
+
+    @Override
+    public double getMin() {
+      return min;
+    }
+
+    @Override
+    public double getMax() {
+      return max;
+    }
+
+    @Override
+    public double getAverage() {
+      return average;
+    }
+
+    @Override
+    public double getAlphaMin() {
+      return alphaMin;
+    }
+
+    @Override
+    public double getAlphaMax() {
+      return alphaMax;
+    }
+  }
+
+  private static class FloatInfo implements PixelInfo {
+    public double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+    public long count = 0;
+    public double alphaMin, alphaMax;
+
+    public FloatInfo(boolean isRGBA) {
+      if (isRGBA) {
+        alphaMin = Float.POSITIVE_INFINITY;
+        alphaMax = Float.NEGATIVE_INFINITY;
+      } else {
+        alphaMin = alphaMax = 1;
+      }
+    }
+
+    public FloatInfo merge(FloatInfo other) {
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      sum += other.sum;
+      count += other.count;
+      alphaMin = Math.min(alphaMin, other.alphaMin);
+      alphaMax = Math.max(alphaMax, other.alphaMax);
+      return this;
+    }
+
+    @Override
+    public double getMin() {
+      return min;
+    }
+
+    @Override
+    public double getMax() {
+      return max;
+    }
+
+    @Override
+    public double getAverage() {
+      return (count == 0) ? 0.5 : (sum / count);
+    }
+
+    @Override
+    public double getAlphaMin() {
+      return alphaMin;
+    }
+
+    @Override
+    public double getAlphaMax() {
+      return alphaMax;
+    }
+  }
+}
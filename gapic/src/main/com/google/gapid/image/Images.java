@@ -32,6 +32,7 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.internal.DPIUtil;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 /**
@@ -266,42 +267,42 @@ public class Images {
     Color8(FMT_RGBA_U8_NORM, 4 * 1) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.RGBA8Image(key, width, height, depth, data);
       }
     },
     Depth8(FMT_DEPTH_U8_NORM, 1 *1) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.Luminance8Image(key, width, height, depth, data);
       }
     },
     ColorFloat(FMT_RGBA_FLOAT, 4 * 4) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.RGBAFloatImage(key, width, height, depth, data);
       }
     },
     DepthFloat(FMT_DEPTH_FLOAT, 1 * 4) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.LuminanceFloatImage(key, width, height, depth, data);
       }
     },
     LuminanceFloat(FMT_LUMINANCE_FLOAT, 1 * 4) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.LuminanceFloatImage(key, width, height, depth, data);
       }
     },
     Count8(FMT_COUNT_U8, 1 * 1) {
       @Override
       protected ArrayImage build(
-          com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data) {
+          com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data) {
         return new ArrayImage.Count8Image(key, width, height, depth, data);
       }
     };
@@ -337,6 +338,6 @@ public class Images {
     }
 
     protected abstract ArrayImage build(
-        com.google.gapid.image.Image.Key key, int width, int height, int depth, byte[] data);
+        com.google.gapid.image.Image.Key key, int width, int height, int depth, ByteBuffer data);
   }
 }
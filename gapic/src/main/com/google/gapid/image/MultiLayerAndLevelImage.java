@@ -42,6 +42,14 @@ public interface MultiLayerAndLevelImage {
    */
   public ListenableFuture<Image> getImage(int layer, int level);
 
+  /**
+   * Returns a future low resolution preview, at the dimensions of the given level, to show while
+   * the level is loading, or null if the level is small enough or already loaded.
+   */
+  public default ListenableFuture<Image> getPreview(int layer, int level) {
+    return null;
+  }
+
   public static final MultiLayerAndLevelImage EMPTY = new MultiLayerAndLevelImage() {
     @Override
     public int getLayerCount() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.gapid.glviewer.gl.Texture;
+import com.google.gapid.proto.stream.Stream;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import java.util.Set;
+
+/**
+ * An {@link Image} that presents a lower resolution image, such as a smaller mipmap level, at the
+ * dimensions of a larger one. Used as a preview, while the full resolution image is loading. The
+ * texture of the source image is simply stretched when drawn and pixels are looked up at the
+ * corresponding position in the source.
+ */
+public class ScaledImage implements Image {
+  private final Image source;
+  private final int width, height, depth;
+
+  public ScaledImage(Image source, int width, int height, int depth) {
+    this.source = source;
+    this.width = width;
+    this.height = height;
+    this.depth = depth;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getDepth() {
+    return depth;
+  }
+
+  @Override
+  public Image getSlice(int z) {
+    return new ScaledImage(source.getSlice(scale(z, depth, source.getDepth())), width, height, 1);
+  }
+
+  @Override
+  public void uploadToTexture(Texture texture) {
+    source.uploadToTexture(texture);
+  }
+
+  @Override
+  public ImageData getImageData() {
+    return source.getImageData();
+  }
+
+  @Override
+  public PixelValue getPixel(int x, int y, int z) {
+    if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= depth) {
+      return PixelValue.NULL_PIXEL;
+    }
+    return source.getPixel(scale(x, width, source.getWidth()),
+        scale(y, height, source.getHeight()), scale(z, depth, source.getDepth()));
+  }
+
+  // Maps the coordinate from [0, size) to [0, sourceSize).
+  private static int scale(int v, int size, int sourceSize) {
+    return Math.min(sourceSize - 1, (int)((long)v * sourceSize / size));
+  }
+
+  @Override
+  public Set<Stream.Channel> getChannels() {
+    return source.getChannels();
+  }
+
+  @Override
+  public ImageType getType() {
+    return source.getType();
+  }
+
+  @Override
+  public void bin(Histogram.Binner binner) {
+    source.bin(binner);
+  }
+
+  @Override
+  public PixelInfo getInfo() {
+    return source.getInfo();
+  }
+}
@@ -15,12 +15,14 @@
  */
 package com.google.gapid.models;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.proto.service.memory.Memory.PoolNames.Application_VALUE;
 import static com.google.gapid.util.Paths.command;
 import static com.google.gapid.util.Paths.commandTree;
 import static com.google.gapid.util.Paths.commandTreeNodeForCommand;
 import static com.google.gapid.util.Paths.lastCommand;
 import static com.google.gapid.util.Paths.observationsAfter;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static com.google.gapid.widgets.Widgets.submitIfNotDisposed;
 import static java.util.logging.Level.FINE;
 
@@ -39,6 +41,8 @@ import com.google.gapid.rpc.RpcException;
 import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.Events;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.Paths;
@@ -62,6 +66,10 @@ public class CommandStream
     implements Capture.Listener, Devices.Listener {
   protected static final Logger LOG = Logger.getLogger(CommandStream.class.getName());
 
+  public static final Flag<Integer> nodePageSize = Flags.value("command-tree-page-size", 64,
+      "Number of sibling command tree nodes that are loaded together, when one of them is shown.",
+      true);
+
   private final Capture capture;
   private final ConstantSets constants;
   private CommandIndex selection;
@@ -110,7 +118,42 @@ public class CommandStream
                 device, tree.getCommandTree().getRoot().getTree(), val.getCommandTreeNode())));
   }
 
+  /**
+   * Loads the given node, along with its siblings in the same page of the parent's children, so
+   * that the rows shown together in the tree are requested together, rather than one at a time as
+   * each row is painted. Once the page has loaded, the following page is prefetched, as it is
+   * likely to be scrolled into view next. The page is only requested by the call that starts
+   * loading the node, not by the repeated calls while it is loading. Returns null if the node is
+   * already loaded.
+   */
   public ListenableFuture<Node> load(Node node) {
+    boolean loading = node.isLoading();
+    ListenableFuture<Node> result = loadNode(node);
+    if (result != null && !loading && node.parent != null) {
+      loadPage(node.parent, node.index / Math.max(1, nodePageSize.get()), true);
+    }
+    return result;
+  }
+
+  private void loadPage(Node parent, int page, boolean prefetchNext) {
+    int size = Math.max(1, nodePageSize.get());
+    int from = page * size, to = Math.min(parent.getChildCount(), from + size);
+    List<ListenableFuture<Node>> futures = Lists.newArrayList();
+    for (int i = from; i < to; i++) {
+      ListenableFuture<Node> future = loadNode(parent.getChild(i));
+      if (future != null) {
+        futures.add(future);
+      }
+    }
+
+    if (prefetchNext && to < parent.getChildCount()) {
+      // Only prefetch once the page is done, to bound the number of requests in flight.
+      Futures.successfulAsList(futures).addListener(() ->
+          scheduleIfNotDisposed(shell, () -> loadPage(parent, page + 1, false)), directExecutor());
+    }
+  }
+
+  private ListenableFuture<Node> loadNode(Node node) {
     return node.load(shell, () -> MoreFutures.transformAsync(
         client.get(commandTree(node.getPath(Path.CommandTreeNode.newBuilder())), node.device),
         v1 -> {
@@ -435,6 +478,10 @@ public class CommandStream
       }
     }
 
+    public boolean isLoading() {
+      return data == null && loadFuture != null && !loadFuture.isCancelled();
+    }
+
     public ListenableFuture<Node> load(Shell shell, Supplier<ListenableFuture<NodeData>> loader) {
       if (data != null) {
         // Already loaded.
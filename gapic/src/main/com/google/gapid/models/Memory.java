@@ -22,10 +22,15 @@ import static com.google.gapid.util.Paths.type;
 import static com.google.gapid.util.Ranges.memory;
 import static com.google.gapid.util.Ranges.merge;
 import static com.google.gapid.util.Ranges.relative;
+import static com.google.gapid.util.Weighers.OBJECT_SIZE;
+import static com.google.gapid.util.Weighers.sizeOf;
 
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.UnsignedLongs;
 import com.google.common.util.concurrent.Futures;
@@ -37,20 +42,25 @@ import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.proto.service.types.TypeInfo;
 import com.google.gapid.proto.service.types.TypeInfo.Type.TyCase;
 import com.google.gapid.server.Client;
+import com.google.gapid.util.Caches;
 import com.google.gapid.util.Events;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.MemoryBoxes;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.Paths;
 import com.google.gapid.util.Ranges;
 import com.google.gapid.util.TypeInfos;
+import com.google.gapid.util.Weighers;
 
 import org.eclipse.swt.widgets.Shell;
 
-import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -61,12 +71,19 @@ import java.util.stream.Collectors;
 
 /**
  * Model responsible for loading memory pool data. This model requests segments as equally sized
- * pages and maintains a cache of fetched pages.
+ * pages and maintains a capture wide store of fetched pages, shared by all commands. Pages that
+ * cannot have changed between the previously and currently selected commands are taken from the
+ * store, rather than fetched again.
  */
 public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Void, Memory.Listener> {
   private static final Logger LOG = Logger.getLogger(Memory.class.getName());
 
+  public static final Flag<Integer> pageCacheSize = Flags.value("memory-page-cache-mb", 64,
+      "Maximum size, in MiB, of the memory pages kept across all commands of the capture.", true);
+
   private final CommandStream commands;
+  private final PageStore pages = new PageStore();
+  private volatile Observed lastObserved = null;
 
   public Memory(
       Shell shell, Analytics analytics, Client client, Devices devices, CommandStream commands) {
@@ -111,7 +128,10 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
         structObs[idx++] = new StructObservation(typed, source, device);
       }
 
-      return new Data(device, client, source, obs, structObs);
+      Observed observed = new Observed(device, source, Iterables.concat(reads, writes));
+      Delta delta = observed.deltaFrom(lastObserved);
+      lastObserved = observed;
+      return new Data(device, client, source, obs, structObs, pages, delta);
     });
   }
 
@@ -167,15 +187,18 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
     private final Source src;
     private final Observation[] observations;
     private final StructObservation[] structObservations;
-    private final Map<Long, SoftReference<Segment>> cache = Maps.newHashMap();
+    private final PageStore pages;
+    private final Delta delta; // From a previously loaded command, or null.
 
     public Data(Path.Device device, Client client, Source src, Observation[] observations,
-        StructObservation[] structObservations) {
+        StructObservation[] structObservations, PageStore pages, Delta delta) {
       super(device);
       this.client = client;
       this.src = src;
       this.observations = observations;
       this.structObservations = structObservations;
+      this.pages = pages;
+      this.delta = delta;
     }
 
     public int getPool() {
@@ -220,30 +243,21 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
     }
 
     private ListenableFuture<Segment> getFromCacheOrServer(long page) {
-      Segment cached = null;
-      synchronized (cache) {
-        SoftReference<Segment> reference = cache.get(page);
-        if (reference != null) {
-          cached = reference.get();
-          if (cached == null) {
-            cache.remove(page);
-          }
-        }
-      }
+      Segment cached = pages.get(device, src, page);
       if (cached != null) {
         return Futures.immediateFuture(cached);
       }
 
-      return MoreFutures.transform(getFromServer(page), mem -> {
-        addToCache(page, mem);
-        return mem;
-      });
-    }
-
-    private void addToCache(long page, Segment data) {
-      synchronized (cache) {
-        cache.put(page, new SoftReference<Segment>(data));
+      if (delta != null && !delta.changes(getOffsetForPage(page), PAGE_SIZE)) {
+        Segment unchanged = pages.get(device, delta.base, page);
+        if (unchanged != null) {
+          // Neither command observed memory in the page, so it holds no reads or writes.
+          return Futures.immediateFuture(
+              pages.put(device, src, page, unchanged.withoutObservations()));
+        }
       }
+
+      return MoreFutures.transform(getFromServer(page), mem -> pages.put(device, src, page, mem));
     }
 
     private ListenableFuture<Segment> getFromServer(long page) {
@@ -265,6 +279,123 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
     }
   }
 
+  /**
+   * The memory ranges read or written by a command, as observed in the capture.
+   */
+  private static class Observed {
+    public final Path.Device device;
+    public final Source source;
+    public final List<Service.MemoryRange> ranges;
+
+    public Observed(Path.Device device, Source source, Iterable<Service.MemoryRange> ranges) {
+      this.device = device;
+      this.source = source;
+      this.ranges = merge(Lists.newArrayList(ranges));
+    }
+
+    /**
+     * Returns the delta from the given, previously loaded, command to this one, or null if the
+     * memory of the two commands cannot be related. The memory after two adjacent commands only
+     * differs where the later one observed it. The delta is thus limited to adjacent top-level
+     * commands in the application pool, which is the pool the observations are of.
+     */
+    public Delta deltaFrom(Observed base) {
+      if (base == null || !device.equals(base.device) ||
+          source.pool != Application_VALUE || base.source.pool != Application_VALUE ||
+          source.command == null || base.source.command == null) {
+        return null;
+      }
+
+      Path.Command from = base.source.command.getCommand(), to = source.command.getCommand();
+      if (!isNext(from, to) && !isNext(to, from)) {
+        return null;
+      }
+      // Include the observations of both, so that the reads and writes of neither show up.
+      return new Delta(
+          base.source, merge(Lists.newArrayList(Iterables.concat(ranges, base.ranges))));
+    }
+
+    private static boolean isNext(Path.Command command, Path.Command next) {
+      return command.getIndicesCount() == 1 && next.getIndicesCount() == 1 &&
+          command.getCapture().equals(next.getCapture()) &&
+          next.getIndices(0) == command.getIndices(0) + 1;
+    }
+  }
+
+  /**
+   * The memory ranges that may differ between a base command and the current one.
+   */
+  private static class Delta {
+    public final Source base;
+    private final List<Service.MemoryRange> changed;
+
+    public Delta(Source base, List<Service.MemoryRange> changed) {
+      this.base = base;
+      this.changed = changed;
+    }
+
+    public boolean changes(long offset, long length) {
+      for (Service.MemoryRange range : changed) {
+        if (Ranges.overlap(range, offset, length)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Capture wide store of the fetched memory pages, keyed by device, command, pool and page. The
+   * contents of the pages are deduplicated, so that a page that is identical at many commands is
+   * only held once.
+   */
+  private static class PageStore {
+    private final Cache<PageKey, Segment> pages = Caches.weightedCache(
+        pageCacheSize, (key, page) -> Weighers.toWeight(2 * OBJECT_SIZE + page.getSize()));
+    private final Interner<Segment.Content> contents = Interners.newWeakInterner();
+
+    public Segment get(Path.Device device, Source source, long page) {
+      return pages.getIfPresent(new PageKey(device, source, page));
+    }
+
+    public Segment put(Path.Device device, Source source, long page, Segment segment) {
+      Segment result = segment.dedup(contents);
+      pages.put(new PageKey(device, source, page), result);
+      return result;
+    }
+  }
+
+  private static class PageKey {
+    private final Path.Device device;
+    private final Path.Command command;
+    private final int pool;
+    private final long page;
+
+    public PageKey(Path.Device device, Source source, long page) {
+      this.device = device;
+      this.command = (source.command == null) ? null : source.command.getCommand();
+      this.pool = source.pool;
+      this.page = page;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof PageKey)) {
+        return false;
+      }
+      PageKey k = (PageKey)obj;
+      return page == k.page && pool == k.pool && Objects.equal(command, k.command) &&
+          Objects.equal(device, k.device);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(device, command, pool, page);
+    }
+  }
+
   /**
    * A segment of memory data.
    */
@@ -273,16 +404,29 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
     private final BitSet known;
     private final int offset;
     private final int length;
+    // The interned bytes, if deduplicated. Keeps them in the weak interner while this is alive.
+    private final Content content;
 
     private final List<Service.MemoryRange> reads;
     private final List<Service.MemoryRange> writes;
 
     private Segment(byte[] data, BitSet known, int offset, int length,
         List<Service.MemoryRange> reads, List<Service.MemoryRange> writes) {
+      this(data, known, null, offset, length, reads, writes);
+    }
+
+    private Segment(Content content, int offset, int length,
+        List<Service.MemoryRange> reads, List<Service.MemoryRange> writes) {
+      this(content.data, content.known, content, offset, length, reads, writes);
+    }
+
+    private Segment(byte[] data, BitSet known, Content content, int offset, int length,
+        List<Service.MemoryRange> reads, List<Service.MemoryRange> writes) {
       this.data = data;
       this.offset = offset;
       this.length = length;
       this.known = known;
+      this.content = content;
       this.reads = reads;
       this.writes = writes;
     }
@@ -295,6 +439,7 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
       length = data.length;
       reads = merge(mem.getReadsList());
       writes = merge(mem.getWritesList());
+      content = null;
     }
 
     public static Segment combine(List<Segment> segments, int length) {
@@ -327,6 +472,24 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
       return new Segment(data, known, 0, done, merge(reads), merge(writes));
     }
 
+    // Returns this segment, sharing the bytes of an identical segment seen before, if any.
+    protected Segment dedup(Interner<Content> contents) {
+      if (content != null) {
+        return this;
+      }
+      return new Segment(
+          contents.intern(new Content(data, known)), offset, length, reads, writes);
+    }
+
+    protected Segment withoutObservations() {
+      return new Segment(data, known, content, offset, length,
+          Collections.emptyList(), Collections.emptyList());
+    }
+
+    protected long getSize() {
+      return sizeOf(data) + ((known == null) ? 0 : OBJECT_SIZE + known.size() / 8);
+    }
+
     public Segment subSegment(int start, int count) {
       return new Segment(
           data, known, offset + start, Math.min(count, length - start), reads, writes);
@@ -427,6 +590,37 @@ public class Memory extends DeviceDependentModel<Memory.Data, Memory.Source, Voi
       }
       return known;
     }
+
+    /**
+     * The bytes of a segment, compared by value.
+     */
+    protected static class Content {
+      public final byte[] data;
+      public final BitSet known;
+      private final int hash;
+
+      public Content(byte[] data, BitSet known) {
+        this.data = data;
+        this.known = known;
+        this.hash = 31 * Arrays.hashCode(data) + Objects.hashCode(known);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        if (obj == this) {
+          return true;
+        } else if (!(obj instanceof Content)) {
+          return false;
+        }
+        Content c = (Content)obj;
+        return hash == c.hash && Arrays.equals(data, c.data) && Objects.equal(known, c.known);
+      }
+
+      @Override
+      public int hashCode() {
+        return hash;
+      }
+    }
   }
 
   /**
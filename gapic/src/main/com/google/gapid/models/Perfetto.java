@@ -19,26 +19,38 @@ import static com.google.common.collect.ImmutableListMultimap.toImmutableListMul
 import static com.google.gapid.rpc.UiErrorCallback.error;
 import static com.google.gapid.rpc.UiErrorCallback.success;
 import static com.google.gapid.util.Logging.throttleLogRpcError;
+import static com.google.gapid.util.MoreFutures.addCallback;
+import static com.google.gapid.util.MoreFutures.logFailure;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.function.Function.identity;
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.joining;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.models.AsyncInfo;
 import com.google.gapid.perfetto.models.CounterInfo;
 import com.google.gapid.perfetto.models.CpuInfo;
+import com.google.gapid.perfetto.models.CpuTrack;
 import com.google.gapid.perfetto.models.FrameInfo;
 import com.google.gapid.perfetto.models.GpuInfo;
 import com.google.gapid.perfetto.models.ProcessInfo;
 import com.google.gapid.perfetto.models.QueryEngine;
 import com.google.gapid.perfetto.models.ThreadInfo;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.models.TrackConfig;
 import com.google.gapid.perfetto.models.Tracks;
 import com.google.gapid.perfetto.models.VSync;
@@ -49,11 +61,14 @@ import com.google.gapid.rpc.UiErrorCallback.ResultOrError;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Loadable;
+import com.google.gapid.util.Scheduler;
 import com.google.gapid.views.StatusBar;
 
 import org.eclipse.swt.widgets.Shell;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
@@ -87,57 +102,70 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
     });
   }
 
+  // The loading stages only depend on the stages they take data from and run concurrently
+  // otherwise. Each stage fills its own builder, the builders are merged where stages join.
   @Override
   protected ListenableFuture<Data> doLoad(Path.Capture source) {
-    Data.Builder data = new Data.Builder(new QueryEngine(client, source, status));
-    return
-        transformAsync(withStatus("Examining the trace...", examineTrace(data)), $1 ->
-          transformAsync(withStatus("Querying threads...", queryThreads(data)), $2 ->
-            transformAsync(withStatus("Querying GPU info...", queryGpu(data)), $3 ->
-              transformAsync(withStatus("Querying Frame info...", queryFrame(data)), $4 ->
-                transformAsync(withStatus("Querying counters...", queryCounters(data)), $5 ->
-                  transform(withStatus("Enumerating tracks...", enumerateTracks(data)), $6 ->
-                    data.build()))))));
+    QueryEngine qe = new QueryEngine(client, source, status);
+    Loader loader = new Loader(source);
+
+    ListenableFuture<Data.Builder> examine =
+        loader.stage("CPUs", () -> examineTrace(new Data.Builder(qe)));
+    ListenableFuture<Data.Builder> threads =
+        loader.stage("threads", () -> ThreadInfo.listThreads(new Data.Builder(qe)));
+    ListenableFuture<Data.Builder> asyncs =
+        loader.stage("async slices", () -> AsyncInfo.listAsync(new Data.Builder(qe)));
+    ListenableFuture<Data.Builder> gpu =
+        loader.stage("GPU info", () -> GpuInfo.listGpus(new Data.Builder(qe)));
+    ListenableFuture<Data.Builder> frame =
+        loader.stage("frame info", () -> FrameInfo.listFrames(new Data.Builder(qe)));
+    ListenableFuture<Data.Builder> counters =
+        loader.stage("counters", () -> CounterInfo.listCounters(new Data.Builder(qe)));
+
+    // The timeline is shown as soon as the CPU and thread tracks are known.
+    ListenableFuture<Data.Builder> preview = loader.stage("CPU and thread tracks",
+        () -> transform(Tracks.enumerateCpuAndThreads(merge(qe, examine, threads)), data -> {
+          loader.publishPreview(data.build());
+          loadPyramids(data);
+          return data;
+        }), examine, threads);
+    ListenableFuture<Data.Builder> all = loader.stage("tracks",
+        () -> Tracks.enumerate(merge(qe, preview, asyncs, gpu, frame, counters)),
+        preview, asyncs, gpu, frame, counters);
+    return loader.done(transform(all, data -> {
+      // The sched index is only needed for selections, so it is loaded once everything else is.
+      logFailure(LOG, data.qe.getSchedIndex().load(
+          data.qe.withPriority(QueryEngine.Priority.Background)));
+      return data.build();
+    }));
   }
 
-  private static ListenableFuture<Data.Builder> examineTrace(Data.Builder data) {
-    return transformAsync(data.qe.getTraceTimeBounds(), traceTime -> {
-      data.setTraceTime(traceTime);
-      return CpuInfo.listCpus(data);
-    });
-  }
-
-  private static ListenableFuture<Data.Builder> queryThreads(Data.Builder data) {
-    return transformAsync(ThreadInfo.listThreads(data),
-        $ -> AsyncInfo.listAsync(data));
-
-  }
-
-  private static ListenableFuture<Data.Builder> queryGpu(Data.Builder data) {
-    return GpuInfo.listGpus(data);
-  }
-
-  private static ListenableFuture<Data.Builder> queryFrame(Data.Builder data) {
-    return FrameInfo.listFrames(data);
-  }
-
-  private static ListenableFuture<Data.Builder> queryCounters(Data.Builder data) {
-    return CounterInfo.listCounters(data);
-  }
-
-  private static ListenableFuture<Data.Builder> enumerateTracks(Data.Builder data) {
-    return Tracks.enumerate(data);
+  // Zoomed out CPU tracks are served from their level-of-detail pyramids, which are built once the
+  // tracks are known, without holding up the queries of the tracks shown.
+  private static void loadPyramids(Data.Builder data) {
+    QueryEngine background = data.qe.withPriority(QueryEngine.Priority.Background);
+    for (Track<?> track : data.getCreatedTracks()) {
+      if (track instanceof CpuTrack) {
+        logFailure(LOG, ((CpuTrack)track).loadPyramid(background, data.getTraceTime()));
+      }
+    }
   }
 
-  private <T> ListenableFuture<T> withStatus(String msg, ListenableFuture<T> future) {
-    return withStatus(Loadable.Message.loading(msg), future);
+  @SafeVarargs
+  private static Data.Builder merge(QueryEngine qe, ListenableFuture<Data.Builder>... stages)
+      throws ExecutionException {
+    Data.Builder data = new Data.Builder(qe);
+    for (ListenableFuture<Data.Builder> stage : stages) {
+      data.merge(Futures.getDone(stage));
+    }
+    return data;
   }
 
-  private <T> ListenableFuture<T> withStatus(Loadable.Message msg, ListenableFuture<T> future) {
-    scheduleIfNotDisposed(shell, () -> {
-      listeners.fire().onPerfettoLoadingStatus(msg);
+  private static ListenableFuture<Data.Builder> examineTrace(Data.Builder data) {
+    return transformAsync(data.qe.getTraceTimeBounds(), traceTime -> {
+      data.setTraceTime(traceTime);
+      return CpuInfo.listCpus(data);
     });
-    return future;
   }
 
   @Override
@@ -175,7 +203,137 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
     if (!isLoaded()) {
       return Futures.immediateFailedFuture(new Exception("System Profile not loaded"));
     }
-    return getData().qe.raw(sql);
+    return getData().qe.withPriority(QueryEngine.Priority.Selection).raw(sql);
+  }
+
+  /**
+   * Runs the given query, streaming the result in batches. See
+   * {@link QueryEngine#rawStream(String, int, QueryEngine.BatchConsumer)}.
+   */
+  public ListenableFuture<Integer> queryStream(String sql, int batchSize,
+      QueryEngine.BatchConsumer<com.google.gapid.proto.perfetto.Perfetto.QueryResult> consumer) {
+    return queryStream(sql, batchSize, QueryEngine.Priority.Selection, consumer);
+  }
+
+  /**
+   * Runs the given query at the given priority, streaming the result in batches. See
+   * {@link QueryEngine#rawStream(String, int, QueryEngine.BatchConsumer)}.
+   */
+  public ListenableFuture<Integer> queryStream(String sql, int batchSize,
+      QueryEngine.Priority priority,
+      QueryEngine.BatchConsumer<com.google.gapid.proto.perfetto.Perfetto.QueryResult> consumer) {
+    if (!isLoaded()) {
+      return Futures.immediateFailedFuture(new Exception("System Profile not loaded"));
+    }
+    return getData().qe.withPriority(priority).rawStream(sql, batchSize, consumer);
+  }
+
+  /**
+   * Runs the stages of loading a trace and reports which stages are running, and how long each
+   * took, to the loading UI and the status bar.
+   */
+  private class Loader {
+    private final Path.Capture source;
+    private final Stopwatch total = Stopwatch.createStarted();
+    private final Set<String> running = Sets.newLinkedHashSet(); // guarded by this
+    private final Map<String, Long> timings = Maps.newLinkedHashMap(); // guarded by this
+    private volatile boolean previewed = false;
+
+    public Loader(Path.Capture source) {
+      this.source = source;
+    }
+
+    /**
+     * Runs the given stage once all the given dependencies have succeeded.
+     */
+    public <T> ListenableFuture<T> stage(
+        String name, AsyncCallable<T> stage, ListenableFuture<?>... dependencies) {
+      return Futures.whenAllSucceed(dependencies).callAsync(() -> {
+        Stopwatch watch = Stopwatch.createStarted();
+        synchronized (this) {
+          running.add(name);
+        }
+        update();
+        return transform(stage.call(), result -> {
+          synchronized (this) {
+            running.remove(name);
+            timings.put(name, watch.elapsed(MILLISECONDS));
+          }
+          update();
+          return result;
+        });
+      }, Scheduler.EXECUTOR);
+    }
+
+    public void publishPreview(Data preview) {
+      previewed = true;
+      scheduleIfNotDisposed(shell, () -> {
+        if (isCurrent() && !isLoaded()) {
+          listeners.fire().onPerfettoPreviewLoaded(preview);
+        }
+      });
+    }
+
+    public ListenableFuture<Data> done(ListenableFuture<Data> result) {
+      addCallback(result, new FutureCallback<Data>() {
+        @Override
+        public void onSuccess(Data data) {
+          String msg = "Loaded in " + formatMillis(total.elapsed(MILLISECONDS)) + timings();
+          LOG.log(INFO, "System profile " + msg);
+          showStatus(msg);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          showStatus("Failed to load");
+        }
+      });
+      return result;
+    }
+
+    private void update() {
+      String stages;
+      synchronized (this) {
+        stages = String.join(", ", running);
+      }
+      if (!stages.isEmpty()) {
+        if (!previewed) {
+          Loadable.Message msg = Loadable.Message.loading("Loading " + stages + "...");
+          scheduleIfNotDisposed(shell, () -> {
+            if (isCurrent()) {
+              listeners.fire().onPerfettoLoadingStatus(msg);
+            }
+          });
+        }
+        showStatus("Loading " + stages + "..." + timings());
+      }
+    }
+
+    private synchronized String timings() {
+      if (timings.isEmpty()) {
+        return "";
+      }
+      return timings.entrySet().stream()
+          .map(e -> e.getKey() + " " + formatMillis(e.getValue()))
+          .collect(joining(", ", " (", ")"));
+    }
+
+    private void showStatus(String msg) {
+      scheduleIfNotDisposed(status, () -> {
+        if (isCurrent()) {
+          status.setLoadStatus(msg);
+        }
+      });
+    }
+
+    // on UI Thread
+    private boolean isCurrent() {
+      return source.equals(getSource());
+    }
+  }
+
+  private static String formatMillis(long ms) {
+    return String.format("%.1fs", ms / 1000.0);
   }
 
   public static class Data {
@@ -215,16 +373,19 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
       public final QueryEngine qe;
       private TimeSpan traceTime;
       private CpuInfo cpu = CpuInfo.NONE;
-      private ImmutableMap<Long, ProcessInfo> processes;
-      private ImmutableMap<Long, ThreadInfo> threads;
-      private ImmutableListMultimap<Long, AsyncInfo> asyncs;
+      private ImmutableMap<Long, ProcessInfo> processes = ImmutableMap.of();
+      private ImmutableMap<Long, ThreadInfo> threads = ImmutableMap.of();
+      private ImmutableListMultimap<Long, AsyncInfo> asyncs = ImmutableListMultimap.of();
       private GpuInfo gpu = GpuInfo.NONE;
       private FrameInfo frame = FrameInfo.NONE;
-      private ImmutableMap<Long, CounterInfo> counters;
-      private ImmutableListMultimap<Long, Long> gpuCounterGroups;
-      private Map<CounterInfo.Type, ImmutableListMultimap<String, CounterInfo>> countersByName;
+      private ImmutableMap<Long, CounterInfo> counters = ImmutableMap.of();
+      private ImmutableListMultimap<Long, Long> gpuCounterGroups = ImmutableListMultimap.of();
+      private Map<CounterInfo.Type, ImmutableListMultimap<String, CounterInfo>> countersByName =
+          ImmutableMap.of();
       private VSync vsync = VSync.EMPTY;
       public final TrackConfig.Builder tracks = new TrackConfig.Builder();
+      // The tracks created while enumerating, by id, see reuse(Track).
+      private final Map<String, Track<?>> created = Maps.newHashMap();
 
       public Builder(QueryEngine qe) {
         this.qe = qe;
@@ -327,6 +488,61 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
         return this;
       }
 
+      /**
+       * Copies the data set on the given builder, such as the results of a loading stage, and
+       * the tracks it has created. The enumerated track config is not copied.
+       */
+      public Builder merge(Builder other) {
+        if (other.traceTime != null) {
+          traceTime = other.traceTime;
+        }
+        if (other.cpu != CpuInfo.NONE) {
+          cpu = other.cpu;
+        }
+        if (!other.processes.isEmpty() || !other.threads.isEmpty()) {
+          processes = other.processes;
+          threads = other.threads;
+        }
+        if (!other.asyncs.isEmpty()) {
+          asyncs = other.asyncs;
+        }
+        if (other.gpu != GpuInfo.NONE) {
+          gpu = other.gpu;
+        }
+        if (other.frame != FrameInfo.NONE) {
+          frame = other.frame;
+        }
+        if (!other.counters.isEmpty()) {
+          setCounters(other.counters);
+        }
+        if (!other.gpuCounterGroups.isEmpty()) {
+          gpuCounterGroups = other.gpuCounterGroups;
+        }
+        if (other.vsync != VSync.EMPTY) {
+          vsync = other.vsync;
+        }
+        created.putAll(other.created);
+        return this;
+      }
+
+      /**
+       * Returns the track with the same id created by a previous enumeration this builder was
+       * {@link #merge merged} with, if any, or the given track otherwise. Reusing the tracks keeps
+       * the data they have already loaded.
+       */
+      @SuppressWarnings("unchecked")
+      public <T extends Track<?>> T reuse(T track) {
+        Track<?> previous = created.putIfAbsent(track.getId(), track);
+        return (previous != null && previous.getClass() == track.getClass()) ? (T)previous : track;
+      }
+
+      /**
+       * Returns the tracks created while enumerating, see {@link #reuse(Track)}.
+       */
+      public Collection<Track<?>> getCreatedTracks() {
+        return created.values();
+      }
+
       public Data build() {
         return new Data(qe, traceTime, cpu, processes, threads, asyncs, gpu, frame, counters,
             gpuCounterGroups, vsync, tracks.build());
@@ -341,6 +557,13 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
      * @param msg message communicating the currently executed work.
      */
     public default void onPerfettoLoadingStatus(Loadable.Message msg) { /* empty */ }
+    /**
+     * Event indicating that the CPU and thread tracks of the trace are available, while the
+     * remaining tracks are still loading.
+     *
+     * @param preview the data containing only the CPU and thread tracks.
+     */
+    public default void onPerfettoPreviewLoaded(Data preview) { /* empty */ }
     /**
      * Event indicating that the Perfetto trace has finished loading.
      *
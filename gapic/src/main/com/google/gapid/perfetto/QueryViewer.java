@@ -22,11 +22,14 @@ import static com.google.gapid.widgets.Widgets.createSpinner;
 import static com.google.gapid.widgets.Widgets.createTableColumn;
 import static com.google.gapid.widgets.Widgets.createTableViewer;
 import static com.google.gapid.widgets.Widgets.packColumns;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static com.google.gapid.widgets.Widgets.withLayoutData;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.models.Capture;
 import com.google.gapid.models.Models;
+import com.google.gapid.perfetto.models.QueryEngine;
 import com.google.gapid.proto.perfetto.Perfetto;
 import com.google.gapid.rpc.Rpc;
 import com.google.gapid.rpc.Rpc.Result;
@@ -64,6 +67,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -85,6 +89,10 @@ public class QueryViewer extends Composite
   protected final TableViewer table;
   protected final ResultContentProvider provider;
   private static final int MAX_ENTRIES = 1000;
+  private static final int STREAM_BATCH_SIZE = 10000;
+
+  private ListenableFuture<Integer> running; // Only accessed on the UI thread.
+  private Results current; // Only accessed on the UI thread.
 
   public QueryViewer(Composite parent, Models models) {
     super(parent, SWT.NONE);
@@ -135,6 +143,9 @@ public class QueryViewer extends Composite
     addListener(SWT.Dispose, e -> {
       models.capture.removeListener(this);
       models.perfetto.removeListener(this);
+      if (running != null) {
+        running.cancel(true);
+      }
     });
   }
 
@@ -174,60 +185,95 @@ public class QueryViewer extends Composite
     return (e.stateMask & stateMask) == stateMask && e.keyCode == keyCode;
   }
 
-  protected void updatePager(Perfetto.QueryResult result) {
-    provider.setPage(1);
-
-    int max = Math.max(1, ((int)result.getNumRecords() + MAX_ENTRIES - 1) / MAX_ENTRIES);
+  protected void updatePager(Results results) {
+    int max = Math.max(1, (results.getNumRecords() + MAX_ENTRIES - 1) / MAX_ENTRIES);
     tablePage.setMaximum(max);
-    tablePage.setSelection(1);
     tablePageMax.setText("of " + max);
     tablePageMax.requestLayout();
   }
 
   private void exec() {
-    Rpc.listen(models.perfetto.query(query.getText()),
-        new UiCallback<Perfetto.QueryResult, Perfetto.QueryResult>(this, LOG) {
+    if (running != null) {
+      running.cancel(true);
+    }
+
+    Results results = new Results();
+    current = results;
+    running = models.perfetto.queryStream(query.getText(), STREAM_BATCH_SIZE,
+        (offset, batch) -> scheduleIfNotDisposed(this, () -> onBatch(results, batch)));
+    Rpc.listen(running, new UiCallback<Integer, String>(this, LOG) {
       @Override
-      protected Perfetto.QueryResult onRpcThread(
-          Result<Perfetto.QueryResult> result) throws ExecutionException {
+      protected String onRpcThread(Result<Integer> result) throws ExecutionException {
         try {
-          return result.get();
+          result.get();
+          return null;
         } catch (RpcException e) {
           LOG.log(Level.WARNING, "System Profile Query failure", e);
-          return Perfetto.QueryResult.newBuilder()
-              .setError(e.toString())
-              .build();
+          return e.toString();
         }
       }
 
       @Override
-      protected void onUiThread(Perfetto.QueryResult result) {
-        updatePager(result);
-        table.setInput(null);
-        for (TableColumn col : table.getTable().getColumns()) {
-          col.dispose();
+      protected void onUiThread(String error) {
+        if (error != null && current == results) {
+          showMessage("Error", error);
         }
+      }
+    });
+  }
 
-        if (!result.getError().isEmpty()) {
-          Widgets.createTableColumn(table, "Error", $ -> result.getError());
-        } else if (result.getNumRecords() == 0) {
-          Widgets.createTableColumn(table, "Result", $ -> "Query returned no rows.");
-        } else {
-          List<Widgets.ColumnAndComparator<Row>> columns = Lists.newArrayList();
-          for (int i = 0; i < result.getColumnDescriptorsCount(); i++) {
-            int col = i;
-            Perfetto.QueryResult.ColumnDesc desc = result.getColumnDescriptors(i);
-            columns.add(createTableColumn(
-                table, desc.getName(), row -> row.getValue(col), comparator(result, col)));
-          }
-          Widgets.sorting(table, columns);
-        }
+  // Only on the UI thread.
+  private void onBatch(Results results, Perfetto.QueryResult batch) {
+    if (current != results) {
+      return;
+    }
+
+    boolean first = results.isEmpty();
+    results.add(batch);
+    updatePager(results);
+    if (!first) {
+      table.refresh();
+      return;
+    }
+
+    provider.setPage(1);
+    tablePage.setSelection(1);
+    table.setInput(null);
+    for (TableColumn col : table.getTable().getColumns()) {
+      col.dispose();
+    }
 
-        table.setInput(result);
-        packColumns(table.getTable());
-        table.getTable().requestLayout();
+    if (!batch.getError().isEmpty()) {
+      Widgets.createTableColumn(table, "Error", $ -> batch.getError());
+    } else if (batch.getNumRecords() == 0) {
+      Widgets.createTableColumn(table, "Result", $ -> "Query returned no rows.");
+    } else {
+      List<Widgets.ColumnAndComparator<Row>> columns = Lists.newArrayList();
+      for (int i = 0; i < batch.getColumnDescriptorsCount(); i++) {
+        int col = i;
+        Perfetto.QueryResult.ColumnDesc desc = batch.getColumnDescriptors(i);
+        columns.add(createTableColumn(
+            table, desc.getName(), row -> row.getValue(col), comparator(desc, col)));
       }
-    });
+      Widgets.sorting(table, columns);
+    }
+
+    table.setInput(results);
+    packColumns(table.getTable());
+    table.getTable().requestLayout();
+  }
+
+  private void showMessage(String title, String message) {
+    current = null;
+    updatePager(new Results());
+    table.setInput(null);
+    for (TableColumn col : table.getTable().getColumns()) {
+      col.dispose();
+    }
+    Widgets.createTableColumn(table, title, $ -> message);
+    table.setInput(new Object[] { message });
+    packColumns(table.getTable());
+    table.getTable().requestLayout();
   }
 
   private void export() {
@@ -250,93 +296,176 @@ public class QueryViewer extends Composite
   }
 
   private void saveQuery(File file, char separator) {
-    Rpc.listen(models.perfetto.query(query.getText()),
-        new UiCallback<Perfetto.QueryResult, Perfetto.QueryResult>(this, LOG) {
+    if (running != null) {
+      running.cancel(true);
+      running = null;
+    }
+    current = null;
+    table.setInput(null);
+    for (TableColumn col : table.getTable().getColumns()) {
+      col.dispose();
+    }
+
+    ExportWriter writer = new ExportWriter(file, separator);
+    // Exports may be large, so they yield to the queries of the timeline.
+    Rpc.listen(models.perfetto.queryStream(
+        query.getText(), STREAM_BATCH_SIZE, QueryEngine.Priority.Background, writer),
+        new UiCallback<Integer, String>(this, LOG) {
       @Override
-      protected Perfetto.QueryResult onRpcThread(
-          Result<Perfetto.QueryResult> result) throws ExecutionException {
+      protected String onRpcThread(Result<Integer> result) {
         try {
-          return result.get();
+          return (result.get() == 0) ? "Query returned no rows." : null;
         } catch (RpcException e) {
           LOG.log(Level.WARNING, "System Profile Query failure", e);
-          return Perfetto.QueryResult.newBuilder()
-              .setError(e.toString())
-              .build();
+          return e.toString();
+        } catch (ExecutionException e) {
+          LOG.log(Level.SEVERE, "Failed to save query", e);
+          return null;
+        } finally {
+          writer.close();
         }
       }
 
       @Override
-      protected void onUiThread(Perfetto.QueryResult result) {
-        table.setInput(null);
-        for (TableColumn col : table.getTable().getColumns()) {
-          col.dispose();
-        }
-
-        if (!result.getError().isEmpty()) {
-          Widgets.createTableColumn(table, "Export Error", $ -> result.getError());
-        } else if (result.getNumRecords() == 0) {
-          Widgets.createTableColumn(table, "Export Result", $ -> "Query returned no rows.");
-        } else {
-          try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            for (int i = 0; i < result.getColumnDescriptorsCount(); i++) {
-              Perfetto.QueryResult.ColumnDesc desc = result.getColumnDescriptors(i);
-              writer.write(desc.getName());
-              writer.write(separator);
-            }
-            writer.newLine();
-
-            for (int i = 0; i < result.getNumRecords(); i++) {
-              Row r = new Row(result, i);
-              for (int j = 0; j < result.getColumnDescriptorsCount(); j++) {
-                writer.write(r.getValue(j));
-                writer.write(separator);
-              }
-              writer.newLine();
-            }
-
-            writer.flush();
-          } catch (IOException e) {
-            LOG.log(Level.SEVERE, "Failed to save query");
-          }
+      protected void onUiThread(String message) {
+        if (writer.error != null) {
+          showMessage("Export Error", writer.error);
+        } else if (message != null) {
+          showMessage("Export Result", message);
         }
       }
     });
   }
 
-  protected static Comparator<Row> comparator(Perfetto.QueryResult res, int col) {
-    Perfetto.QueryResult.ColumnValues vals = res.getColumns(col);
-    switch (res.getColumnDescriptors(col).getType()) {
+  protected static Comparator<Row> comparator(Perfetto.QueryResult.ColumnDesc desc, int col) {
+    switch (desc.getType()) {
       case DOUBLE: return (r1, r2) -> {
-        if (vals.getIsNulls(r1.row)) {
-          return vals.getIsNulls(r2.row) ? 0 : -1;
-        } else if (vals.getIsNulls(r2.row)) {
+        Perfetto.QueryResult.ColumnValues v1 = r1.getColumn(col), v2 = r2.getColumn(col);
+        if (v1.getIsNulls(r1.row)) {
+          return v2.getIsNulls(r2.row) ? 0 : -1;
+        } else if (v2.getIsNulls(r2.row)) {
           return 1;
         } else {
-          return Double.compare(vals.getDoubleValues(r1.row), vals.getDoubleValues(r2.row));
+          return Double.compare(v1.getDoubleValues(r1.row), v2.getDoubleValues(r2.row));
         }
       };
       case LONG: return (r1, r2) -> {
-        if (vals.getIsNulls(r1.row)) {
-          return vals.getIsNulls(r2.row) ? 0 : -1;
-        } else if (vals.getIsNulls(r2.row)) {
+        Perfetto.QueryResult.ColumnValues v1 = r1.getColumn(col), v2 = r2.getColumn(col);
+        if (v1.getIsNulls(r1.row)) {
+          return v2.getIsNulls(r2.row) ? 0 : -1;
+        } else if (v2.getIsNulls(r2.row)) {
           return 1;
         } else {
-          return Long.compare(vals.getLongValues(r1.row), vals.getLongValues(r2.row));
+          return Long.compare(v1.getLongValues(r1.row), v2.getLongValues(r2.row));
         }
       };
       case STRING: return (r1, r2) -> {
-        if (vals.getIsNulls(r1.row)) {
-          return vals.getIsNulls(r2.row) ? 0 : -1;
-        } else if (vals.getIsNulls(r2.row)) {
+        Perfetto.QueryResult.ColumnValues v1 = r1.getColumn(col), v2 = r2.getColumn(col);
+        if (v1.getIsNulls(r1.row)) {
+          return v2.getIsNulls(r2.row) ? 0 : -1;
+        } else if (v2.getIsNulls(r2.row)) {
           return 1;
         } else {
-          return vals.getStringValues(r1.row).compareTo(vals.getStringValues(r2.row));
+          return v1.getStringValues(r1.row).compareTo(v2.getStringValues(r2.row));
         }
       };
       default: return (r1, r2) -> 0;
     }
   }
 
+  /**
+   * The batches of a streamed query result received so far.
+   */
+  public static class Results {
+    private final List<Perfetto.QueryResult> batches = Lists.newArrayList();
+    private int numRecords = 0;
+
+    public Results() {
+    }
+
+    public void add(Perfetto.QueryResult batch) {
+      batches.add(batch);
+      numRecords += (int)batch.getNumRecords();
+    }
+
+    public boolean isEmpty() {
+      return batches.isEmpty();
+    }
+
+    public Perfetto.QueryResult getFirst() {
+      return batches.get(0);
+    }
+
+    public int getNumRecords() {
+      return numRecords;
+    }
+
+    public Row getRow(int row) {
+      // All batches, except the last, are of the same size.
+      int batchSize = (int)batches.get(0).getNumRecords();
+      int batch = Math.min(row / batchSize, batches.size() - 1);
+      return new Row(batches.get(batch), row - batch * batchSize);
+    }
+  }
+
+  /**
+   * Writes the streamed query result batches to a file.
+   */
+  private static class ExportWriter implements QueryEngine.BatchConsumer<Perfetto.QueryResult> {
+    private final File file;
+    private final char separator;
+    private BufferedWriter writer;
+    public String error;
+
+    public ExportWriter(File file, char separator) {
+      this.file = file;
+      this.separator = separator;
+    }
+
+    @Override
+    public void onBatch(int offset, Perfetto.QueryResult batch) {
+      if (!batch.getError().isEmpty()) {
+        error = batch.getError();
+        return;
+      } else if (batch.getNumRecords() == 0) {
+        return;
+      }
+
+      try {
+        if (writer == null) {
+          writer = new BufferedWriter(new FileWriter(file));
+          for (int i = 0; i < batch.getColumnDescriptorsCount(); i++) {
+            Perfetto.QueryResult.ColumnDesc desc = batch.getColumnDescriptors(i);
+            writer.write(desc.getName());
+            writer.write(separator);
+          }
+          writer.newLine();
+        }
+
+        for (int i = 0; i < batch.getNumRecords(); i++) {
+          Row r = new Row(batch, i);
+          for (int j = 0; j < batch.getColumnDescriptorsCount(); j++) {
+            writer.write(r.getValue(j));
+            writer.write(separator);
+          }
+          writer.newLine();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void close() {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE, "Failed to save query", e);
+        }
+      }
+    }
+  }
+
   public static class ResultContentProvider implements IStructuredContentProvider {
     private int page;
 
@@ -350,18 +479,25 @@ public class QueryViewer extends Composite
 
     @Override
     public Object[] getElements(Object inputElement) {
-      Perfetto.QueryResult result = (Perfetto.QueryResult)inputElement;
-      if (result == null) {
+      if (inputElement instanceof Object[]) {
+        return (Object[])inputElement;
+      }
+
+      Results results = (Results)inputElement;
+      if (results == null || results.isEmpty()) {
         return new Object[0];
-      } else if (!result.getError().isEmpty() || result.getNumRecords() == 0) {
-        return new Row[] { new Row(result, 0) };
+      }
+
+      Perfetto.QueryResult first = results.getFirst();
+      if (!first.getError().isEmpty() || results.getNumRecords() == 0) {
+        return new Row[] { new Row(first, 0) };
       } else {
         int offset = MAX_ENTRIES * (page - 1);
-        int numRecords = (int)result.getNumRecords() - offset;
-        numRecords = (numRecords > MAX_ENTRIES) ? MAX_ENTRIES : numRecords;
+        int numRecords = results.getNumRecords() - offset;
+        numRecords = Math.max(0, Math.min(MAX_ENTRIES, numRecords));
         Row[] r = new Row[numRecords];
         for (int i = 0; i < r.length; i++) {
-          r[i] = new Row(result, i+offset);
+          r[i] = results.getRow(i + offset);
         }
         return r;
       }
@@ -377,6 +513,10 @@ public class QueryViewer extends Composite
       this.row = row;
     }
 
+    public Perfetto.QueryResult.ColumnValues getColumn(int column) {
+      return result.getColumns(column);
+    }
+
     public String getValue(int column) {
       Perfetto.QueryResult.ColumnValues vals = result.getColumns(column);
       if (vals.getIsNulls(row)) {
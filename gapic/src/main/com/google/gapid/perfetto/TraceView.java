@@ -41,6 +41,7 @@ public class TraceView extends Composite
   private final Models models;
   private final LoadablePanel<DrawerComposite> loading;
   private final TraceComposite<State.ForSystemTrace> traceUi;
+  private Perfetto.Data preview; // The preview shown while the trace is still loading.
 
   public TraceView(Composite parent, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -87,6 +88,7 @@ public class TraceView extends Composite
 
   @Override
   public void onCaptureLoadingStart(boolean maintainState) {
+    preview = null;
     loading.startLoading();
   }
 
@@ -102,10 +104,23 @@ public class TraceView extends Composite
     loading.showMessage(msg);
   }
 
+  @Override
+  public void onPerfettoPreviewLoaded(Perfetto.Data data) {
+    preview = data;
+    loading.stopLoading();
+    traceUi.getState().update(data);
+    traceUi.requestFocus();
+  }
+
   @Override
   public void onPerfettoLoaded(Loadable.Message error) {
+    Perfetto.Data shown = preview;
+    preview = null;
     if (error != null) {
       loading.showMessage(error);
+    } else if (shown != null && shown.qe == models.perfetto.getData().qe) {
+      // Keep the view the user may have already navigated in the preview.
+      traceUi.getState().updateTracks(models.perfetto.getData());
     } else {
       loading.stopLoading();
       traceUi.getState().update(models.perfetto.getData());
@@ -15,44 +15,59 @@
  */
 package com.google.gapid.perfetto.canvas;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Device;
 import org.eclipse.swt.graphics.RGBA;
 
-import java.util.concurrent.ExecutionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Caches {@link Color} instances.
+ * Caches {@link Color} instances. Colors are looked up for every drawn primitive, so this is a
+ * plain least recently used map, rather than a {@link com.google.common.cache.Cache}, to avoid
+ * allocating a loader per lookup. Only to be used on the UI thread.
  */
 public class ColorCache {
   private static final Logger LOG = Logger.getLogger(ColorCache.class.getName());
+  private static final int MAX_SIZE = 1000;
 
   private final Device device;
-  private final Cache<RGBA, Color> cache = CacheBuilder.newBuilder()
-      .maximumSize(1000)
-      .recordStats()
-      .<RGBA, Color>removalListener(e -> e.getValue().dispose())
-      .build();
+  private final Map<RGBA, Color> cache = new LinkedHashMap<RGBA, Color>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<RGBA, Color> eldest) {
+      if (size() > MAX_SIZE) {
+        eldest.getValue().dispose();
+        return true;
+      }
+      return false;
+    }
+  };
+  private long hits = 0, misses = 0;
 
   public ColorCache(Device device) {
     this.device = device;
   }
 
   public Color get(RGBA rgba) {
-    try {
-      return cache.get(rgba, () -> new Color(device, rgba));
-    } catch (ExecutionException e) {
-      throw new RuntimeException(e.getCause());
+    Color color = cache.get(rgba);
+    if (color != null) {
+      hits++;
+      return color;
     }
+
+    misses++;
+    color = new Color(device, rgba);
+    cache.put(rgba, color);
+    return color;
   }
 
   public void dispose() {
-    LOG.log(Level.FINE, "Color cache stats: {0}", cache.stats());
-    cache.invalidateAll();
+    LOG.log(Level.FINE, "Color cache stats: {0} hits, {1} misses", new Object[] { hits, misses });
+    for (Color color : cache.values()) {
+      color.dispose();
+    }
+    cache.clear();
   }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.canvas;
+
+import static com.google.gapid.perfetto.views.StyleConstants.colors;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.LatencyStats;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the render times of the frames drawn by a {@link PanelCanvas}, broken down by the
+ * labels passed to {@link RenderContext#trace(String, Runnable)}, along with any additional
+ * statistics, such as query latencies. The statistics can be shown in an overlay on the canvas and
+ * the recorded frames can be exported as a JSON trace, which can be opened in Perfetto.
+ *
+ * <p>Only to be used on the UI thread.
+ */
+public class FrameProfiler {
+  private static final Logger LOG = Logger.getLogger(FrameProfiler.class.getName());
+
+  public static final Flag<Boolean> showProfiler = Flags.value("show-frame-profiler", false,
+      "Show an overlay with the render times of the timeline.", true);
+  public static final Flag<Integer> slowFrameMs = Flags.value("slow-frame-ms", 50,
+      "Frames taking longer than this many milliseconds to render are logged as slow.", true);
+  public static final Flag<String> profileOut = Flags.value("frame-profile-out", "",
+      "File to write the recorded frames to, as a JSON trace, when the timeline is closed.", true);
+
+  private static final int MAX_FRAMES = 10000;
+  private static final int MAX_SLOW_FRAMES = 10;
+  private static final double MARGIN = 8;
+  private static final double PADDING = 4;
+
+  private final LatencyStats frameTimes = new LatencyStats();
+  private final Map<String, LatencyStats> labelTimes = Maps.newTreeMap();
+  private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+  private final ArrayDeque<Frame> slowFrames = new ArrayDeque<Frame>();
+  private long slowFrameCount = 0;
+  private final Map<String, Supplier<Map<String, LatencyStats>>> latencies =
+      Maps.newLinkedHashMap();
+  private final Map<String, Supplier<String>> stats = Maps.newLinkedHashMap();
+  private Area area = Area.NONE;
+
+  /**
+   * Adds the given latencies, such as the query latencies of tracks, to the overlay.
+   */
+  public void addLatencies(String title, Supplier<Map<String, LatencyStats>> source) {
+    latencies.put(title, source);
+  }
+
+  /**
+   * Adds the given statistic, such as the hit ratio of a cache, to the overlay.
+   */
+  public void addStat(String title, Supplier<String> stat) {
+    stats.put(title, stat);
+  }
+
+  public void record(long start, long end, Map<String, Long> traces) {
+    long duration = end - start;
+    boolean slow = duration > MILLISECONDS.toNanos(slowFrameMs.get());
+    Frame frame = new Frame(start, duration, ImmutableMap.copyOf(traces), slow);
+
+    frameTimes.add(duration);
+    for (Map.Entry<String, Long> trace : traces.entrySet()) {
+      labelTimes.computeIfAbsent(trace.getKey(), $ -> new LatencyStats()).add(trace.getValue());
+    }
+    add(frames, frame, MAX_FRAMES);
+
+    if (slow) {
+      slowFrameCount++;
+      add(slowFrames, frame, MAX_SLOW_FRAMES);
+      LOG.log(Level.FINE, "Slow frame: " + frame);
+    }
+  }
+
+  private static void add(ArrayDeque<Frame> queue, Frame frame, int max) {
+    if (queue.size() == max) {
+      queue.removeFirst();
+    }
+    queue.addLast(frame);
+  }
+
+  /**
+   * Renders the overlay in the top right corner of a canvas of the given width.
+   */
+  public void render(RenderContext ctx, double canvasWidth) {
+    List<String> lines = getLines();
+    double w = 0, h = 0;
+    for (String line : lines) {
+      Size size = ctx.measure(Fonts.Style.Normal, line);
+      w = Math.max(w, size.w);
+      h += size.h;
+    }
+
+    area = new Area(
+        canvasWidth - w - 2 * PADDING - MARGIN, MARGIN, w + 2 * PADDING, h + 2 * PADDING);
+    ctx.setBackgroundColor(colors().hoverBackground);
+    ctx.fillRect(area.x, area.y, area.w, area.h);
+    ctx.setForegroundColor(colors().panelBorder);
+    ctx.drawRect(area.x, area.y, area.w - 1, area.h - 1);
+
+    ctx.setForegroundColor(colors().textMain);
+    double y = area.y + PADDING;
+    for (String line : lines) {
+      ctx.drawText(Fonts.Style.Normal, line, area.x + PADDING, y);
+      y += ctx.measure(Fonts.Style.Normal, line).h;
+    }
+  }
+
+  /**
+   * Returns the area covered by the last rendered overlay.
+   */
+  public Area getArea() {
+    return area;
+  }
+
+  private List<String> getLines() {
+    List<String> lines = Lists.newArrayList();
+    lines.add("Frame: " + frameTimes);
+    for (Map.Entry<String, LatencyStats> label : labelTimes.entrySet()) {
+      lines.add("  " + label.getKey() + ": " + label.getValue());
+    }
+    for (Map.Entry<String, Supplier<Map<String, LatencyStats>>> source : latencies.entrySet()) {
+      lines.add(source.getKey() + ":");
+      for (Map.Entry<String, LatencyStats> latency : source.getValue().get().entrySet()) {
+        lines.add("  " + latency.getKey() + ": " + latency.getValue());
+      }
+    }
+    for (Map.Entry<String, Supplier<String>> stat : stats.entrySet()) {
+      lines.add(stat.getKey() + ": " + stat.getValue().get());
+    }
+    lines.add("Slow frames (> " + slowFrameMs.get() + "ms): " + slowFrameCount);
+    for (Frame frame : slowFrames) {
+      lines.add("  " + frame);
+    }
+    return lines;
+  }
+
+  /**
+   * Writes the recorded frames as a JSON trace, in the trace event format, which can be opened
+   * in Perfetto. Each frame is a slice, with the time of each of its labels as an argument and
+   * a counter.
+   */
+  public void export(File file) throws IOException {
+    try (Writer out = new BufferedWriter(new FileWriter(file))) {
+      out.write("{\"traceEvents\":[\n");
+      out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1," +
+          "\"args\":{\"name\":\"AGI\"}},\n");
+      out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1," +
+          "\"args\":{\"name\":\"Render\"}}");
+      long base = frames.isEmpty() ? 0 : frames.getFirst().start;
+      for (Frame frame : frames) {
+        double ts = (frame.start - base) / 1e3;
+        out.write(",\n{\"name\":\"" + (frame.slow ? "Slow frame" : "Frame") + "\"," +
+            "\"cat\":\"render\",\"ph\":\"X\",\"pid\":1,\"tid\":1,\"ts\":" + ts +
+            ",\"dur\":" + (frame.duration / 1e3) + ",\"args\":{");
+        String sep = "";
+        for (Map.Entry<String, Long> trace : frame.traces.entrySet()) {
+          out.write(sep + quote(trace.getKey()) + ":" + (trace.getValue() / 1e6));
+          sep = ",";
+        }
+        out.write("}}");
+
+        for (String label : labelTimes.keySet()) {
+          Long time = frame.traces.get(label);
+          out.write(",\n{\"name\":" + quote(label) + ",\"ph\":\"C\",\"pid\":1,\"ts\":" + ts +
+              ",\"args\":{\"ms\":" + ((time == null) ? 0 : time / 1e6) + "}}");
+        }
+      }
+      out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+  }
+
+  /**
+   * Exports the recorded frames to the file given by the flag, if any.
+   */
+  public void exportIfRequested() {
+    String path = profileOut.get();
+    if (!path.isEmpty()) {
+      try {
+        export(new File(path));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to write the frame profile to " + path, e);
+      }
+    }
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder().append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int)c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static class Frame {
+    public final long start;
+    public final long duration;
+    public final Map<String, Long> traces;
+    public final boolean slow;
+
+    public Frame(long start, long duration, Map<String, Long> traces, boolean slow) {
+      this.start = start;
+      this.duration = duration;
+      this.traces = traces;
+      this.slow = slow;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder().append(String.format("%.1fms", duration / 1e6));
+      String sep = " [";
+      for (Map.Entry<String, Long> trace : traces.entrySet()) {
+        sb.append(sep).append(trace.getKey())
+            .append(String.format(" %.1fms", trace.getValue() / 1e6));
+        sep = ", ";
+      }
+      return sb.append(traces.isEmpty() ? "" : "]").toString();
+    }
+  }
+}
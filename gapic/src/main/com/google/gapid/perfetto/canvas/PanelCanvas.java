@@ -43,6 +43,7 @@ public class PanelCanvas extends Canvas {
 
   private final Panel panel;
   private final RenderContext.Global context;
+  private final FrameProfiler profiler = new FrameProfiler();
   private Point mouseDown = null;
   private boolean dragging = false;
   private Panel.Dragger dragger = Panel.Dragger.NONE;
@@ -60,12 +61,17 @@ public class PanelCanvas extends Canvas {
       Rectangle size = e.gc.getClipping();
       e.gc.fillRectangle(size);
       Map<String, Long> traces;
+      long end;
       try (RenderContext ctx = context.newContext(e.gc)) {
         panel.render(ctx, a -> scheduleIfNotDisposed(this, () -> redraw(a, false)));
         ctx.renderOverlays();
         traces = ctx.getTraces();
+        end = System.nanoTime();
+        profiler.record(start, end, traces);
+        if (FrameProfiler.showProfiler.get()) {
+          profiler.render(ctx, getClientArea().width);
+        }
       }
-      long end = System.nanoTime();
       if (LOG.isLoggable(Level.FINE)) {
         LOG.log(Level.FINE, size + " (" + (end - start) / 1000000.0 + ") " + traces);
       }
@@ -118,6 +124,7 @@ public class PanelCanvas extends Canvas {
       setCursor(null);
     });
     addListener(SWT.Dispose, e -> {
+      profiler.exportIfRequested();
       context.dispose();
     });
   }
@@ -169,6 +176,11 @@ public class PanelCanvas extends Canvas {
         updateMousePosition(lastMouse.x, lastMouse.y, 0, true, false);
       }
 
+      if (FrameProfiler.showProfiler.get()) {
+        // Keep the overlay up to date with every redraw.
+        area = area.combine(profiler.getArea());
+      }
+
       if (hover.isOverlay()) {
         Area hoverArea = hover.getRedraw();
         if (area.intersects(hoverArea)) {
@@ -187,6 +199,10 @@ public class PanelCanvas extends Canvas {
     }
   }
 
+  public FrameProfiler getProfiler() {
+    return profiler;
+  }
+
   @Override
   public Point computeSize(int wHint, int hHint, boolean changed) {
     return new Point(wHint, (int)Math.ceil(panel.getPreferredHeight()));
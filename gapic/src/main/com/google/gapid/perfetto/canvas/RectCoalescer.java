@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.canvas;
+
+import org.eclipse.swt.graphics.RGBA;
+
+/**
+ * Coalesces the filled rectangles of a single row, given in increasing x order, into fewer draw
+ * calls. A rectangle is merged into the pending one, if it has the same color and starts within
+ * the pixel column the pending one ends in. A rectangle of another color starting within the same
+ * pixel column as the pending one only has its part within that column merged, in which case the
+ * color of the first rectangle wins, while the rest of it is drawn as a new rectangle starting at
+ * the next column. Thus at most one color is drawn per pixel column, no matter how many slices
+ * fall into it.
+ *
+ * <p>The pending rectangle is only drawn when it can no longer be extended, so {@link #flush()}
+ * must be called before drawing anything on top of the row, such as text or highlights.
+ */
+public class RectCoalescer {
+  private final RenderContext ctx;
+  private final double y, h;
+
+  private RGBA color = null; // null if nothing is pending.
+  private double start, end;
+  private long column; // The pixel column the pending rectangle starts in.
+
+  public RectCoalescer(RenderContext ctx, double y, double h) {
+    this.ctx = ctx;
+    this.y = y;
+    this.h = h;
+  }
+
+  public void fillRect(RGBA rgba, double x, double w) {
+    long col = (long)Math.floor(x);
+    if (color != null) {
+      if (rgba.equals(color) && col <= (long)Math.floor(end)) {
+        end = Math.max(end, x + w);
+        return;
+      } else if (col == column && x + w <= column + 1) {
+        // Sub-pixel rectangle within the pending column.
+        end = Math.max(end, x + w);
+        return;
+      } else if (col == column && end <= column + 1) {
+        // Fill the pending column with the pending color and draw the rest in the new one.
+        end = column + 1;
+        flush();
+        w = x + w - end;
+        x = end;
+        col = column + 1;
+      } else {
+        flush();
+      }
+    }
+    color = rgba;
+    start = x;
+    end = x + w;
+    column = col;
+  }
+
+  public void flush() {
+    if (color != null) {
+      ctx.setBackgroundColor(color);
+      ctx.fillRect(start, y, end - start, h);
+      color = null;
+    }
+  }
+
+  /**
+   * Coalescers for the rows of a track with slices at different depths, created as needed.
+   */
+  public static class Rows {
+    private final RenderContext ctx;
+    private final double h;
+    private RectCoalescer[] rows = new RectCoalescer[0];
+
+    public Rows(RenderContext ctx, double h) {
+      this.ctx = ctx;
+      this.h = h;
+    }
+
+    /**
+     * Returns the coalescer of the given row, which is created at the given y, if needed.
+     */
+    public RectCoalescer get(int depth, double y) {
+      if (depth >= rows.length) {
+        RectCoalescer[] grown = new RectCoalescer[Math.max(depth + 1, 2 * rows.length)];
+        System.arraycopy(rows, 0, grown, 0, rows.length);
+        rows = grown;
+      }
+      if (rows[depth] == null) {
+        rows[depth] = new RectCoalescer(ctx, y, h);
+      }
+      return rows[depth];
+    }
+
+    public void flush() {
+      for (RectCoalescer row : rows) {
+        if (row != null) {
+          row.flush();
+        }
+      }
+    }
+  }
+}
@@ -51,16 +51,24 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   private final GC gc;
   private final ColorCache colors;
   private final Fonts.Context fontContext;
+  private final TileCache tiles; // null for the context of a tile.
   private final LinkedList<TransformAndClip> transformStack = Lists.newLinkedList();
   private final List<Overlay> overlays = Lists.newArrayList();
   private final Map<String, Long> traces = Maps.newHashMap();
   private Fonts.Style lastFontStyle = Fonts.Style.Normal;
-
-  public RenderContext(Theme theme, GC gc, ColorCache colors, Fonts.Context fontContext) {
+  // The last set GC colors and alpha, null or -1 if unknown. Setting them again is skipped.
+  private RGBA lastForeground = null;
+  private RGBA lastBackground = null;
+  private int lastAlpha = -1;
+  private boolean tilesEnabled = true;
+
+  public RenderContext(
+      Theme theme, GC gc, ColorCache colors, Fonts.Context fontContext, TileCache tiles) {
     this.theme = theme;
     this.gc = gc;
     this.colors = colors;
     this.fontContext = fontContext;
+    this.tiles = tiles;
 
     Area clip = Area.of(gc.getClipping());
     Transform transform = new Transform(gc.getDevice());
@@ -123,23 +131,38 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void setForegroundColor(RGBA color) {
-    gc.setForeground(colors.get(color));
-    gc.setAlpha(color.alpha);
+    if (!color.equals(lastForeground)) {
+      gc.setForeground(colors.get(color));
+      lastForeground = color;
+    }
+    setAlpha(color.alpha);
   }
 
   public void setForegroundColor(int sysColor) {
     gc.setForeground(gc.getDevice().getSystemColor(sysColor));
-    gc.setAlpha(255);
+    lastForeground = null;
+    setAlpha(255);
   }
 
   public void setBackgroundColor(RGBA color) {
-    gc.setBackground(colors.get(color));
-    gc.setAlpha(color.alpha);
+    if (!color.equals(lastBackground)) {
+      gc.setBackground(colors.get(color));
+      lastBackground = color;
+    }
+    setAlpha(color.alpha);
   }
 
   public void setBackgroundColor(int sysColor) {
     gc.setBackground(gc.getDevice().getSystemColor(sysColor));
-    gc.setAlpha(255);
+    lastBackground = null;
+    setAlpha(255);
+  }
+
+  private void setAlpha(int alpha) {
+    if (alpha != lastAlpha) {
+      gc.setAlpha(alpha);
+      lastAlpha = alpha;
+    }
   }
 
   public void drawLine(double x1, double y1, double x2, double y2) {
@@ -401,6 +424,64 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     gc.setClipping(rect(old.x, old.y, old.w, old.h));
   }
 
+  /**
+   * Renders the w x h area at the current origin by drawing the tile previously rendered for the
+   * given owner, if it was rendered with an equal key. Otherwise, the renderer is invoked with the
+   * context of a new tile, filled with the given background, which is then drawn and cached, or,
+   * if the key keeps changing, such as while panning, directly with this context. Since tiles are
+   * opaque, they are only used if nothing has been drawn beneath the area.
+   */
+  public void cached(Object owner, Object key, RGBA background, double w, double h,
+      Consumer<RenderContext> renderer) {
+    int tw = (int)Math.ceil(w), th = (int)Math.ceil(h);
+    if (tiles == null || !tilesEnabled || !tiles.isEnabled() || tw <= 0 || th <= 0) {
+      renderer.accept(this);
+      return;
+    }
+
+    Image image = tiles.get(owner, key);
+    if (image != null) {
+      setAlpha(255);
+      drawImage(image, 0, 0);
+      return;
+    } else if (!tiles.shouldRender(owner, key)) {
+      renderer.accept(this);
+      return;
+    }
+
+    image = tiles.reuse(owner, tw, th);
+    if (image == null) {
+      image = new Image(gc.getDevice(), tw, th);
+    }
+    GC tileGc = new GC(image);
+    try (RenderContext tile = new RenderContext(theme, tileGc, colors, fontContext, null)) {
+      tile.setBackgroundColor(background);
+      tile.fillRect(0, 0, tw, th);
+      renderer.accept(tile);
+      tile.renderOverlays();
+      tile.traces.forEach((label, time) -> traces.merge(label, time, Long::sum));
+    } finally {
+      tileGc.dispose();
+    }
+    setAlpha(255);
+    drawImage(image, 0, 0);
+    tiles.put(owner, key, image);
+  }
+
+  /**
+   * Runs the given renderer without using any cached tiles, such as when drawing on top of an
+   * underlay, which the opaque tiles would cover.
+   */
+  public void withoutTiles(Runnable run) {
+    boolean wasEnabled = tilesEnabled;
+    tilesEnabled = false;
+    try {
+      run.run();
+    } finally {
+      tilesEnabled = wasEnabled;
+    }
+  }
+
   public void trace(String label, Runnable run) {
     long start = System.nanoTime();
     try {
@@ -452,15 +533,17 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     private final Theme theme;
     private final ColorCache colors;
     private final Fonts.Context fontContext;
+    private final TileCache tiles;
 
     public Global(Theme theme, Control owner) {
       this.theme = theme;
       this.colors = new ColorCache(owner.getDisplay());
       this.fontContext = new Fonts.Context(owner);
+      this.tiles = new TileCache();
     }
 
     public RenderContext newContext(GC gc) {
-      return new RenderContext(theme, gc, colors, fontContext);
+      return new RenderContext(theme, gc, colors, fontContext, tiles);
     }
 
     public Color getColor(RGBA rgba) {
@@ -483,6 +566,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     }
 
     public void dispose() {
+      tiles.dispose();
       colors.dispose();
       fontContext.dispose();
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.canvas;
+
+import com.google.common.cache.Cache;
+import com.google.gapid.util.Caches;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.internal.DPIUtil;
+
+/**
+ * Cache of the off-screen images, or tiles, panels have been rendered into. A panel whose content
+ * has not changed, such as when scrolling vertically or when hovering another panel, is redrawn by
+ * simply drawing its tile. There is at most one tile per owner, which is used for as long as the
+ * key it was rendered with stays the same. A tile is only rendered once the same key has been
+ * requested twice in a row, so that panels whose key changes every frame, such as while panning
+ * or zooming, are drawn directly instead. The image of a tile is reused when re-rendering it at
+ * the same size. Once over budget, the least recently used tiles are evicted and disposed. Only
+ * to be used on the UI thread.
+ */
+public class TileCache {
+  public static final Flag<Integer> tileCacheSize = Flags.value("panel-tile-cache-mb", 128,
+      "Maximum size, in MiB, of the cache of rendered panel images. 0 disables the cache.", true);
+
+  private final Cache<Object, Tile> tiles = Caches.weightedCache(
+      tileCacheSize, (owner, tile) -> tile.size, removal -> removal.getValue().image.dispose());
+
+  public boolean isEnabled() {
+    return tileCacheSize.get() > 0;
+  }
+
+  /**
+   * Returns the tile of the given owner, if it was rendered with an equal key, or null.
+   */
+  public Image get(Object owner, Object key) {
+    Tile tile = tiles.getIfPresent(owner);
+    return (tile == null || !tile.key.equals(key)) ? null : tile.image;
+  }
+
+  /**
+   * Returns whether a tile should be rendered for the given owner and key, which is the case if
+   * the owner has no tile yet, or if the key is the same as the one last requested.
+   */
+  public boolean shouldRender(Object owner, Object key) {
+    Tile tile = tiles.getIfPresent(owner);
+    if (tile == null || key.equals(tile.requested)) {
+      return true;
+    }
+    tile.requested = key;
+    return false;
+  }
+
+  /**
+   * Returns the image of the tile of the given owner, if it has the given size, to re-render the
+   * tile into, or null. The image must be passed to {@link #put} afterwards.
+   */
+  public Image reuse(Object owner, int width, int height) {
+    Tile tile = tiles.getIfPresent(owner);
+    if (tile == null) {
+      return null;
+    }
+    Rectangle bounds = tile.image.getBounds();
+    return (bounds.width == width && bounds.height == height) ? tile.image : null;
+  }
+
+  /**
+   * Caches the tile of the given owner, disposing any previous one, unless its image is reused.
+   * The image is owned by the cache from now on and may be disposed at any later call.
+   */
+  public void put(Object owner, Object key, Image image) {
+    Tile tile = tiles.getIfPresent(owner);
+    if (tile != null && tile.image == image) {
+      tile.key = key;
+      tile.requested = null;
+    } else {
+      tiles.put(owner, new Tile(key, image));
+    }
+  }
+
+  public void dispose() {
+    tiles.invalidateAll();
+  }
+
+  private static class Tile {
+    public Object key;
+    public Object requested; // The key last requested, while it differs from the tile's key.
+    public final Image image;
+    public final int size;
+
+    public Tile(Object key, Image image) {
+      this.key = key;
+      this.image = image;
+      Rectangle bounds = image.getBounds();
+      this.size = (int)Math.min(Integer.MAX_VALUE,
+          4L * DPIUtil.autoScaleUp(bounds.width) * DPIUtil.autoScaleUp(bounds.height));
+    }
+  }
+}
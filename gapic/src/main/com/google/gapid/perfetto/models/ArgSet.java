@@ -16,19 +16,27 @@
 package com.google.gapid.perfetto.models;
 
 import static com.google.gapid.util.MoreFutures.transform;
+import static com.google.gapid.util.Weighers.ARRAY_SIZE;
+import static com.google.gapid.util.Weighers.OBJECT_SIZE;
+import static com.google.gapid.util.Weighers.REFERENCE_SIZE;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.List;
 import java.util.Map;
 
 /**
  * Collection of "extra data" from the args table.
  */
 public class ArgSet {
-  private static final String ARGS_QUERY =
-      "select key, int_value, real_value, string_value from args where arg_set_id = %d";
+  private static final String ARGS_BATCH_QUERY =
+      "select arg_set_id, key, int_value, real_value, string_value " +
+      "from args where arg_set_id in (%s)";
 
   public static final ArgSet EMPTY = new ArgSet(ImmutableMap.of());
 
@@ -38,30 +46,30 @@ public class ArgSet {
     this.values = values;
   }
 
-  public static ListenableFuture<ArgSet> get(QueryEngine qe, long id) {
-    return transform(qe.query(sql(id)), ArgSet::of);
+  /**
+   * Loads the arg sets of all the given ids with a single query. Ids without any args are not
+   * contained in the returned map.
+   */
+  public static ListenableFuture<Map<Long, ArgSet>> getAll(QueryEngine qe, List<Long> ids) {
+    return transform(qe.query(sql(ids)), res -> {
+      Map<Long, ImmutableMap.Builder<String, Object>> maps = Maps.newHashMap();
+      res.forEachRow(($, r) -> {
+        ImmutableMap.Builder<String, Object> map =
+            maps.computeIfAbsent(r.getLong(0), k -> ImmutableMap.builder());
+        if (!r.isNull(2)) {
+          map.put(r.getString(1), r.getInt(2));
+        } else if (!r.isNull(3)) {
+          map.put(r.getString(1), r.getDouble(3));
+        } else {
+          map.put(r.getString(1), r.getString(4));
+        }
+      });
+      return ImmutableMap.copyOf(Maps.transformValues(maps, map -> new ArgSet(map.build())));
+    });
   }
 
-  private static String sql(Long id) {
-    return format(ARGS_QUERY, id);
-  }
-
-  public static ArgSet of(QueryEngine.Result res) {
-    if (res.getNumRows() == 0) {
-      return EMPTY;
-    }
-
-    ImmutableMap.Builder<String, Object> map = ImmutableMap.builder();
-    res.forEachRow(($, r) -> {
-      if (!r.isNull(1)) {
-        map.put(r.getString(0), r.getInt(1));
-      } else if (!r.isNull(2)) {
-        map.put(r.getString(0), r.getDouble(2));
-      } else {
-        map.put(r.getString(0), r.getString(3));
-      }
-    });
-    return new ArgSet(map.build());
+  private static String sql(List<Long> ids) {
+    return format(ARGS_BATCH_QUERY, ids.stream().map(String::valueOf).collect(joining(",")));
   }
 
   public boolean isEmpty() {
@@ -83,4 +91,16 @@ public class ArgSet {
   public Object get(String key) {
     return values.get(key);
   }
+
+  /**
+   * Returns an estimate of the retained size of this arg set in bytes.
+   */
+  public long getSize() {
+    long size = OBJECT_SIZE + ARRAY_SIZE;
+    for (Map.Entry<String, Object> e : values.entrySet()) {
+      size += 2 * REFERENCE_SIZE + sizeOf(e.getKey()) + ((e.getValue() instanceof String) ?
+          sizeOf((String)e.getValue()) : OBJECT_SIZE + 8);
+    }
+    return size;
+  }
 }
\ No newline at end of file
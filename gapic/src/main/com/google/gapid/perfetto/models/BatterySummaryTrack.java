@@ -19,6 +19,7 @@ import static com.google.gapid.perfetto.models.CounterInfo.needQuantize;
 import static com.google.gapid.perfetto.views.StyleConstants.POWER_RAIL_COUNTER_TRACK_HEIGHT;
 import static com.google.gapid.perfetto.views.TrackContainer.group;
 import static com.google.gapid.perfetto.views.TrackContainer.single;
+import static com.google.gapid.util.Weighers.sizeOf;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -119,6 +120,11 @@ public class BatterySummaryTrack
       this.current = new long[numRows];
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(capacity) + sizeOf(charge) + sizeOf(current);
+    }
+
     @Override
     public void set(int idx, Row row) {
       super.set(idx, row);
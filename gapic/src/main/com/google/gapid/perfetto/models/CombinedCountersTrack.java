@@ -23,6 +23,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.joining;
@@ -307,6 +308,11 @@ public abstract class CombinedCountersTrack
       this.ts = new long[numRows];
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(id) + sizeOf(ts);
+    }
+
     public void set(int idx, QueryEngine.Row row) {
       id[idx] = row.getLong(0);
       ts[idx] = row.getLong(1);
@@ -24,12 +24,15 @@ import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.Arrays.filled;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.QueryEngine.Template;
 import com.google.gapid.perfetto.views.CountersSelectionView;
 import com.google.gapid.perfetto.views.State;
 
@@ -47,24 +50,38 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   private static final String VIEW_SQL_EVENT =
       "select ts, lead(ts, 1, (select end_ts from trace_bounds)) over win - ts dur, value, id " +
       "from counter where track_id = %d window win as (order by ts)";
-  private static final String SUMMARY_SQL =
-      "select min(ts), max(ts + dur), avg(value), best_id from " +
-        "(select *, first_value(id) over (partition by quantum_ts order by dur desc) as best_id from %s) " +
-      "group by quantum_ts";
-  private static final String COUNTER_SQL = "select ts, ts + dur, value, id from %s";
-  private static final String VALUE_SQL = "select ts, ts + dur, value, id from %s where id = %d";
-  private static final String RANGE_SQL =
+  private static final Template SUMMARY_SQL = Template.of(
+      "select min(ts), max(ts + dur), avg(value), best_id, quantum_ts, count(*), max(dur) " +
+      "from (select *, " +
+        "first_value(id) over (partition by quantum_ts order by dur desc) as best_id from %s) " +
+      "group by quantum_ts order by quantum_ts");
+  private static final Template COUNTER_SQL =
+      Template.of("select ts, ts + dur, value, id from %s");
+  private static final Template VALUE_SQL =
+      Template.of("select ts, ts + dur, value, id from %s where id = %d");
+  private static final Template RANGE_SQL = Template.of(
       "select ts, ts + dur, value, id from %s " +
-      "where ts + dur >= %d and ts <= %d order by ts";
-  private static final String STATS_SQL =
+      "where ts + dur >= %d and ts <= %d order by ts");
+  private static final Template STATS_SQL = Template.of(
       "select min(value), max(value), avg(value) " +
-      "from counter where track_id = %d and ts >= %d and ts <= %d";
+      "from counter where track_id = %d and ts >= %d and ts <= %d");
 
   private final CounterInfo counter;
+  private final String summarySql;
+  private final String counterSql;
+  private final Template valueSql;
+  private final Template rangeSql;
+  private final Template statsSql;
+  private volatile LodPyramid.Counter pyramid; // only modified by the running request
 
   public CounterTrack(QueryEngine qe, CounterInfo counter) {
     super(qe, "counter_" + counter.id);
     this.counter = counter;
+    this.summarySql = SUMMARY_SQL.bind().arg(tableName("span")).sql();
+    this.counterSql = COUNTER_SQL.bind().arg(tableName("span")).sql();
+    this.valueSql = VALUE_SQL.bind().arg(tableName("vals")).partial();
+    this.rangeSql = RANGE_SQL.bind().arg(tableName("vals")).partial();
+    this.statsSql = STATS_SQL.bind().arg(counter.id).partial();
   }
 
   public CounterInfo getCounter() {
@@ -97,7 +114,58 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   protected ListenableFuture<Data> computeData(DataRequest req) {
     Window win = (counter.count > Track.QUANTIZE_CUT_OFF) ? Window.compute(req, 5) :
         Window.compute(req);
-    return transformAsync(win.update(qe, tableName("window")), $ -> computeData(req, win));
+    if (!win.quantized) {
+      return transformAsync(win.update(qe, tableName("window")), $ -> computeData(req, win));
+    }
+    return transformAsync(getPyramid(), lod -> {
+      LodPyramid.Counter.Level summary = lod.summarize(req.range, win.bucketSize);
+      if (summary != null) {
+        return Futures.immediateFuture(buildData(req, summary));
+      }
+      return transformAsync(win.update(qe, tableName("window")), $ -> computeData(req, win));
+    });
+  }
+
+  private ListenableFuture<LodPyramid.Counter> getPyramid() {
+    if (pyramid != null) {
+      return Futures.immediateFuture(pyramid);
+    }
+    return transformAsync(qe.getTraceTimeBounds(), trace -> {
+      Window w = Window.quantized(trace, LodPyramid.baseQuantum(trace, Window.minQuantum(5)));
+      return transform(transformAsync(w.update(qe, tableName("window")),
+          $ -> qe.query(summarySql())), res -> {
+        LodPyramid.Counter.Level base = new LodPyramid.Counter.Level(res.getNumRows());
+        long first = w.start / w.bucketSize;
+        res.forEachRow((i, r) -> {
+          base.buckets[i] = first + r.getLong(4);
+          base.starts[i] = r.getLong(0);
+          base.ends[i] = r.getLong(1);
+          base.counts[i] = r.getLong(5);
+          base.sums[i] = r.getDouble(2) * base.counts[i];
+          base.ids[i] = r.getLong(3);
+          base.durs[i] = r.getLong(6);
+        });
+        return pyramid = LodPyramid.Counter.build(w.bucketSize, base);
+      });
+    });
+  }
+
+  private static Data buildData(DataRequest req, LodPyramid.Counter.Level summary) {
+    int rows = summary.size();
+    if (rows == 0) {
+      return Data.empty(req);
+    }
+
+    Data data = new Data(req, new long[rows + 1], new double[rows + 1], new long[rows + 1]);
+    for (int i = 0; i < rows; i++) {
+      data.ts[i] = summary.starts[i];
+      data.values[i] = summary.getAverage(i);
+      data.ids[i] = summary.ids[i];
+    }
+    data.ts[rows] = summary.ends[rows - 1];
+    data.values[rows] = data.values[rows - 1];
+    data.ids[rows] = data.ids[rows - 1];
+    return data;
   }
 
   private ListenableFuture<Data> computeData(DataRequest req, Window win) {
@@ -121,11 +189,11 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   }
 
   private String summarySql() {
-    return format(SUMMARY_SQL, tableName("span"));
+    return summarySql;
   }
 
   private String counterSQL() {
-    return format(COUNTER_SQL, tableName("span"));
+    return counterSql;
   }
 
   public ListenableFuture<Data> getValue(long id) {
@@ -162,11 +230,11 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   }
 
   private String valueSql(long id) {
-    return format(VALUE_SQL, tableName("vals"), id);
+    return valueSql.bind().arg(id).sql();
   }
 
   private String rangeSql(TimeSpan ts) {
-    return format(RANGE_SQL, tableName("vals"), ts.start, ts.end);
+    return rangeSql.bind().arg(ts.start).arg(ts.end).sql();
   }
 
   public ListenableFuture<Stats> getStats(TimeSpan span) {
@@ -175,7 +243,7 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   }
 
   private String statsSql(TimeSpan span) {
-    return format(STATS_SQL, counter.id, span.start, span.end);
+    return statsSql.bind().arg(span.start).arg(span.end).sql();
   }
 
   public static class Data extends Track.Data {
@@ -190,6 +258,11 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
       this.ids = ids;
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(ts) + sizeOf(values) + sizeOf(ids);
+    }
+
     public static Data empty(DataRequest req) {
       return new Data(req, new long[0], new double[0], new long[0]);
     }
@@ -22,6 +22,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.util.concurrent.ListenableFuture;
@@ -123,5 +124,10 @@ public class CpuFrequencyTrack extends Track.WithQueryEngine<CpuFrequencyTrack.D
       this.idles = idles;
       this.freqKHz = freqKHz;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(tsStarts) + sizeOf(tsEnds) + sizeOf(idles) + sizeOf(freqKHz);
+    }
   }
 }
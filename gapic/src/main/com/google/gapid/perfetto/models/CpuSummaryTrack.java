@@ -20,6 +20,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.createWindow;
 import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.util.concurrent.ListenableFuture;
@@ -91,5 +92,10 @@ public class CpuSummaryTrack extends Track.WithQueryEngine<CpuSummaryTrack.Data>
       this.bucketSize = bucketSize;
       this.utilizations = utilizations;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(utilizations);
+    }
   }
 }
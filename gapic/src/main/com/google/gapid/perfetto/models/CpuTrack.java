@@ -16,21 +16,25 @@
 package com.google.gapid.perfetto.models;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.perfetto.models.QueryEngine.createSpan;
 import static com.google.gapid.perfetto.models.QueryEngine.createWindow;
 import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
+import static com.google.gapid.util.MoreFutures.logFailure;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
-import static java.lang.String.format;
+import static com.google.gapid.util.Weighers.sizeOf;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.ThreadState;
 import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.QueryEngine.Template;
 import com.google.gapid.perfetto.views.CpuSlicesSelectionView;
 import com.google.gapid.perfetto.views.State;
 
@@ -41,38 +45,44 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 /**
  * {@link Track} containing CPU slices for a single core.
  */
 public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
-  private static final String SUMMARY_SQL =
+  private static final Logger LOG = Logger.getLogger(CpuTrack.class.getName());
+
+  private static final Template SUMMARY_SQL = Template.of(
       "select quantum_ts, group_concat(id) ids, sum(dur)/cast(%d as float) util " +
       "from %s where cpu = %d and utid != 0 " +
-      "group by quantum_ts";
-  private static final String SLICES_SQL =
-      "select ts, dur, utid, id from %s where cpu = %d and utid != 0";
-  private static final String SLICE_SQL =
+      "group by quantum_ts");
+  private static final Template SLICES_SQL = Template.of(
+      "select ts, dur, utid, id from %s where cpu = %d and utid != 0 order by ts, id");
+  private static final Template SLICE_SQL = Template.of(
       "select sched.id, ts, dur, cpu, utid, upid, end_state, priority " +
-      "from sched left join thread using(utid) where sched.id = %d";
-  private static final String SLICE_RANGE_SQL =
+      "from sched left join thread using(utid) where sched.id = %d");
+  private static final Template SLICE_RANGE_SQL = Template.of(
       "select sched.id, ts, dur, cpu, utid, upid, end_state, priority " +
       "from sched left join thread using(utid) " +
-      "where cpu = %d and utid != 0 and ts < %d and ts_end >= %d";
-  private static final String SLICE_RANGE_FOR_IDS_SQL =
+      "where cpu = %d and utid != 0 and ts < %d and ts_end >= %d");
+  private static final Template SLICE_RANGE_FOR_IDS_SQL = Template.of(
       "select sched.id, ts, dur, cpu, utid, upid, end_state, priority " +
       "from sched left join thread using(utid) " +
-      "where cpu = %d and sched.id in (%s)";
-  private static final String SLICE_RANGE_FOR_THREAD_SQL =
+      "where cpu = %d and sched.id in (%s)");
+  private static final Template SLICE_RANGE_FOR_THREAD_SQL = Template.of(
       "select sched.id, ts, dur, cpu, utid, upid, end_state, priority " +
       "from sched left join thread using(utid) " +
-      "where utid = %d and ts < %d and ts_end >= %d";
+      "where utid = %d and ts < %d and ts_end >= %d");
 
   private final CpuInfo.Cpu cpu;
+  private final String slicesSql;
+  private volatile LodPyramid.Utilization pyramid; // null until loaded, see loadPyramid
 
   public CpuTrack(QueryEngine qe, CpuInfo.Cpu cpu) {
     super(qe, "cpu_" + cpu.id);
     this.cpu = cpu;
+    this.slicesSql = SLICES_SQL.bind().arg(tableName("span")).arg(cpu.id).sql();
   }
 
   public CpuInfo.Cpu getCpu() {
@@ -92,45 +102,134 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
   @Override
   protected ListenableFuture<Data> computeData(DataRequest req) {
     Window window = Window.compute(req, 10);
+    if (!window.quantized) {
+      return transformAsync(window.update(qe, tableName("window")), $ -> computeSlices(req));
+    }
+    LodPyramid.Utilization lod = pyramid;
+    LodPyramid.Utilization.Summary summary =
+        (lod == null) ? null : lod.summarize(req.range, window.bucketSize);
+    if (summary != null) {
+      return Futures.immediateFuture(new Data(
+          new DataRequest(new TimeSpan(summary.start, req.range.end), req.resolution),
+          summary.bucketSize, summary.concatedIds, summary.utilizations));
+    }
     return transformAsync(window.update(qe, tableName("window")),
-        $ -> window.quantized ? computeSummary(req, window) : computeSlices(req));
+        $ -> computeSummary(qe, tableName("span"), req, window));
+  }
+
+  // Unquantized slices do not depend on the resolution.
+  @Override
+  protected boolean canServe(long loadedResolution, long requestedResolution) {
+    return loadedResolution == requestedResolution ||
+        (!Window.isQuantized(loadedResolution) && !Window.isQuantized(requestedResolution));
   }
 
-  private ListenableFuture<Data> computeSummary(DataRequest req, Window w) {
-    return transform(qe.query(summarySql(w.bucketSize)), result -> {
+  @Override
+  protected boolean canStitch(DataRequest req) {
+    return !Window.isQuantized(req.resolution);
+  }
+
+  // The span with the window splits slices at the boundaries of the chunks. Their pieces are
+  // joined back together.
+  @Override
+  protected Data stitch(DataRequest req, List<Data> chunks) {
+    int total = chunks.stream().mapToInt(c -> c.ids.length).sum();
+    Data data = new Data(req, new long[total], new long[total], new long[total], new long[total]);
+    int n = 0;
+    Map<Long, Integer> open = Maps.newHashMap();
+    Data prev = null;
+    int[] prevPieces = new int[0]; // The index in the stitched data of each row of prev.
+    for (Data chunk : chunks) {
+      // Only the slices of the previous chunk can cross the boundary to this one.
+      open.clear();
+      if (prev != null) {
+        for (int i = prev.ids.length - 1; i >= 0; i--) {
+          if (prev.ends[i] >= chunk.request.range.start) {
+            open.put(prev.ids[i], prevPieces[i]);
+          }
+        }
+      }
+      int[] pieces = new int[chunk.ids.length];
+      for (int i = 0; i < chunk.ids.length; i++) {
+        Integer piece = open.get(chunk.ids[i]);
+        if (piece != null) {
+          data.ends[piece] = Math.max(data.ends[piece], chunk.ends[i]);
+          pieces[i] = piece;
+        } else {
+          data.ids[n] = chunk.ids[i];
+          data.starts[n] = chunk.starts[i];
+          data.ends[n] = chunk.ends[i];
+          data.utids[n] = chunk.utids[i];
+          pieces[i] = n++;
+        }
+      }
+      prev = chunk;
+      prevPieces = pieces;
+    }
+    return (n == total) ? data : new Data(req, Arrays.copyOf(data.ids, n),
+        Arrays.copyOf(data.starts, n), Arrays.copyOf(data.ends, n), Arrays.copyOf(data.utids, n));
+  }
+
+  /**
+   * Builds the level-of-detail pyramid zoomed out requests are served from, using the given
+   * engine. The pyramid is computed in its own window and span tables, so this does not interfere
+   * with the data requests of the track. Until it is built, zoomed out data is queried instead.
+   */
+  public ListenableFuture<?> loadPyramid(QueryEngine engine, TimeSpan trace) {
+    String span = tableName("lod_span"), window = tableName("lod_window");
+    Window w = Window.quantized(trace, LodPyramid.baseQuantum(trace, Window.minQuantum(10)));
+    ListenableFuture<?> tables = transformAsync(engine.queries(
+        dropTable(span),
+        dropTable(window),
+        createWindow(window),
+        createSpan(span, "sched PARTITIONED cpu, " + window)), $ -> w.update(engine, window));
+    ListenableFuture<Data> base = transformAsync(
+        tables, $ -> computeSummary(engine, span, new DataRequest(trace, w.bucketSize), w));
+    ListenableFuture<?> result = transform(base, data -> pyramid =
+        LodPyramid.Utilization.build(w.bucketSize, w.start, data.concatedIds, data.utilizations));
+    Futures.whenAllComplete(tables, result).run(() ->
+        logFailure(LOG, engine.queries(dropTable(span), dropTable(window))), directExecutor());
+    return result;
+  }
+
+  private ListenableFuture<Data> computeSummary(
+      QueryEngine engine, String span, DataRequest req, Window w) {
+    return transform(engine.query(summarySql(w.bucketSize, span)), result -> {
       int len = w.getNumberOfBuckets();
       String[] concatedIds = new String[len];
-      Arrays.fill(concatedIds, "");
-      Data data = new Data(req, w.bucketSize, concatedIds, new double[len]);
+      double[] utilizations = new double[len];
       result.forEachRow(($, r) -> {
-        data.concatedIds[r.getInt(0)] = r.getString(1);
-        data.utilizations[r.getInt(0)] = r.getDouble(2);
+        concatedIds[r.getInt(0)] = r.getString(1);
+        utilizations[r.getInt(0)] = r.getDouble(2);
       });
-      return data;
+      return new Data(req, w.bucketSize, PackedIds.parse(concatedIds), utilizations);
     });
   }
 
-  private String summarySql(long ns) {
-    return format(SUMMARY_SQL, ns, tableName("span"), cpu.id);
+  private String summarySql(long ns, String span) {
+    return SUMMARY_SQL.bind().arg(ns).arg(span).arg(cpu.id).sql();
   }
 
   private ListenableFuture<Data> computeSlices(DataRequest req) {
-    return transform(qe.query(slicesSql()), result -> {
-      int rows = result.getNumRows();
-      Data data = new Data(req, new long[rows], new long[rows], new long[rows], new long[rows]);
-      result.forEachRow((i, r) -> {
-        long start = r.getLong(0);
-        data.starts[i] = start;
-        data.ends[i] = start + r.getLong(1);
-        data.utids[i] = r.getInt(2);
-        data.ids[i] = r.getLong(3);
-      });
-      return data;
+    return transform(streamQuery(qe, req, slicesSql(), 0, CpuTrack::buildSlices),
+        result -> buildSlices(req, result));
+  }
+
+  private static Data buildSlices(DataRequest req, QueryEngine.Result result) {
+    int rows = result.getNumRows();
+    Data data = new Data(req, new long[rows], new long[rows], new long[rows], new long[rows]);
+    result.forEachRow((i, r) -> {
+      long start = r.getLong(0);
+      data.starts[i] = start;
+      data.ends[i] = start + r.getLong(1);
+      data.utids[i] = r.getInt(2);
+      data.ids[i] = r.getLong(3);
     });
+    return data;
   }
 
   private String slicesSql() {
-    return format(SLICES_SQL, tableName("span"), cpu.id);
+    return slicesSql;
   }
 
   public ListenableFuture<Slices> getSlice(long id) {
@@ -142,46 +241,57 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
   }
 
   private static String sliceSql(long id) {
-    return format(SLICE_SQL, id);
+    return SLICE_SQL.bind().arg(id).sql();
   }
 
   public ListenableFuture<Slices> getSlices(TimeSpan ts) {
+    Slices indexed = qe.getSchedIndex().getCpuSlices(cpu.id, ts);
+    if (indexed != null) {
+      return Futures.immediateFuture(indexed);
+    }
     return transform(qe.query(sliceRangeSql(cpu.id, ts)), Slices::new);
   }
 
-  public ListenableFuture<Slices> getSlices(String ids) {
-    return transform(qe.query(sliceRangeForIdsSql(cpu.id, ids)), Slices::new);
+  public ListenableFuture<Slices> getSlices(long[] ids) {
+    return transform(qe.queryWithIds(ids, table -> sliceRangeForIdsSql(cpu.id, table)),
+        Slices::new);
   }
 
   public static ListenableFuture<Slices> getSlices(QueryEngine qe, long utid, TimeSpan ts) {
+    Slices indexed = qe.getSchedIndex().getThreadSlices(utid, ts);
+    if (indexed != null) {
+      return Futures.immediateFuture(indexed);
+    }
     return transform(qe.query(sliceRangeForThreadSql(utid, ts)), Slices::new);
   }
 
   private static String sliceRangeSql(int cpu, TimeSpan ts) {
-    return format(SLICE_RANGE_SQL, cpu, ts.end, ts.start);
+    return SLICE_RANGE_SQL.bind().arg(cpu).arg(ts.end).arg(ts.start).sql();
   }
 
-  private static String sliceRangeForIdsSql(int cpu, String ids) {
-    return format(SLICE_RANGE_FOR_IDS_SQL, cpu, ids);
+  private static String sliceRangeForIdsSql(int cpu, String idTable) {
+    return SLICE_RANGE_FOR_IDS_SQL.bind().arg(cpu).ids(idTable).sql();
   }
 
   private static String sliceRangeForThreadSql(long utid, TimeSpan ts) {
-    return format(SLICE_RANGE_FOR_THREAD_SQL, utid, ts.end, ts.start);
+    return SLICE_RANGE_FOR_THREAD_SQL.bind().arg(utid).arg(ts.end).arg(ts.start).sql();
   }
 
   public static class Data extends Track.Data {
     public final Kind kind;
     // Summary.
     public final long bucketSize;
-    public final String[] concatedIds;    // Concated ids for all cpu slices in a each time bucket.
+    public final PackedIds concatedIds;   // Ids of all cpu slices in each time bucket.
     public final double[] utilizations;
     // Slice.
     public final long[] ids;
     public final long[] starts;
     public final long[] ends;
     public final long[] utids;
+    private IntervalIndex index; // Built on first use, by the UI thread.
 
-    public Data(DataRequest request, long bucketSize, String[] concatedIds, double[] utilizations) {
+    public Data(
+        DataRequest request, long bucketSize, PackedIds concatedIds, double[] utilizations) {
       super(request);
       this.kind = Kind.summary;
       this.bucketSize = bucketSize;
@@ -193,6 +303,12 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       this.utids = null;
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + (concatedIds == null ? 0 : concatedIds.getSize()) +
+          sizeOf(utilizations) + sizeOf(ids) + sizeOf(starts) + sizeOf(ends) + sizeOf(utids);
+    }
+
     public Data(DataRequest request, long[] ids, long[] starts, long[] ends, long[] utids) {
       super(request);
       this.kind = Kind.slice;
@@ -205,6 +321,16 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       this.utilizations = null;
     }
 
+    /**
+     * Returns the index of the slices, only valid for slice data.
+     */
+    public IntervalIndex getIndex() {
+      if (index == null) {
+        index = IntervalIndex.of(starts, ends);
+      }
+      return index;
+    }
+
     public static enum Kind {
       summary, slice;
     }
@@ -221,6 +347,10 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
     public final List<ThreadState> endStates = Lists.newArrayList();
     public final List<Integer> priorities = Lists.newArrayList();
     public final Set<Long> sliceKeys = Sets.newHashSet();
+    private long[] sortedKeys; // Built when first needed, for testing buckets of ids.
+
+    Slices() {
+    }
 
     public Slices(QueryEngine.Row row) {
       this.add(row);
@@ -231,16 +361,23 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
     }
 
     private void add(QueryEngine.Row row) {
+      add(row.getLong(0), row.getLong(1), row.getLong(2), row.getInt(3), row.getLong(4),
+          row.getLong(5), ThreadState.of(row.getString(6)), row.getInt(7));
+    }
+
+    void add(long id, long time, long dur, int cpu, long utid, long upid, ThreadState endState,
+        int priority) {
       this.count++;
-      this.ids.add(row.getLong(0));
-      this.times.add(row.getLong(1));
-      this.durs.add(row.getLong(2));
-      this.cpus.add(row.getInt(3));
-      this.utids.add(row.getLong(4));
-      this.upids.add(row.getLong(5));
-      this.endStates.add(ThreadState.of(row.getString(6)));
-      this.priorities.add(row.getInt(7));
-      this.sliceKeys.add(row.getLong(0));
+      this.ids.add(id);
+      this.times.add(time);
+      this.durs.add(dur);
+      this.cpus.add(cpu);
+      this.utids.add(utid);
+      this.upids.add(upid);
+      this.endStates.add(endState);
+      this.priorities.add(priority);
+      this.sliceKeys.add(id);
+      this.sortedKeys = null;
     }
 
     @Override
@@ -253,6 +390,15 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public boolean containsAny(PackedIds list, int index) {
+      if (sortedKeys == null) {
+        sortedKeys =
+            PackedIds.sortedUnique(sliceKeys.stream().mapToLong(Long::longValue).toArray());
+      }
+      return list.anyIn(index, sortedKeys);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       if (count <= 0) {
@@ -285,6 +431,7 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
           this.endStates.add(other.endStates.get(i));
           this.priorities.add(other.priorities.get(i));
           this.sliceKeys.add(other.ids.get(i));
+          this.sortedKeys = null;
         }
       }
       return this;
@@ -21,6 +21,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.collect.Lists;
@@ -33,6 +34,7 @@ import com.google.gapid.perfetto.views.State;
 
 import org.eclipse.swt.widgets.Composite;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
@@ -100,7 +102,7 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
 
   private ListenableFuture<Data> computeSlices(DataRequest req) {
     return transformAsync(qe.query(slicesSql(req)), res ->
-    transform(qe.getAllArgs(res.stream().mapToLong(r -> r.getLong(7))), args -> {
+    transform(qe.getAllArgs(Arrays.stream(res.getLongs(7))), args -> {
       int rows = res.getNumRows();
       Data data = new Data(req, new long[rows], new long[rows], new long[rows],
           new int[rows], new String[rows], new long[rows], new String[rows],
@@ -177,6 +179,12 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       this.layerNames = layerNames;
       this.args = args;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(ids) + sizeOf(starts) + sizeOf(ends) + sizeOf(depths) +
+          sizeOf(titles) + sizeOf(frameNumbers) + sizeOf(layerNames) + sizeOf(args);
+    }
   }
 
   public static class Slices implements Selection<Slices> {
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.gapid.util.Weighers.sizeOf;
+
+import java.util.Arrays;
+
+/**
+ * Index over intervals sorted by their start, used to find the intervals overlapping a time range
+ * by binary search, rather than by testing every interval. Alongside the starts, it keeps the
+ * running maximum of the ends, which is sorted as well, even if the intervals nest or overlap.
+ * If the starts are not sorted, the index simply covers all intervals.
+ *
+ * <p>Intervals at different depths, such as nested slices, are indexed separately by depth, see
+ * {@link #atDepth(int)}. Otherwise, a single long interval at one depth would raise the running
+ * maximum of the ends for all the intervals after it, at any depth.
+ */
+public class IntervalIndex {
+  private static final IntervalIndex EMPTY = new IntervalIndex(new long[0], new long[0], null);
+
+  private final long[] starts;
+  private final long[] maxEnds; // null if the starts are not sorted.
+  private final int[] rows; // The row of each interval, null if the same as its index.
+  private final IntervalIndex[] depths; // The index of each depth, null if not indexed by depth.
+
+  private IntervalIndex(long[] starts, long[] maxEnds, int[] rows) {
+    this(starts, maxEnds, rows, null);
+  }
+
+  private IntervalIndex(long[] starts, long[] maxEnds, int[] rows, IntervalIndex[] depths) {
+    this.starts = starts;
+    this.maxEnds = maxEnds;
+    this.rows = rows;
+    this.depths = depths;
+  }
+
+  public static IntervalIndex of(long[] starts, long[] ends) {
+    return of(starts, ends, null);
+  }
+
+  private static IntervalIndex of(long[] starts, long[] ends, int[] rows) {
+    long[] maxEnds = new long[starts.length];
+    for (int i = 0; i < starts.length; i++) {
+      if (i > 0 && starts[i] < starts[i - 1]) {
+        return new IntervalIndex(starts, null, rows);
+      }
+      maxEnds[i] = (i == 0) ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+    }
+    return new IntervalIndex(starts, maxEnds, rows);
+  }
+
+  /**
+   * Returns an index over all the intervals, which also indexes the intervals of each depth
+   * separately, see {@link #atDepth(int)}.
+   */
+  public static IntervalIndex of(long[] starts, long[] ends, int[] depths) {
+    int[] counts = new int[0];
+    for (int depth : depths) {
+      int d = Math.max(0, depth);
+      if (d >= counts.length) {
+        counts = Arrays.copyOf(counts, d + 1);
+      }
+      counts[d]++;
+    }
+
+    int[][] rows = new int[counts.length][];
+    for (int d = 0; d < counts.length; d++) {
+      rows[d] = new int[counts[d]];
+      counts[d] = 0;
+    }
+    for (int i = 0; i < depths.length; i++) {
+      int d = Math.max(0, depths[i]);
+      rows[d][counts[d]++] = i;
+    }
+
+    IntervalIndex[] byDepth = new IntervalIndex[rows.length];
+    for (int d = 0; d < rows.length; d++) {
+      long[] s = new long[rows[d].length], e = new long[rows[d].length];
+      for (int i = 0; i < rows[d].length; i++) {
+        s[i] = starts[rows[d][i]];
+        e[i] = ends[rows[d][i]];
+      }
+      byDepth[d] = of(s, e, rows[d]);
+    }
+    IntervalIndex all = of(starts, ends);
+    return new IntervalIndex(all.starts, all.maxEnds, null, byDepth);
+  }
+
+  /**
+   * Returns the number of depths, i.e. one more than the deepest depth, this index has been built
+   * with, or 1 if it has not been built by depth.
+   */
+  public int getDepths() {
+    return (depths == null) ? 1 : depths.length;
+  }
+
+  /**
+   * Returns the index of the intervals at the given depth. Its indices are mapped to the rows of
+   * the intervals with {@link #row(int)}. If this index has not been built by depth, all intervals
+   * are considered to be at depth 0.
+   */
+  public IntervalIndex atDepth(int depth) {
+    if (depths == null) {
+      return (depth == 0) ? this : EMPTY;
+    }
+    return (depth >= 0 && depth < depths.length) ? depths[depth] : EMPTY;
+  }
+
+  /**
+   * Returns the row of the interval at the given index of this index.
+   */
+  public int row(int i) {
+    return (rows == null) ? i : rows[i];
+  }
+
+  /**
+   * Returns the index of the first interval that may end after the given time. All intervals
+   * before it end at or before the time.
+   */
+  public int first(long time) {
+    return (maxEnds == null) ? 0 : upperBound(maxEnds, time);
+  }
+
+  /**
+   * Returns the index after the last interval that starts before the given time. All intervals
+   * from it on start at or after the time.
+   */
+  public int end(long time) {
+    return (maxEnds == null) ? starts.length : lowerBound(starts, time);
+  }
+
+  /**
+   * Returns the index of the first interval that may overlap the given time, i.e. may contain it,
+   * inclusive of the interval ends.
+   */
+  public int firstContaining(long time) {
+    return first(time - 1);
+  }
+
+  /**
+   * Returns the index after the last interval that may contain the given time, inclusive of the
+   * interval starts.
+   */
+  public int endContaining(long time) {
+    return end(time + 1);
+  }
+
+  public long getSize() {
+    long size = sizeOf(maxEnds);
+    if (depths != null) {
+      for (IntervalIndex depth : depths) {
+        size += sizeOf(depth.starts) + depth.getSize() + sizeOf(depth.rows);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the index of the first element in the sorted array that is not less than the key.
+   */
+  public static int lowerBound(long[] sorted, long key) {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the index of the first element in the sorted array that is greater than the key.
+   */
+  public static int upperBound(long[] sorted, long key) {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.gapid.util.Weighers.sizeOf;
+
+import com.google.common.collect.Lists;
+import com.google.gapid.perfetto.TimeSpan;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Level-of-detail pyramids of quantized track summaries. The base level is computed once for the
+ * whole trace, each following level merges {@link #FACTOR} buckets of the previous one. Zoomed out
+ * requests are then served from memory, using the coarsest level that is at least as detailed as
+ * the requested quantum. Only requests finer than the base level need to query the trace processor.
+ */
+public class LodPyramid {
+  public static final int FACTOR = 4;
+  private static final long MAX_BASE_BUCKETS = 1 << 16;
+  private static final int MAX_LEVELS = 16;
+
+  private LodPyramid() {
+  }
+
+  /**
+   * Returns the quantum of the base level for the given trace, which is the smallest power of
+   * {@link #FACTOR} multiple of the given minimum that keeps the number of base buckets bounded.
+   */
+  public static long baseQuantum(TimeSpan trace, long minQuantum) {
+    long quantum = Math.max(1, minQuantum);
+    while (trace.getDuration() / quantum > MAX_BASE_BUCKETS) {
+      quantum *= FACTOR;
+    }
+    return quantum;
+  }
+
+  // Returns the index of the coarsest level that is at least as detailed as the given quantum.
+  protected static int findLevel(long baseQuantum, int levels, long quantum) {
+    if (quantum < baseQuantum) {
+      return -1;
+    }
+    int level = 0;
+    for (long q = baseQuantum * FACTOR; level + 1 < levels && q <= quantum; q *= FACTOR) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Pyramid of utilization summaries, i.e. the fraction of each bucket covered by slices, along
+   * with the ids of the slices overlapping each bucket.
+   */
+  public static class Utilization {
+    private final long baseQuantum;
+    private final List<PackedIds> ids; // Ids of the slices overlapping each bucket, finest first.
+    private final List<double[]> levels; // Finest first.
+    private final long[] starts; // Bucket index of the first bucket of each level.
+
+    private Utilization(
+        long baseQuantum, long baseStart, List<PackedIds> ids, List<double[]> levels) {
+      this.baseQuantum = baseQuantum;
+      this.ids = ids;
+      this.levels = levels;
+      this.starts = new long[levels.size()];
+      for (int i = 0, f = 1; i < starts.length; i++, f *= FACTOR) {
+        starts[i] = Math.floorDiv(baseStart, f);
+      }
+    }
+
+    /**
+     * Builds the pyramid from the given base level, whose first bucket starts at the given time.
+     */
+    public static Utilization build(
+        long quantum, long start, PackedIds concatedIds, double[] utilizations) {
+      long baseStart = Math.floorDiv(start, quantum);
+      List<PackedIds> ids = Lists.newArrayList(concatedIds);
+      List<double[]> levels = Lists.newArrayList();
+      levels.add(utilizations);
+      double[] level = utilizations;
+      for (long first = baseStart; level.length > 1 && levels.size() < MAX_LEVELS;
+          first = Math.floorDiv(first, FACTOR)) {
+        int offset = (int)(first - Math.floorDiv(first, FACTOR) * FACTOR);
+        double[] next = new double[(offset + level.length + FACTOR - 1) / FACTOR];
+        for (int i = 0; i < level.length; i++) {
+          next[(offset + i) / FACTOR] += level[i] / FACTOR;
+        }
+        levels.add(next);
+        ids.add(merge(ids.get(ids.size() - 1), offset, next.length));
+        level = next;
+      }
+      return new Utilization(quantum, baseStart, ids, levels);
+    }
+
+    // Merges the lists of each FACTOR adjacent buckets, the first of which is at the given offset
+    // within its merged bucket. Slices overlapping several of the buckets are only listed once.
+    private static PackedIds merge(PackedIds from, int offset, int buckets) {
+      PackedIds.Builder merged = new PackedIds.Builder(buckets, from.ids.length);
+      for (int i = 0; i < buckets; i++) {
+        int first = Math.max(0, i * FACTOR - offset);
+        int last = Math.min(from.size(), (i + 1) * FACTOR - offset);
+        if (first < last) {
+          long[] bucket = PackedIds.sortedUnique(
+              Arrays.copyOfRange(from.ids, from.offsets[first], from.offsets[last]));
+          for (long id : bucket) {
+            merged.add(id);
+          }
+        }
+        merged.endList();
+      }
+      return merged.build();
+    }
+
+    /**
+     * Returns the summary of the given range for the given quantum, or {@code null} if the
+     * quantum is finer than the base level. The ids of the summary are shared with the pyramid.
+     */
+    public Summary summarize(TimeSpan range, long quantum) {
+      int level = findLevel(baseQuantum, levels.size(), quantum);
+      if (level < 0) {
+        return null;
+      }
+
+      long q = baseQuantum;
+      for (int i = 0; i < level; i++) {
+        q *= FACTOR;
+      }
+      long first = Math.floorDiv(range.start, q);
+      int len = (int)Math.max(0, Math.floorDiv(range.end + q - 1, q) - first);
+
+      double[] src = levels.get(level);
+      double[] utilizations = new double[len];
+      for (int i = 0; i < len; i++) {
+        long idx = first + i - starts[level];
+        if (idx >= 0 && idx < src.length) {
+          utilizations[i] = src[(int)idx];
+        }
+      }
+      long from = first - starts[level];
+      return new Summary(first * q, q, ids.get(level).slice(from, from + len), utilizations);
+    }
+
+    public long getSize() {
+      long size = sizeOf(starts);
+      for (PackedIds level : ids) {
+        size += level.getSize();
+      }
+      for (double[] level : levels) {
+        size += sizeOf(level);
+      }
+      return size;
+    }
+
+    public static class Summary {
+      public final long start;
+      public final long bucketSize;
+      public final PackedIds concatedIds;
+      public final double[] utilizations;
+
+      public Summary(long start, long bucketSize, PackedIds concatedIds, double[] utilizations) {
+        this.start = start;
+        this.bucketSize = bucketSize;
+        this.concatedIds = concatedIds;
+        this.utilizations = utilizations;
+      }
+    }
+  }
+
+  /**
+   * Pyramid of counter summaries. Only non-empty buckets are stored. Each bucket keeps the time
+   * span covered by the counter values within it, their average and the id of the longest value.
+   */
+  public static class Counter {
+    private final long baseQuantum;
+    private final List<Level> levels; // Finest first.
+
+    private Counter(long baseQuantum, List<Level> levels) {
+      this.baseQuantum = baseQuantum;
+      this.levels = levels;
+    }
+
+    /**
+     * Builds the pyramid from the given base level.
+     */
+    public static Counter build(long quantum, Level base) {
+      List<Level> levels = Lists.newArrayList(base);
+      for (Level level = base; level.size() > 1 && levels.size() < MAX_LEVELS; ) {
+        level = level.merge();
+        levels.add(level);
+      }
+      return new Counter(quantum, levels);
+    }
+
+    /**
+     * Returns the buckets of the given range for the given quantum, or {@code null} if the
+     * quantum is finer than the base level.
+     */
+    public Level summarize(TimeSpan range, long quantum) {
+      int level = findLevel(baseQuantum, levels.size(), quantum);
+      if (level < 0) {
+        return null;
+      }
+
+      long q = baseQuantum;
+      for (int i = 0; i < level; i++) {
+        q *= FACTOR;
+      }
+      Level src = levels.get(level);
+      int from = lowerBound(src.buckets, Math.floorDiv(range.start, q));
+      int to = lowerBound(src.buckets, Math.floorDiv(range.end + q - 1, q));
+      return src.slice(from, Math.max(from, to));
+    }
+
+    private static int lowerBound(long[] array, long key) {
+      int idx = Arrays.binarySearch(array, key);
+      return (idx < 0) ? -idx - 1 : idx;
+    }
+
+    public long getSize() {
+      long size = 0;
+      for (Level level : levels) {
+        size += level.getSize();
+      }
+      return size;
+    }
+
+    public static class Level {
+      public final long[] buckets; // Bucket index of each row, sorted.
+      public final long[] starts;
+      public final long[] ends;
+      public final double[] sums;
+      public final long[] counts;
+      public final long[] ids;
+      public final long[] durs; // Duration of the value with the id.
+
+      public Level(int size) {
+        this(new long[size], new long[size], new long[size], new double[size], new long[size],
+            new long[size], new long[size]);
+      }
+
+      private Level(long[] buckets, long[] starts, long[] ends, double[] sums, long[] counts,
+          long[] ids, long[] durs) {
+        this.buckets = buckets;
+        this.starts = starts;
+        this.ends = ends;
+        this.sums = sums;
+        this.counts = counts;
+        this.ids = ids;
+        this.durs = durs;
+      }
+
+      public int size() {
+        return buckets.length;
+      }
+
+      public double getAverage(int i) {
+        return (counts[i] == 0) ? 0 : sums[i] / counts[i];
+      }
+
+      protected Level merge() {
+        int size = 0;
+        for (int i = 0; i < buckets.length; i++) {
+          long bucket = Math.floorDiv(buckets[i], FACTOR);
+          if (i == 0 || bucket != Math.floorDiv(buckets[i - 1], FACTOR)) {
+            size++;
+          }
+        }
+
+        Level r = new Level(size);
+        for (int i = 0, j = -1; i < buckets.length; i++) {
+          long bucket = Math.floorDiv(buckets[i], FACTOR);
+          if (j < 0 || r.buckets[j] != bucket) {
+            j++;
+            r.buckets[j] = bucket;
+            r.starts[j] = starts[i];
+            r.ends[j] = ends[i];
+            r.sums[j] = sums[i];
+            r.counts[j] = counts[i];
+            r.ids[j] = ids[i];
+            r.durs[j] = durs[i];
+          } else {
+            r.starts[j] = Math.min(r.starts[j], starts[i]);
+            r.ends[j] = Math.max(r.ends[j], ends[i]);
+            r.sums[j] += sums[i];
+            r.counts[j] += counts[i];
+            if (durs[i] > r.durs[j]) {
+              r.ids[j] = ids[i];
+              r.durs[j] = durs[i];
+            }
+          }
+        }
+        return r;
+      }
+
+      protected Level slice(int from, int to) {
+        return new Level(Arrays.copyOfRange(buckets, from, to),
+            Arrays.copyOfRange(starts, from, to), Arrays.copyOfRange(ends, from, to),
+            Arrays.copyOfRange(sums, from, to), Arrays.copyOfRange(counts, from, to),
+            Arrays.copyOfRange(ids, from, to), Arrays.copyOfRange(durs, from, to));
+      }
+
+      public long getSize() {
+        return sizeOf(buckets) + sizeOf(starts) + sizeOf(ends) + sizeOf(sums) + sizeOf(counts) +
+            sizeOf(ids) + sizeOf(durs);
+      }
+    }
+  }
+}
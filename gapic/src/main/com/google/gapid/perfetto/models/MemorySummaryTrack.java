@@ -17,6 +17,7 @@ package com.google.gapid.perfetto.models;
 
 import static com.google.gapid.perfetto.models.CounterInfo.needQuantize;
 import static com.google.gapid.perfetto.views.TrackContainer.single;
+import static com.google.gapid.util.Weighers.sizeOf;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -98,6 +99,11 @@ public class MemorySummaryTrack
       this.buffCache = new long[numRows];
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(total) + sizeOf(unused) + sizeOf(buffCache);
+    }
+
     @Override
     public void set(int idx, QueryEngine.Row row) {
       super.set(idx, row);
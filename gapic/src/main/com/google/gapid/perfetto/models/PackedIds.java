@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.gapid.util.Weighers.ARRAY_SIZE;
+import static com.google.gapid.util.Weighers.sizeOf;
+
+import java.util.Arrays;
+
+/**
+ * Lists of ids, such as the ids of the slices within each bucket of a quantized track, packed into
+ * a single array. The ids of list {@code i} are stored in {@code ids[offsets[i]]} up to, but
+ * excluding, {@code ids[offsets[i + 1]]}. The lists are decoded from the comma separated
+ * {@code group_concat} strings once, when the track data is loaded, so that rendering never has to
+ * parse them.
+ */
+public class PackedIds {
+  public static final PackedIds EMPTY = new PackedIds(new long[0], new int[1]);
+
+  public final long[] ids;
+  public final int[] offsets;
+
+  private PackedIds(long[] ids, int[] offsets) {
+    this.ids = ids;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Decodes the given comma separated lists of ids. {@code null} elements are empty lists.
+   */
+  public static PackedIds parse(String[] concatedIds) {
+    int count = 0;
+    for (String list : concatedIds) {
+      count += countIds(list);
+    }
+
+    Builder builder = new Builder(concatedIds.length, count);
+    for (String list : concatedIds) {
+      builder.addAll(list).endList();
+    }
+    return builder.build();
+  }
+
+  private static int countIds(String list) {
+    if (list == null || list.isEmpty()) {
+      return 0;
+    }
+    int count = 1;
+    for (int i = 0; i < list.length(); i++) {
+      if (list.charAt(i) == ',') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  public int count(int list) {
+    return (list < 0 || list >= size()) ? 0 : offsets[list + 1] - offsets[list];
+  }
+
+  public boolean isEmpty(int list) {
+    return count(list) == 0;
+  }
+
+  /**
+   * Returns whether any of the ids of the given list are contained in the given sorted array.
+   */
+  public boolean anyIn(int list, long[] sorted) {
+    if (sorted.length == 0 || isEmpty(list)) {
+      return false;
+    }
+    for (int i = offsets[list], end = offsets[list + 1]; i < end; i++) {
+      if (Arrays.binarySearch(sorted, ids[i]) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a copy of the ids of the given list.
+   */
+  public long[] get(int list) {
+    return isEmpty(list) ? new long[0] : Arrays.copyOfRange(ids, offsets[list], offsets[list + 1]);
+  }
+
+  /**
+   * Returns the lists from {@code from}, inclusive, to {@code to}, exclusive, sharing the ids with
+   * this instance rather than copying them. The lists outside of the range of this instance are
+   * empty.
+   */
+  public PackedIds slice(long from, long to) {
+    int[] sliced = new int[(int)Math.max(0, to - from) + 1];
+    for (int i = 0; i < sliced.length; i++) {
+      sliced[i] = offsets[(int)Math.max(0, Math.min(size(), from + i))];
+    }
+    return new PackedIds(ids, sliced);
+  }
+
+  // Only counts the ids of the lists, as the ids of a slice are shared with the sliced instance.
+  public long getSize() {
+    return ARRAY_SIZE + 8L * (offsets[offsets.length - 1] - offsets[0]) + sizeOf(offsets);
+  }
+
+  /**
+   * Sorts the given keys and removes duplicates, for use with {@link #anyIn(int, long[])}.
+   */
+  public static long[] sortedUnique(long[] keys) {
+    Arrays.sort(keys);
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (n == 0 || keys[n - 1] != keys[i]) {
+        keys[n++] = keys[i];
+      }
+    }
+    return (n == keys.length) ? keys : Arrays.copyOf(keys, n);
+  }
+
+  /**
+   * Builds the packed lists one after the other.
+   */
+  public static class Builder {
+    private long[] ids;
+    private int[] offsets;
+    private int lists = 0;
+    private int count = 0;
+
+    public Builder(int expectedLists, int expectedIds) {
+      this.ids = new long[Math.max(1, expectedIds)];
+      this.offsets = new int[expectedLists + 1];
+    }
+
+    public Builder add(long id) {
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * count);
+      }
+      ids[count++] = id;
+      return this;
+    }
+
+    /**
+     * Adds the ids of the given comma separated list to the current list.
+     */
+    public Builder addAll(String list) {
+      if (list == null) {
+        return this;
+      }
+      long id = 0;
+      boolean negative = false, any = false;
+      for (int i = 0; i < list.length(); i++) {
+        char c = list.charAt(i);
+        if (c == ',') {
+          if (any) {
+            add(negative ? -id : id);
+          }
+          id = 0;
+          negative = any = false;
+        } else if (c == '-') {
+          negative = true;
+        } else if (c >= '0' && c <= '9') {
+          id = 10 * id + (c - '0');
+          any = true;
+        }
+      }
+      if (any) {
+        add(negative ? -id : id);
+      }
+      return this;
+    }
+
+    /**
+     * Adds the ids of the given list of the given packed lists to the current list.
+     */
+    public Builder addAll(PackedIds from, int list) {
+      for (int i = from.offsets[list], end = from.offsets[list + 1]; i < end; i++) {
+        add(from.ids[i]);
+      }
+      return this;
+    }
+
+    /**
+     * Ends the current list and starts the next one.
+     */
+    public Builder endList() {
+      if (lists + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+      }
+      offsets[++lists] = count;
+      return this;
+    }
+
+    public PackedIds build() {
+      return new PackedIds(Arrays.copyOf(ids, count), Arrays.copyOf(offsets, lists + 1));
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.gapid.perfetto.models;
 
 import static com.google.gapid.perfetto.models.CounterInfo.needQuantize;
+import static com.google.gapid.util.Weighers.sizeOf;
 
 import com.google.gapid.models.Perfetto;
 import com.google.gapid.perfetto.models.QueryEngine.Row;
@@ -108,6 +109,11 @@ public class ProcessMemoryTrack
       this.swap = new long[numRows];
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(file) + sizeOf(anon) + sizeOf(shared) + sizeOf(swap);
+    }
+
     @Override
     public void set(int idx, Row row) {
       super.set(idx, row);
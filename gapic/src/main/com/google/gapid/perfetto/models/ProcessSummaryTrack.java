@@ -22,14 +22,15 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 import static java.util.stream.Collectors.joining;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.models.CpuTrack.Slices;
 
-import java.util.Arrays;
 
 /**
  * {@link Track} containing CPU usage data of all threads in a process.
@@ -52,6 +53,7 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
 
   private final int numCpus;
   private final ProcessInfo process;
+  private volatile LodPyramid.Utilization pyramid; // only modified by the running request
 
   public ProcessSummaryTrack(QueryEngine qe, int numCpus, ProcessInfo process) {
     super(qe, "proc_" + process.upid + "_sum");
@@ -81,21 +83,44 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
   @Override
   protected ListenableFuture<Data> computeData(DataRequest req) {
     Window window = Window.compute(req, 10);
-    return transformAsync(window.update(qe, tableName("window")),
-        $ -> window.quantized ? computeSummary(req, window) : computeSlices(req));
+    if (!window.quantized) {
+      return transformAsync(window.update(qe, tableName("window")), $ -> computeSlices(req));
+    }
+    return transformAsync(getPyramid(), lod -> {
+      LodPyramid.Utilization.Summary summary = lod.summarize(req.range, window.bucketSize);
+      if (summary != null) {
+        return Futures.immediateFuture(new Data(
+            new DataRequest(new TimeSpan(summary.start, req.range.end), req.resolution),
+            summary.bucketSize, summary.concatedIds, summary.utilizations));
+      }
+      return transformAsync(window.update(qe, tableName("window")),
+          $ -> computeSummary(req, window));
+    });
+  }
+
+  private ListenableFuture<LodPyramid.Utilization> getPyramid() {
+    if (pyramid != null) {
+      return Futures.immediateFuture(pyramid);
+    }
+    return transformAsync(qe.getTraceTimeBounds(), trace -> {
+      Window w = Window.quantized(trace, LodPyramid.baseQuantum(trace, Window.minQuantum(10)));
+      return transform(transformAsync(w.update(qe, tableName("window")),
+          $ -> computeSummary(new DataRequest(trace, w.bucketSize), w)), data ->
+            pyramid = LodPyramid.Utilization.build(
+                w.bucketSize, w.start, data.concatedIds, data.utilizations));
+    });
   }
 
   private ListenableFuture<Data> computeSummary(DataRequest req, Window w) {
     return transform(qe.query(summarySql(w.bucketSize)), result -> {
       int len = w.getNumberOfBuckets();
       String[] concatedIds = new String[len];
-      Arrays.fill(concatedIds, "");
-      Data data = new Data(req, w.bucketSize, concatedIds, new double[len]);
+      double[] utilizations = new double[len];
       result.forEachRow(($, r) -> {
-        data.concatedIds[r.getInt(0)] = r.getString(1);
-        data.utilizations[r.getInt(0)] = r.getDouble(2);
+        concatedIds[r.getInt(0)] = r.getString(1);
+        utilizations[r.getInt(0)] = r.getDouble(2);
       });
-      return data;
+      return new Data(req, w.bucketSize, PackedIds.parse(concatedIds), utilizations);
     });
   }
 
@@ -132,12 +157,12 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
     return format(SLICE_RANGE_SQL, process.upid, ts.end, ts.start);
   }
 
-  public ListenableFuture<Slices> getSlices(String ids) {
-    return transform(qe.query(sliceRangeForIdsSql(ids)), Slices::new);
+  public ListenableFuture<Slices> getSlices(long[] ids) {
+    return transform(qe.queryWithIds(ids, ProcessSummaryTrack::sliceRangeForIdsSql), Slices::new);
   }
 
-  private static String sliceRangeForIdsSql(String ids) {
-    return format(SLICE_RANGE_FOR_IDS_SQL, ids);
+  private static String sliceRangeForIdsSql(String idTable) {
+    return format(SLICE_RANGE_FOR_IDS_SQL, "select id from " + idTable);
   }
 
   public ListenableFuture<Slices> getSlice(long id) {
@@ -148,7 +173,7 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
     public final Kind kind;
     // Summary.
     public final long bucketSize;
-    public final String[] concatedIds;    // Concated ids for all cpu slices in a each time bucket.
+    public final PackedIds concatedIds;   // Ids of all cpu slices in each time bucket.
     public final double[] utilizations;
     // Slice.
     public final long[] ids;
@@ -156,8 +181,10 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
     public final long[] ends;
     public final int[] cpus;
     public final long[] utids;
+    private IntervalIndex index; // Built on first use, by the UI thread.
 
-    public Data(DataRequest request, long bucketSize, String[] concatedIds, double[] utilizations) {
+    public Data(
+        DataRequest request, long bucketSize, PackedIds concatedIds, double[] utilizations) {
       super(request);
       this.kind = Kind.summary;
       this.bucketSize = bucketSize;
@@ -170,6 +197,13 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
       this.utids = null;
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + (concatedIds == null ? 0 : concatedIds.getSize()) +
+          sizeOf(utilizations) + sizeOf(ids) + sizeOf(starts) + sizeOf(ends) + sizeOf(cpus) +
+          sizeOf(utids);
+    }
+
     public Data(
         DataRequest request, long[] ids, long[] starts, long[] ends, int[] cpus, long[] utids) {
       super(request);
@@ -184,6 +218,16 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
       this.utilizations = null;
     }
 
+    /**
+     * Returns the index of the slices, only valid for slice data.
+     */
+    public IntervalIndex getIndex() {
+      if (index == null) {
+        index = IntervalIndex.of(starts, ends);
+      }
+      return index;
+    }
+
     public static enum Kind {
       summary, slice;
     }
@@ -17,6 +17,8 @@ package com.google.gapid.perfetto.models;
 
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.gapid.util.MoreFutures.addCallback;
 import static com.google.gapid.util.MoreFutures.logFailure;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
@@ -27,62 +29,147 @@ import static java.util.stream.Collectors.toList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.proto.perfetto.Perfetto;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.rpc.RpcException;
 import com.google.gapid.server.Client;
+import com.google.gapid.util.BatchLoader;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.FutureCache;
 import com.google.gapid.util.Scheduler;
+import com.google.gapid.util.Weighers;
 import com.google.gapid.views.StatusBar;
 
 import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 /**
- * Interface to the trace processor query executor.
+ * Interface to the trace processor query executor. Queries are sent to the trace processor through
+ * a shared queue, ordered by the {@link Priority} of the engine they are issued through, with at
+ * most a bounded number of them outstanding at a time. Cancelling the future of a query that is
+ * still queued removes it from the queue, without it ever being sent, while a query that has
+ * already been sent keeps running in the trace processor, and holding its slot, until it is done.
  */
 public class QueryEngine {
   private static final Logger LOG = Logger.getLogger(QueryEngine.class.getName());
 
   private static final String TIMESPAN_QUERY = "select start_ts, end_ts from trace_bounds";
   private static final String NUM_CPUS_QUERY = "select count(distinct(cpu)) as c from sched";
+  // Arg set ids requested within this delay are loaded together, in queries of bounded size.
+  private static final int ARGS_BATCH_SIZE = 500;
+  private static final long ARGS_BATCH_DELAY_MS = 5;
+  // Used to name the scratch tables of streamed queries and of id lists.
+  private static final AtomicInteger SCRATCH_IDS = new AtomicInteger(0);
+  // Ids are inserted into their scratch table in statements of at most this many rows.
+  private static final int IDS_INSERT_BATCH_SIZE = 5000;
+
+  public static final Flag<Integer> argsCacheSize = Flags.value("perfetto-args-cache-mb", 32,
+      "Maximum size, in MiB, of the cache of loaded trace event args.", true);
+  public static final Flag<Integer> maxConcurrentQueries = Flags.value(
+      "perfetto-max-concurrent-queries", 4,
+      "Maximum number of queries sent to the trace processor at a time.", true);
 
   private final Client client;
   private final Path.Capture capture;
   private final StatusBar status;
   private final FutureCache<Long, ArgSet> argsCache;
-  private final AtomicInteger scheduled = new AtomicInteger(0);
-  private final AtomicInteger done = new AtomicInteger(0);
-  private final AtomicBoolean updating = new AtomicBoolean(false);
+  private final SchedIndex schedIndex;
+  private final QueryQueue queue;
+  private final AtomicInteger scheduled;
+  private final AtomicInteger done;
+  private final AtomicBoolean updating;
+  private final Supplier<Priority> priority;
+  private final Outstanding outstanding;
 
   public QueryEngine(Client client, Path.Capture capture, StatusBar status) {
     this.client = client;
     this.capture = capture;
     this.status = status;
-    this.argsCache = FutureCache.softCache(key -> ArgSet.get(this, key), Objects::nonNull);
+    this.schedIndex = new SchedIndex();
+    this.queue = new QueryQueue(Math.max(1, maxConcurrentQueries.get()));
+    this.scheduled = new AtomicInteger(0);
+    this.done = new AtomicInteger(0);
+    this.updating = new AtomicBoolean(false);
+    this.priority = () -> Priority.Visible;
+    this.outstanding = new Outstanding();
+    BatchLoader<Long, ArgSet> argsLoader = new BatchLoader<Long, ArgSet>(
+        ids -> ArgSet.getAll(this, ids), ArgSet.EMPTY, ARGS_BATCH_SIZE, ARGS_BATCH_DELAY_MS);
+    this.argsCache = FutureCache.weightedCache(argsCacheSize,
+        (key, args) -> Weighers.toWeight(args.getSize()), argsLoader::load, Objects::nonNull);
+  }
+
+  private QueryEngine(QueryEngine base, Supplier<Priority> priority) {
+    this.client = base.client;
+    this.capture = base.capture;
+    this.status = base.status;
+    this.argsCache = base.argsCache;
+    this.schedIndex = base.schedIndex;
+    this.queue = base.queue;
+    this.scheduled = base.scheduled;
+    this.done = base.done;
+    this.updating = base.updating;
+    this.priority = priority;
+    this.outstanding = new Outstanding();
+  }
+
+  /**
+   * Returns an engine sharing the queue, caches and status of this one, whose queries are run at
+   * the given priority.
+   */
+  public QueryEngine withPriority(Priority p) {
+    return new QueryEngine(this, () -> p);
+  }
+
+  /**
+   * Returns an engine sharing the queue, caches and status of this one, whose queries are run at
+   * the priority returned by the given supplier at the time each query is issued.
+   */
+  public QueryEngine withPriority(Supplier<Priority> p) {
+    return new QueryEngine(this, p);
   }
 
   public ListenableFuture<Perfetto.QueryResult> raw(String sql) {
     scheduled.incrementAndGet();
     updateStatus();
-    return transform(client.perfettoQuery(capture, sql), r -> {
+    ListenableFuture<Perfetto.QueryResult> result = queue.submit(
+        priority.get(), () -> client.perfettoQuery(capture, sql), outstanding::add);
+    // Cancelled queries are counted as done as well, so the status does not wait on them.
+    result.addListener(() -> {
       done.incrementAndGet();
       updateStatus();
-      return r;
-    });
+    }, directExecutor());
+    return result;
+  }
+
+  /**
+   * Returns a future that completes once all the queries issued through this engine so far are
+   * done, including the cancelled ones that are still running in the trace processor.
+   */
+  public ListenableFuture<?> whenDone() {
+    return outstanding.whenDone();
   }
 
   public ListenableFuture<Result> query(String sql) {
@@ -107,10 +194,163 @@ public class QueryEngine {
     });
   }
 
+  /**
+   * Runs the given query, handing the result to the consumer in batches of at most
+   * {@code batchSize} rows as they arrive. The result of a select statement is stored in a
+   * scratch table by running the query once, from which it is then read in ranges of rowids, so
+   * the full result is never held in memory at once on the client, while any other statement is
+   * executed as a single batch. The next batch is only requested once the consumer has returned,
+   * and cancelling the returned future stops any further batches from being fetched. A batch with
+   * an error ends the stream. The returned future resolves to the total number of rows.
+   */
+  public ListenableFuture<Integer> rawStream(
+      String sql, int batchSize, BatchConsumer<Perfetto.QueryResult> consumer) {
+    SettableFuture<Integer> result = SettableFuture.create();
+    if (!isSelect(sql)) {
+      streamBatch(sql, Integer.MAX_VALUE, 0, consumer, result);
+      return result;
+    }
+
+    String table = "_stream_" + SCRATCH_IDS.incrementAndGet();
+    // Not cancelled with the stream, so that the table is only dropped once it has been created.
+    ListenableFuture<Perfetto.QueryResult> create =
+        raw("create table " + table + " as " + stripSemicolons(sql));
+    addCallback(create, new FutureCallback<Perfetto.QueryResult>() {
+      @Override
+      public void onSuccess(Perfetto.QueryResult r) {
+        if (!r.getError().isEmpty()) {
+          try {
+            consumer.onBatch(0, r);
+            result.set(0);
+          } catch (RpcException | RuntimeException e) {
+            result.setException(e);
+          }
+        } else {
+          String paged = "select * from " + table + " where rowid > %d and rowid <= %d " +
+              "order by rowid";
+          streamBatch(paged, batchSize, 0, consumer, result);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.setException(t);
+      }
+    });
+    Futures.whenAllComplete(create, result).run(
+        () -> logFailure(LOG, raw("drop table if exists " + table)), directExecutor());
+    return result;
+  }
+
+  /**
+   * Same as {@link #rawStream(String, int, BatchConsumer)}, except that batches are decoded and
+   * a query error fails the returned future.
+   */
+  public ListenableFuture<Integer> stream(
+      String sql, int batchSize, BatchConsumer<Result> consumer) {
+    return rawStream(sql, batchSize, (offset, batch) -> {
+      if (!batch.getError().isEmpty()) {
+        throw new RpcException("Query failed: " + batch.getError());
+      }
+      consumer.onBatch(offset, new Result(batch));
+    });
+  }
+
+  private void streamBatch(String sql, int batchSize, int offset,
+      BatchConsumer<Perfetto.QueryResult> consumer, SettableFuture<Integer> result) {
+    if (result.isDone()) {
+      return;
+    }
+
+    // Paged statements have the placeholders of the rowid range of the batch.
+    ListenableFuture<Perfetto.QueryResult> batch = raw((batchSize == Integer.MAX_VALUE) ? sql :
+        String.format(sql, offset, (long)offset + batchSize));
+    result.addListener(() -> {
+      if (result.isCancelled()) {
+        batch.cancel(true);
+      }
+    }, directExecutor());
+    addCallback(batch, new FutureCallback<Perfetto.QueryResult>() {
+      @Override
+      public void onSuccess(Perfetto.QueryResult r) {
+        if (result.isDone()) {
+          return;
+        }
+
+        try {
+          consumer.onBatch(offset, r);
+        } catch (RpcException | RuntimeException e) {
+          result.setException(e);
+          return;
+        }
+
+        int rows = (int)r.getNumRecords();
+        if (!r.getError().isEmpty() || rows < batchSize) {
+          result.set(offset + rows);
+        } else {
+          streamBatch(sql, batchSize, offset + rows, consumer, result);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.setException(t);
+      }
+    });
+  }
+
+  /**
+   * Runs the query built by the given function from the name of a scratch table, which holds the
+   * given ids in its {@code id} column, see {@link Template.Binder#ids(String)}. This keeps large
+   * lists of ids out of the query text. The table is dropped once the query is done.
+   */
+  public ListenableFuture<Result> queryWithIds(long[] ids, Function<String, String> sql) {
+    String table = "_ids_" + SCRATCH_IDS.incrementAndGet();
+    String[] create = new String[1 + (ids.length + IDS_INSERT_BATCH_SIZE - 1) /
+        IDS_INSERT_BATCH_SIZE];
+    create[0] = "create table " + table + " (id integer primary key)";
+    for (int i = 0, q = 1; i < ids.length; i += IDS_INSERT_BATCH_SIZE, q++) {
+      StringBuilder insert = new StringBuilder("insert or ignore into ").append(table)
+          .append(" values ");
+      for (int j = i, end = Math.min(ids.length, i + IDS_INSERT_BATCH_SIZE); j < end; j++) {
+        insert.append(j == i ? "(" : ",(").append(ids[j]).append(')');
+      }
+      create[q] = insert.toString();
+    }
+
+    ListenableFuture<Result> filled = queries(create);
+    // Not cancelled with the query, so that the table is only dropped once it has been filled.
+    ListenableFuture<Result> result =
+        transformAsync(Futures.nonCancellationPropagating(filled), $ -> query(sql.apply(table)));
+    Futures.whenAllComplete(filled, result).run(
+        () -> logFailure(LOG, raw(dropTable(table))), directExecutor());
+    return result;
+  }
+
+  public static boolean isSelect(String sql) {
+    String lower = sql.trim().toLowerCase();
+    return lower.startsWith("select") || lower.startsWith("with");
+  }
+
+  private static String stripSemicolons(String sql) {
+    int end = sql.length();
+    while (end > 0 && (sql.charAt(end - 1) == ';' || Character.isWhitespace(sql.charAt(end - 1)))) {
+      end--;
+    }
+    return sql.substring(0, end);
+  }
+
   public ListenableFuture<ArgSet> getArgs(long id) {
     return argsCache.get(id);
   }
 
+  /**
+   * Returns the in-memory index of the sched table, which may not be loaded (yet).
+   */
+  public SchedIndex getSchedIndex() {
+    return schedIndex;
+  }
+
   public ListenableFuture<Map<Long, ArgSet>> getAllArgs(LongStream ids) {
     return transform(
         Futures.allAsList(ids
@@ -169,14 +409,19 @@ public class QueryEngine {
   }
 
   private void updateStatus() {
+    if (status == null) {
+      return; // Running headless, e.g. in benchmarks.
+    }
     if (updating.compareAndSet(false, true)) {
       scheduleIfNotDisposed(status, () -> {
         updating.set(false);
-        int d = done.get(), s = scheduled.get();
+        int d = done.get(), s = scheduled.get(), q = queue.getQueued();
         if (s == 0) {
           status.setServerStatusPrefix("");
-        } else {
+        } else if (q == 0) {
           status.setServerStatusPrefix("Queries: " + d + "/" + s);
+        } else {
+          status.setServerStatusPrefix("Queries: " + d + "/" + s + " (" + q + " queued)");
         }
 
         if (s != 0 && d == s) {
@@ -192,44 +437,356 @@ public class QueryEngine {
     }
   }
 
-  public static class Result {
-    private final Perfetto.QueryResult res;
+  /**
+   * Priority classes of the queries, from highest to lowest. Queued queries of a higher priority
+   * are always sent before any of a lower one, while queries of the same priority are sent in the
+   * order they were issued.
+   */
+  public static enum Priority {
+    /** Queries loading the data of the tracks currently shown. */
+    Visible,
+    /** Queries loading the details of the selection, or issued by the user. */
+    Selection,
+    /** Queries prefetching the data of tracks ahead of it being shown. */
+    Prefetch,
+    /** Long running queries, such as exports, that should not hold up the interactive ones. */
+    Background;
+  }
 
-    public Result(Perfetto.QueryResult res) {
-      this.res = res;
+  /**
+   * The queue of the queries waiting to be sent to the trace processor, which is shared by all the
+   * engines of a trace, and the number of queries currently outstanding.
+   */
+  private static class QueryQueue {
+    private final int maxRunning;
+    private final PriorityQueue<Entry> queued = new PriorityQueue<Entry>(); // guarded by this
+    private int running = 0; // guarded by this
+    private long sequence = 0; // guarded by this
+
+    public QueryQueue(int maxRunning) {
+      this.maxRunning = maxRunning;
     }
 
-    public int getNumRows() {
-      return (int)res.getNumRecords();
+    /**
+     * Queues the given query. The given consumer is passed a future that completes once the query
+     * is done, or has been cancelled before it was sent.
+     */
+    public ListenableFuture<Perfetto.QueryResult> submit(Priority priority,
+        Supplier<ListenableFuture<Perfetto.QueryResult>> query,
+        Consumer<ListenableFuture<?>> settled) {
+      Entry entry;
+      synchronized (this) {
+        entry = new Entry(priority, sequence++, query);
+        queued.add(entry);
+      }
+      settled.accept(entry.settled);
+      entry.result.addListener(() -> {
+        if (entry.result.isCancelled()) {
+          boolean removed;
+          synchronized (this) {
+            removed = queued.remove(entry);
+          }
+          if (removed) {
+            entry.settled.set(null);
+          }
+        }
+      }, directExecutor());
+      drain();
+      return entry.result;
     }
 
-    public Row getRow(int row) {
-      return new Row() {
-        @Override
-        public boolean isNull(int column) {
-          return Result.this.isNull(row, column);
+    public synchronized int getQueued() {
+      return queued.size();
+    }
+
+    // Sends the queued queries, in order, for as long as there are free slots.
+    private void drain() {
+      while (true) {
+        Entry next;
+        synchronized (this) {
+          if (running >= maxRunning || (next = queued.poll()) == null) {
+            return;
+          }
+          if (next.result.isDone()) {
+            next.settled.set(null);
+            continue; // Cancelled while queued.
+          }
+          running++;
         }
 
-        @Override
-        public long getLong(int column, long deflt) {
-          return Result.this.getLong(row, column, deflt);
+        ListenableFuture<Perfetto.QueryResult> sent;
+        try {
+          sent = next.query.get();
+        } catch (RuntimeException e) {
+          release();
+          next.result.setException(e);
+          next.settled.set(null);
+          continue;
         }
+        // The sent query is not cancelled with the result, as the trace processor would keep
+        // running it anyway. Its slot is only released once it is actually done.
+        Entry sending = next;
+        Futures.addCallback(sent, new FutureCallback<Perfetto.QueryResult>() {
+          @Override
+          public void onSuccess(Perfetto.QueryResult r) {
+            sending.result.set(r);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            sending.result.setException(t);
+          }
+        }, directExecutor());
+        sent.addListener(() -> {
+          sending.settled.set(null);
+          release();
+        }, directExecutor());
+      }
+    }
+
+    private void release() {
+      synchronized (this) {
+        running--;
+      }
+      drain();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+      public final Priority priority;
+      public final long sequence;
+      public final Supplier<ListenableFuture<Perfetto.QueryResult>> query;
+      public final SettableFuture<Perfetto.QueryResult> result = SettableFuture.create();
+      // Set once the query is done, or has been cancelled before it was sent.
+      public final SettableFuture<Void> settled = SettableFuture.create();
 
-        @Override
-        public double getDouble(int column, double deflt) {
-          return Result.this.getDouble(row, column, deflt);
+      public Entry(Priority priority, long sequence,
+          Supplier<ListenableFuture<Perfetto.QueryResult>> query) {
+        this.priority = priority;
+        this.sequence = sequence;
+        this.query = query;
+      }
+
+      @Override
+      public int compareTo(Entry o) {
+        int r = priority.compareTo(o.priority);
+        return (r != 0) ? r : Long.compare(sequence, o.sequence);
+      }
+    }
+  }
+
+  /**
+   * The queries issued through an engine that are not done yet.
+   */
+  private static class Outstanding {
+    private final Set<ListenableFuture<?>> queries = Sets.newHashSet(); // guarded by this
+
+    public void add(ListenableFuture<?> settled) {
+      synchronized (this) {
+        queries.add(settled);
+      }
+      settled.addListener(() -> {
+        synchronized (this) {
+          queries.remove(settled);
         }
+      }, directExecutor());
+    }
 
-        @Override
-        public String getString(int column, String deflt) {
-          return Result.this.getString(row, column, deflt);
+    public ListenableFuture<?> whenDone() {
+      List<ListenableFuture<?>> pending;
+      synchronized (this) {
+        pending = Lists.newArrayList(queries);
+      }
+      return Futures.whenAllComplete(pending).call(() -> null, directExecutor());
+    }
+  }
+
+  /**
+   * A SQL statement with {@code %d} (number) and {@code %s} (string) placeholders, parsed once into
+   * its literal segments. Binding appends the literals and typed values directly into a single
+   * pre-sized buffer, without the format string parsing and boxing of {@link String#format}. The
+   * placeholders that are constant for a track, such as table names, can be bound once into a
+   * {@link Binder#partial() partial} template.
+   */
+  public static class Template {
+    private static final int ESTIMATED_VALUE_LENGTH = 16;
+
+    private final String[] literals; // One more than placeholders.
+    private final char[] placeholders;
+    private final int length;
+
+    private Template(String[] literals, char[] placeholders) {
+      this.literals = literals;
+      this.placeholders = placeholders;
+      int len = 0;
+      for (String literal : literals) {
+        len += literal.length();
+      }
+      this.length = len + ESTIMATED_VALUE_LENGTH * placeholders.length;
+    }
+
+    public static Template of(String sql) {
+      List<String> literals = Lists.newArrayList();
+      StringBuilder placeholders = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      for (int i = 0; i < sql.length(); i++) {
+        char c = sql.charAt(i);
+        if (c != '%') {
+          literal.append(c);
+          continue;
+        } else if (++i >= sql.length()) {
+          throw new IllegalArgumentException("Dangling % in query template: " + sql);
         }
-      };
+
+        c = sql.charAt(i);
+        if (c == '%') {
+          literal.append(c);
+        } else if (c == 'd' || c == 's') {
+          literals.add(literal.toString());
+          literal.setLength(0);
+          placeholders.append(c);
+        } else {
+          throw new IllegalArgumentException("Unsupported placeholder %" + c + " in: " + sql);
+        }
+      }
+      literals.add(literal.toString());
+      return new Template(literals.toArray(new String[0]), placeholders.toString().toCharArray());
     }
 
+    public Binder bind() {
+      return new Binder(this);
+    }
+
+    @Override
+    public String toString() {
+      return String.join("?", literals);
+    }
+
+    public static class Binder {
+      private final Template template;
+      private final StringBuilder sql;
+      private int next = 0;
+
+      protected Binder(Template template) {
+        this.template = template;
+        this.sql = new StringBuilder(template.length).append(template.literals[0]);
+      }
+
+      public Binder arg(long value) {
+        check('d');
+        sql.append(value);
+        return advance();
+      }
+
+      public Binder arg(String value) {
+        check('s');
+        sql.append(value);
+        return advance();
+      }
+
+      /**
+       * Binds the ids of the given scratch table, as created by
+       * {@link QueryEngine#queryWithIds(long[], Function)}, to the {@code %s} placeholder of an
+       * {@code in (%s)} list.
+       */
+      public Binder ids(String table) {
+        return arg("select id from " + table);
+      }
+
+      /**
+       * Returns a template of the remaining placeholders, with the ones bound so far inlined.
+       */
+      public Template partial() {
+        int remaining = template.placeholders.length - next;
+        String[] literals = new String[remaining + 1];
+        literals[0] = sql.toString();
+        System.arraycopy(template.literals, next + 1, literals, 1, remaining);
+        return new Template(literals,
+            Arrays.copyOfRange(template.placeholders, next, template.placeholders.length));
+      }
+
+      public String sql() {
+        if (next != template.placeholders.length) {
+          throw new IllegalStateException("Unbound placeholders in: " + template);
+        }
+        return sql.toString();
+      }
+
+      private void check(char type) {
+        if (next >= template.placeholders.length) {
+          throw new IllegalStateException("Too many values for: " + template);
+        } else if (template.placeholders[next] != type) {
+          throw new IllegalArgumentException(
+              "Expected %" + template.placeholders[next] + " in: " + template);
+        }
+      }
+
+      private Binder advance() {
+        next++;
+        sql.append(template.literals[next]);
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Columnar view of a {@link Perfetto.QueryResult}. Each column is decoded once into primitive
+   * arrays, so the typed accessors do not allocate or go through the protobuf lists.
+   */
+  public static class Result {
+    private final int numRows;
+    private final Column[] columns;
+
+    public Result(Perfetto.QueryResult res) {
+      this.numRows = (int)res.getNumRecords();
+      this.columns = new Column[res.getColumnsCount()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = Column.decode(res.getColumns(i), numRows);
+      }
+    }
+
+    private Result(int numRows, Column[] columns) {
+      this.numRows = numRows;
+      this.columns = columns;
+    }
+
+    /**
+     * Concatenates the rows of the given results, which all need to have the same columns, such
+     * as the batches of a streamed query.
+     */
+    public static Result concat(List<Result> results) {
+      if (results.size() == 1) {
+        return results.get(0);
+      }
+
+      int numRows = results.stream().mapToInt(Result::getNumRows).sum();
+      Column[] columns = new Column[results.isEmpty() ? 0 : results.get(0).columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = Column.concat(results, i, numRows);
+      }
+      return new Result(numRows, columns);
+    }
+
+    public int getNumRows() {
+      return numRows;
+    }
+
+    public int getNumColumns() {
+      return columns.length;
+    }
+
+    public Row getRow(int row) {
+      return new Cursor(row);
+    }
+
+    /**
+     * Calls the visitor for each row in the result. The {@link Row} handed to the visitor is a
+     * reused cursor and is only valid for the duration of the visit call.
+     */
     public void forEachRow(Row.Visitor visitor) {
-      for (int i = 0; i < res.getNumRecords(); i++) {
-        visitor.visit(i, getRow(i));
+      Cursor cursor = new Cursor(0);
+      for (int i = 0; i < numRows; i++) {
+        cursor.row = i;
+        visitor.visit(i, cursor);
       }
     }
 
@@ -256,24 +813,204 @@ public class QueryEngine {
       return IntStream.range(0, getNumRows()).mapToObj(this::getRow);
     }
 
+    /**
+     * Returns a copy of the given long column, with nulls replaced by the given default.
+     */
+    public long[] getLongs(int column, long deflt) {
+      Column c = columns[column];
+      long[] result = new long[numRows];
+      for (int i = 0; i < numRows; i++) {
+        result[i] = c.nulls.get(i) ? deflt : c.longs[i];
+      }
+      return result;
+    }
+
+    public long[] getLongs(int column) {
+      return getLongs(column, 0);
+    }
+
     public boolean isNull(int row, int column) {
-      return res.getColumns(column).getIsNulls(row);
+      return columns[column].nulls.get(row);
     }
 
     public long getLong(int row, int column, long deflt) {
-      Perfetto.QueryResult.ColumnValues c = res.getColumns(column);
-      return (c.getIsNulls(row)) ? deflt : c.getLongValues(row);
+      Column c = columns[column];
+      return c.nulls.get(row) ? deflt : c.longs[row];
     }
 
     public double getDouble(int row, int column, double deflt) {
-      Perfetto.QueryResult.ColumnValues c = res.getColumns(column);
-      return (c.getIsNulls(row)) ? deflt : c.getDoubleValues(row);
+      Column c = columns[column];
+      return c.nulls.get(row) ? deflt : c.doubles[row];
     }
 
     public String getString(int row, int column, String deflt) {
-      Perfetto.QueryResult.ColumnValues c = res.getColumns(column);
-      return (c.getIsNulls(row)) ? deflt : c.getStringValues(row);
+      Column c = columns[column];
+      return c.nulls.get(row) ? deflt : c.dictionary[c.strings[row]];
+    }
+
+    private class Cursor implements Row {
+      private int row;
+
+      public Cursor(int row) {
+        this.row = row;
+      }
+
+      @Override
+      public boolean isNull(int column) {
+        return Result.this.isNull(row, column);
+      }
+
+      @Override
+      public long getLong(int column, long deflt) {
+        return Result.this.getLong(row, column, deflt);
+      }
+
+      @Override
+      public double getDouble(int column, double deflt) {
+        return Result.this.getDouble(row, column, deflt);
+      }
+
+      @Override
+      public String getString(int column, String deflt) {
+        return Result.this.getString(row, column, deflt);
+      }
+    }
+
+    /**
+     * A single decoded column. Only the values array matching the column's type is populated,
+     * the others are empty. Strings are dictionary encoded, as most string columns (names,
+     * categories, states, etc.) contain few distinct values.
+     */
+    private static class Column {
+      private static final long[] NO_LONGS = new long[0];
+      private static final double[] NO_DOUBLES = new double[0];
+      private static final int[] NO_STRINGS = new int[0];
+      private static final String[] NO_DICTIONARY = new String[0];
+
+      public final BitSet nulls;
+      public final long[] longs;
+      public final double[] doubles;
+      public final int[] strings;
+      public final String[] dictionary;
+
+      private Column(
+          BitSet nulls, long[] longs, double[] doubles, int[] strings, String[] dictionary) {
+        this.nulls = nulls;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.strings = strings;
+        this.dictionary = dictionary;
+      }
+
+      public static Column decode(Perfetto.QueryResult.ColumnValues values, int numRows) {
+        BitSet nulls = new BitSet(numRows);
+        for (int i = 0; i < values.getIsNullsCount(); i++) {
+          if (values.getIsNulls(i)) {
+            nulls.set(i);
+          }
+        }
+
+        long[] longs = NO_LONGS;
+        if (values.getLongValuesCount() > 0) {
+          longs = new long[values.getLongValuesCount()];
+          for (int i = 0; i < longs.length; i++) {
+            longs[i] = values.getLongValues(i);
+          }
+        }
+
+        double[] doubles = NO_DOUBLES;
+        if (values.getDoubleValuesCount() > 0) {
+          doubles = new double[values.getDoubleValuesCount()];
+          for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = values.getDoubleValues(i);
+          }
+        }
+
+        int[] strings = NO_STRINGS;
+        String[] dictionary = NO_DICTIONARY;
+        if (values.getStringValuesCount() > 0) {
+          Dictionary dict = new Dictionary();
+          strings = new int[values.getStringValuesCount()];
+          for (int i = 0; i < strings.length; i++) {
+            strings[i] = dict.encode(values.getStringValues(i));
+          }
+          dictionary = dict.values();
+        }
+        return new Column(nulls, longs, doubles, strings, dictionary);
+      }
+
+      public static Column concat(List<Result> results, int column, int numRows) {
+        BitSet nulls = new BitSet(numRows);
+        long[] longs = NO_LONGS;
+        double[] doubles = NO_DOUBLES;
+        int[] strings = NO_STRINGS;
+        Dictionary dict = null;
+
+        int offset = 0;
+        for (Result result : results) {
+          Column c = result.columns[column];
+          for (int i = c.nulls.nextSetBit(0); i >= 0; i = c.nulls.nextSetBit(i + 1)) {
+            nulls.set(offset + i);
+          }
+          if (c.longs.length > 0) {
+            longs = (longs.length == 0) ? new long[numRows] : longs;
+            System.arraycopy(c.longs, 0, longs, offset, c.longs.length);
+          }
+          if (c.doubles.length > 0) {
+            doubles = (doubles.length == 0) ? new double[numRows] : doubles;
+            System.arraycopy(c.doubles, 0, doubles, offset, c.doubles.length);
+          }
+          if (c.strings.length > 0) {
+            strings = (strings.length == 0) ? new int[numRows] : strings;
+            dict = (dict == null) ? new Dictionary() : dict;
+            int[] remap = new int[c.dictionary.length];
+            for (int i = 0; i < remap.length; i++) {
+              remap[i] = dict.encode(c.dictionary[i]);
+            }
+            for (int i = 0; i < c.strings.length; i++) {
+              strings[offset + i] = remap[c.strings[i]];
+            }
+          }
+          offset += result.numRows;
+        }
+        return new Column(
+            nulls, longs, doubles, strings, (dict == null) ? NO_DICTIONARY : dict.values());
+      }
     }
+
+    private static class Dictionary {
+      private final Map<String, Integer> ids = Maps.newHashMap();
+      private final List<String> values = Lists.newArrayList();
+
+      public Dictionary() {
+      }
+
+      public int encode(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+          id = values.size();
+          ids.put(value, id);
+          values.add(value);
+        }
+        return id;
+      }
+
+      public String[] values() {
+        return values.toArray(new String[values.size()]);
+      }
+    }
+  }
+
+  /**
+   * Consumer of the result batches of a streamed query.
+   */
+  public static interface BatchConsumer<T> {
+    /**
+     * Called with each batch, in order, on an executor thread.
+     *
+     * @param offset the index of the first row of this batch within the whole result.
+     */
+    public void onBatch(int offset, T batch) throws RpcException;
   }
 
   public static interface Row {
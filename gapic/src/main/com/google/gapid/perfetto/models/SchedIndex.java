@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
+import static com.google.gapid.util.MoreFutures.transform;
+import static com.google.gapid.util.MoreFutures.transformAsync;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.perfetto.ThreadState;
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory, columnar index of the sched table, which answers the per-thread and per-CPU range
+ * queries of the selection locally, rather than querying the trace processor on every click and
+ * drag. The index is loaded in the background, once the trace has been loaded. Until then, or if
+ * the table does not fit into the memory budget, the queries fall back to SQL.
+ */
+public class SchedIndex {
+  private static final Logger LOG = Logger.getLogger(SchedIndex.class.getName());
+
+  public static final Flag<Integer> schedIndexSize = Flags.value("perfetto-sched-index-mb", 64,
+      "Maximum size, in MiB, of the in-memory index of the sched table. 0 disables the index.",
+      true);
+
+  private static final String COUNT_SQL =
+      "select count(*), max(utid), max(cpu) from sched";
+  private static final String SCHED_SQL =
+      "select sched.id, ts, dur, cpu, utid, upid, end_state, priority " +
+      "from sched left join thread using(utid) order by sched.id";
+  private static final int BATCH_SIZE = 50000;
+  // Approximate size, in bytes, of a sched slice in the index, including both orders.
+  private static final long ROW_SIZE = 80;
+
+  private volatile Columns columns; // null until loaded.
+
+  public boolean isLoaded() {
+    return columns != null;
+  }
+
+  /**
+   * Loads the index using the given query engine, unless disabled or the sched table exceeds
+   * the memory budget.
+   */
+  public ListenableFuture<?> load(QueryEngine qe) {
+    if (schedIndexSize.get() <= 0) {
+      return immediateFuture(null);
+    }
+
+    return transformAsync(expectOneRow(qe.query(COUNT_SQL)), r -> {
+      long count = r.getLong(0);
+      if (count * ROW_SIZE > ((long)schedIndexSize.get() << 20)) {
+        LOG.log(Level.INFO, "Not indexing the " + count + " sched slices, over the memory budget.");
+        return immediateFuture(null);
+      }
+
+      Builder builder = new Builder((int)count, r.getInt(1) + 1, r.getInt(2) + 1);
+      return transform(qe.stream(SCHED_SQL, BATCH_SIZE, builder::add), $ -> {
+        columns = builder.build();
+        return null;
+      });
+    });
+  }
+
+  /**
+   * Returns the sched slices of the given thread that overlap the given range, or null if the
+   * index is not loaded.
+   */
+  public CpuTrack.Slices getThreadSlices(long utid, TimeSpan span) {
+    Columns c = columns;
+    return (c == null) ? null : c.query(c.byThread, (int)Math.min(utid, Integer.MAX_VALUE), span,
+        false);
+  }
+
+  /**
+   * Returns the sched slices, excluding the idle ones, of the given CPU that overlap the given
+   * range, or null if the index is not loaded.
+   */
+  public CpuTrack.Slices getCpuSlices(int cpu, TimeSpan span) {
+    Columns c = columns;
+    return (c == null) ? null : c.query(c.byCpu, cpu, span, true);
+  }
+
+  private static class Columns {
+    public final long[] ids;
+    public final long[] starts;
+    public final long[] durs;
+    public final int[] cpus;
+    public final long[] utids;
+    public final long[] upids;
+    public final ThreadState[] endStates;
+    public final int[] priorities;
+    public final Order byThread;
+    public final Order byCpu;
+
+    public Columns(long[] ids, long[] starts, long[] durs, int[] cpus, long[] utids, long[] upids,
+        ThreadState[] endStates, int[] priorities, int numUtids, int numCpus) {
+      this.ids = ids;
+      this.starts = starts;
+      this.durs = durs;
+      this.cpus = cpus;
+      this.utids = utids;
+      this.upids = upids;
+      this.endStates = endStates;
+      this.priorities = priorities;
+
+      int[] byTs = sortByStart(starts);
+      int[] utidKeys = new int[utids.length];
+      for (int i = 0; i < utids.length; i++) {
+        utidKeys[i] = (int)utids[i];
+      }
+      this.byThread = new Order(byTs, utidKeys, numUtids, starts, durs);
+      this.byCpu = new Order(byTs, cpus, numCpus, starts, durs);
+    }
+
+    public CpuTrack.Slices query(Order order, int key, TimeSpan span, boolean skipIdle) {
+      CpuTrack.Slices result = new CpuTrack.Slices();
+      if (key < 0 || key >= order.offsets.length - 1) {
+        return result;
+      }
+
+      for (int k = order.first(key, span.start); k < order.offsets[key + 1]; k++) {
+        int row = order.rows[k];
+        if (starts[row] >= span.end) {
+          break;
+        }
+        if (starts[row] + durs[row] >= span.start && !(skipIdle && utids[row] == 0)) {
+          result.add(ids[row], starts[row], durs[row], cpus[row], utids[row], upids[row],
+              endStates[row], priorities[row]);
+        }
+      }
+      return result;
+    }
+
+    // Returns the row numbers ordered by start.
+    private static int[] sortByStart(long[] starts) {
+      int[] rows = new int[starts.length];
+      boolean sorted = true;
+      for (int i = 0; i < rows.length; i++) {
+        rows[i] = i;
+        sorted &= i == 0 || starts[i - 1] <= starts[i];
+      }
+      if (sorted) {
+        return rows; // The sched table is normally already sorted.
+      }
+      return mergeSort(rows, starts);
+    }
+
+    // Stable bottom-up merge sort of the given row numbers by their start, without boxing them.
+    private static int[] mergeSort(int[] rows, long[] starts) {
+      int[] from = rows, to = new int[rows.length];
+      for (int width = 1; width < rows.length; width *= 2) {
+        for (int lo = 0; lo < rows.length; lo += 2 * width) {
+          int mid = Math.min(lo + width, rows.length), hi = Math.min(lo + 2 * width, rows.length);
+          for (int i = lo, j = mid, k = lo; k < hi; k++) {
+            if (i < mid && (j >= hi || starts[from[i]] <= starts[from[j]])) {
+              to[k] = from[i++];
+            } else {
+              to[k] = from[j++];
+            }
+          }
+        }
+        int[] tmp = from;
+        from = to;
+        to = tmp;
+      }
+      return from;
+    }
+  }
+
+  /**
+   * The rows grouped by a dense key, such as the utid or cpu, and ordered by start within each
+   * group. Like {@link IntervalIndex}, it keeps the running maximum of the ends within each group,
+   * to binary search for the first row that may overlap a range.
+   */
+  private static class Order {
+    public final int[] rows;
+    public final int[] offsets; // The rows of key k are at [offsets[k], offsets[k + 1]).
+    public final long[] maxEnds;
+
+    public Order(int[] byStart, int[] keys, int numKeys, long[] starts, long[] durs) {
+      // Counting sort, which is stable, so the rows remain ordered by start within a key.
+      offsets = new int[numKeys + 1];
+      for (int key : keys) {
+        offsets[key + 1]++;
+      }
+      for (int k = 0; k < numKeys; k++) {
+        offsets[k + 1] += offsets[k];
+      }
+      rows = new int[byStart.length];
+      int[] next = Arrays.copyOf(offsets, numKeys);
+      for (int row : byStart) {
+        rows[next[keys[row]]++] = row;
+      }
+
+      maxEnds = new long[rows.length];
+      for (int k = 0; k < numKeys; k++) {
+        for (int i = offsets[k]; i < offsets[k + 1]; i++) {
+          long end = starts[rows[i]] + durs[rows[i]];
+          maxEnds[i] = (i == offsets[k]) ? end : Math.max(maxEnds[i - 1], end);
+        }
+      }
+    }
+
+    // Returns the position of the first row of the given key that may end at or after the time.
+    public int first(int key, long time) {
+      int lo = offsets[key], hi = offsets[key + 1];
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] < time) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  private static class Builder {
+    private final int numUtids, numCpus;
+    private final long[] ids, starts, durs, utids, upids;
+    private final int[] cpus, priorities;
+    private final ThreadState[] endStates;
+    private int count = 0;
+    private boolean valid = true;
+
+    public Builder(int rows, int numUtids, int numCpus) {
+      this.numUtids = numUtids;
+      this.numCpus = numCpus;
+      this.ids = new long[rows];
+      this.starts = new long[rows];
+      this.durs = new long[rows];
+      this.utids = new long[rows];
+      this.upids = new long[rows];
+      this.cpus = new int[rows];
+      this.priorities = new int[rows];
+      this.endStates = new ThreadState[rows];
+    }
+
+    public void add(int offset, QueryEngine.Result batch) {
+      batch.forEachRow((i, row) -> {
+        int idx = offset + i;
+        long utid = row.getLong(4);
+        int cpu = row.getInt(3);
+        if (idx >= ids.length || utid < 0 || utid >= numUtids || cpu < 0 || cpu >= numCpus) {
+          valid = false; // The table changed since it was counted, which is not expected.
+          return;
+        }
+        ids[idx] = row.getLong(0);
+        starts[idx] = row.getLong(1);
+        durs[idx] = row.getLong(2);
+        cpus[idx] = cpu;
+        utids[idx] = utid;
+        upids[idx] = row.getLong(5);
+        endStates[idx] = ThreadState.of(row.getString(6));
+        priorities[idx] = row.getInt(7);
+        count = Math.max(count, idx + 1);
+      });
+    }
+
+    // Returns the columns, or null if the rows did not match the counted ones.
+    public Columns build() {
+      if (!valid || count != ids.length) {
+        LOG.log(Level.WARNING, "Not indexing the sched slices, the table changed while loading.");
+        return null;
+      }
+      return new Columns(ids, starts, durs, cpus, utids, upids, endStates, priorities,
+          numUtids, numCpus);
+    }
+  }
+}
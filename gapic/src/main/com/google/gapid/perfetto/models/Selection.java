@@ -42,6 +42,21 @@ public interface Selection<T extends Selection<T>> {
   public T combine(T other);
   public Composite buildUi(Composite parent, State state);
 
+  /**
+   * Returns whether this selection contains any of the ids of the given list.
+   */
+  public default boolean containsAny(PackedIds ids, int list) {
+    if (ids.isEmpty(list)) {
+      return false;
+    }
+    for (int i = ids.offsets[list], end = ids.offsets[list + 1]; i < end; i++) {
+      if (contains(ids.ids[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public default void getRange(@SuppressWarnings("unused") Consumer<TimeSpan> span) {
     /* do nothing */
   }
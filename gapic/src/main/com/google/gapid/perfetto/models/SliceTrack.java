@@ -25,20 +25,26 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.QueryEngine.Template;
 import com.google.gapid.perfetto.models.QueryEngine.Result;
 import com.google.gapid.perfetto.models.QueryEngine.Row;
 import com.google.gapid.perfetto.views.SlicesSelectionView;
 import com.google.gapid.perfetto.views.State;
 import com.google.gapid.proto.service.Service;
+import com.google.gapid.util.Weighers;
 
 import org.eclipse.swt.widgets.Composite;
 
@@ -97,7 +103,7 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
 
       @Override
       protected void appendForQuant(Data data, QueryEngine.Result res) {
-        data.putExtraLongs("submissionIds", res.stream().mapToLong(r -> r.getLong(6)).toArray());
+        data.putExtraLongs("submissionIds", res.getLongs(6));
       }
 
       @Override
@@ -130,7 +136,7 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
   }
 
   public abstract ListenableFuture<Slices> getSlice(long id);
-  public abstract ListenableFuture<Slices> getSlices(String concatedId);
+  public abstract ListenableFuture<Slices> getSlices(long[] ids);
   public abstract ListenableFuture<Slices> getSlices(TimeSpan ts, int minDepth, int maxDepth);
 
   public static class Data extends Track.Data {
@@ -143,6 +149,9 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     public final ArgSet[] args;
     public Map<String, long[]> extraLongs = Maps.newHashMap();
     public Map<String, String[]> extraStrings = Maps.newHashMap();
+    // Ids of the slices merged into each quantized slice, empty for unquantized data.
+    public PackedIds concatedIds = PackedIds.EMPTY;
+    private IntervalIndex index; // Built on first use, by the UI thread.
 
     public Data(DataRequest request) {
       super(request);
@@ -155,6 +164,15 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       this.args = new ArgSet[0];
     }
 
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(ids) + sizeOf(starts) + sizeOf(ends) + sizeOf(depths) +
+          sizeOf(titles) + sizeOf(categories) + sizeOf(args) +
+          extraLongs.values().stream().mapToLong(Weighers::sizeOf).sum() +
+          extraStrings.values().stream().mapToLong(Weighers::sizeOf).sum() +
+          concatedIds.getSize();
+    }
+
     public Data(DataRequest request, long[] ids, long[] starts, long[] ends, int[] depths,
         String[] titles, String[] categories, ArgSet[] args) {
       super(request);
@@ -167,6 +185,79 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       this.args = args;
     }
 
+    /**
+     * Combines the given chunks of unquantized slices, ordered by time, into a single data. Slices
+     * overlapping the boundary of two chunks are contained in both and only kept once.
+     */
+    public static Data stitch(DataRequest req, List<Data> chunks) {
+      int total = chunks.stream().mapToInt(c -> c.ids.length).sum();
+      int[] chunkOf = new int[total], indexOf = new int[total];
+      int n = 0;
+      Set<Long> seen = Sets.newHashSet();
+      for (int c = 0; c < chunks.size(); c++) {
+        Data chunk = chunks.get(c);
+        // Only the slices of the previous chunk can cross the boundary to this one.
+        seen.clear();
+        if (c > 0) {
+          Data prev = chunks.get(c - 1);
+          for (int i = prev.ids.length - 1; i >= 0; i--) {
+            if (prev.ends[i] >= chunk.request.range.start) {
+              seen.add(prev.ids[i]);
+            }
+          }
+        }
+        for (int i = 0; i < chunk.ids.length; i++) {
+          if (!seen.contains(chunk.ids[i])) {
+            chunkOf[n] = c;
+            indexOf[n] = i;
+            n++;
+          }
+        }
+      }
+
+      Data data = new Data(req, new long[n], new long[n], new long[n], new int[n],
+          new String[n], new String[n], new ArgSet[n]);
+      Set<String> longKeys = Sets.newHashSet(), stringKeys = Sets.newHashSet();
+      for (Data chunk : chunks) {
+        longKeys.addAll(chunk.extraLongs.keySet());
+        stringKeys.addAll(chunk.extraStrings.keySet());
+      }
+      for (String key : longKeys) {
+        data.putExtraLongs(key, new long[n]);
+      }
+      for (String key : stringKeys) {
+        data.putExtraStrings(key, new String[n]);
+      }
+
+      for (int i = 0; i < n; i++) {
+        Data chunk = chunks.get(chunkOf[i]);
+        int idx = indexOf[i];
+        data.ids[i] = chunk.ids[idx];
+        data.starts[i] = chunk.starts[idx];
+        data.ends[i] = chunk.ends[idx];
+        data.depths[i] = chunk.depths[idx];
+        data.titles[i] = chunk.titles[idx];
+        data.categories[i] = chunk.categories[idx];
+        data.args[i] = chunk.args[idx];
+        for (String key : longKeys) {
+          long[] values = chunk.getExtraLongs(key);
+          data.extraLongs.get(key)[i] = (idx < values.length) ? values[idx] : 0;
+        }
+        for (String key : stringKeys) {
+          String[] values = chunk.getExtraStrings(key);
+          data.extraStrings.get(key)[i] = (idx < values.length) ? values[idx] : "";
+        }
+      }
+      return data;
+    }
+
+    public IntervalIndex getIndex() {
+      if (index == null) {
+        index = IntervalIndex.of(starts, ends, depths);
+      }
+      return index;
+    }
+
     public void putExtraLongs(String name, long[] longs) {
       extraLongs.put(name, longs);
     }
@@ -219,6 +310,7 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     public final List<Long> parentIds = Lists.newArrayList();
     public final List<ArgSet> argsets = Lists.newArrayList();   // So far only store non-empty argset when there's only 1 slice.
     public final Set<Long> sliceKeys = Sets.newHashSet();
+    private long[] sortedKeys; // Built when first needed, for testing buckets of ids.
     private final String title;
 
     public Slices(String title) {
@@ -260,6 +352,7 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       this.parentIds.add(parentId);
       this.argsets.add(argset);
       this.sliceKeys.add(id);
+      this.sortedKeys = null;
     }
 
     @Override
@@ -272,6 +365,15 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public boolean containsAny(PackedIds list, int index) {
+      if (sortedKeys == null) {
+        sortedKeys =
+            PackedIds.sortedUnique(sliceKeys.stream().mapToLong(Long::longValue).toArray());
+      }
+      return list.anyIn(index, sortedKeys);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       if (count <= 0) {
@@ -422,21 +524,39 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
   }
 
   public abstract static class WithQueryEngine extends SliceTrack {
-    private static final String SLICES_SQL =
-        "select %s from %s where ts >= %d - dur and ts <= %d order by ts";
-    private static final String SLICE_SQL = "select %s from %s where id = %d";
-    private static final String SLICES_BY_ID_SQL = "select %s from %s where id in (%s)";
-    private static final String SLICE_RANGE_SQL =
-        "select %s from %s where ts < %d and ts + dur >= %d and depth >= %d and depth <= %d";
+    private static final Template SLICES_SQL =
+        Template.of("select %s from %s where ts >= %d - dur and ts <= %d order by ts, id");
+    private static final Template SLICE_SQL = Template.of("select %s from %s where id = %d");
+    private static final Template SLICES_BY_ID_SQL =
+        Template.of("select %s from %s where id in (%s)");
+    private static final Template SLICE_RANGE_SQL = Template.of(
+        "select %s from %s where ts < %d and ts + dur >= %d and depth >= %d and depth <= %d");
 
     protected static final QuantizedColumn[] NO_QUANTIZED_COLUMNS = new QuantizedColumn[0];
     protected static final String[] NO_DATA_COLUMNS = new String[0];
 
     protected final QueryEngine qe;
+    // The columns and table are constant for a track, so they are bound once.
+    private final Supplier<Template> slicesSql = Suppliers.memoize(() -> bindTable(SLICES_SQL));
+    private final Supplier<Template> sliceSql = Suppliers.memoize(() -> bindTable(SLICE_SQL));
+    private final Supplier<Template> slicesByIdSql =
+        Suppliers.memoize(() -> bindTable(SLICES_BY_ID_SQL));
+    private final Supplier<Template> sliceRangeSql =
+        Suppliers.memoize(() -> bindTable(SLICE_RANGE_SQL));
 
     public WithQueryEngine(QueryEngine qe, String id) {
       super(id);
-      this.qe = qe;
+      this.qe = qe.withPriority(this::getQueryPriority);
+    }
+
+    @Override
+    protected ListenableFuture<?> whenQueriesDone() {
+      return qe.whenDone();
+    }
+
+    @Override
+    protected ListenableFuture<TimeSpan> loadTraceBounds() {
+      return qe.getTraceTimeBounds();
     }
 
     @Override
@@ -462,6 +582,23 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
           window.quantized ? computeQuantSlices(req) : computeSlices(req));
     }
 
+    // Unquantized slices do not depend on the resolution.
+    @Override
+    protected boolean canServe(long loadedResolution, long requestedResolution) {
+      return loadedResolution == requestedResolution ||
+          (!Window.isQuantized(loadedResolution) && !Window.isQuantized(requestedResolution));
+    }
+
+    @Override
+    protected boolean canStitch(DataRequest req) {
+      return !Window.isQuantized(req.resolution);
+    }
+
+    @Override
+    protected Data stitch(DataRequest req, List<Data> chunks) {
+      return Data.stitch(req, chunks);
+    }
+
     protected ListenableFuture<Data> computeQuantSlices(DataRequest req) {
       return transform(qe.query(slicesQuantSql()), res -> {
         int rows = res.getNumRows();
@@ -481,7 +618,7 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
           data.args[i] = ArgSet.EMPTY;
           concatedIds[i] = row.getString(5);
         });
-        data.putExtraStrings("concatedIds", concatedIds);
+        data.concatedIds = PackedIds.parse(concatedIds);
         appendForQuant(data, res);
         return data;
       });
@@ -526,28 +663,36 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     protected abstract void appendForQuant(Data data, QueryEngine.Result res);
 
     private ListenableFuture<Data> computeSlices(DataRequest req) {
-      return transformAsync(qe.query(slicesSql(req)), res ->
-        transform(qe.getAllArgs(res.stream().mapToLong(r -> r.getLong(8))), args -> {
-          int rows = res.getNumRows();
-          Data data = new Data(req, new long[rows], new long[rows], new long[rows], new int[rows],
-              new String[rows], new String[rows], new ArgSet[rows]);
-          res.forEachRow((i, row) -> {
-            long start = row.getLong(1);
-            data.ids[i] = row.getLong(0);
-            data.starts[i] = start;
-            data.ends[i] = start + row.getLong(2);
-            data.categories[i] = row.getString(3);
-            data.titles[i] = row.getString(4);
-            data.depths[i] = row.getInt(5);
-            data.args[i] = args.getOrDefault(row.getLong(8), ArgSet.EMPTY);
-          });
-          appendForSlices(data, res);
-          return data;
-        }));
+      return transformAsync(streamQuery(qe, req, slicesSql(req), 1,
+          (partialReq, res) -> buildSliceData(partialReq, res, emptyMap())), res ->
+        transform(qe.getAllArgs(Arrays.stream(res.getLongs(8))),
+            args -> buildSliceData(req, res, args)));
+    }
+
+    private Data buildSliceData(DataRequest req, QueryEngine.Result res, Map<Long, ArgSet> args) {
+      int rows = res.getNumRows();
+      Data data = new Data(req, new long[rows], new long[rows], new long[rows], new int[rows],
+          new String[rows], new String[rows], new ArgSet[rows]);
+      res.forEachRow((i, row) -> {
+        long start = row.getLong(1);
+        data.ids[i] = row.getLong(0);
+        data.starts[i] = start;
+        data.ends[i] = start + row.getLong(2);
+        data.categories[i] = row.getString(3);
+        data.titles[i] = row.getString(4);
+        data.depths[i] = row.getInt(5);
+        data.args[i] = args.getOrDefault(row.getLong(8), ArgSet.EMPTY);
+      });
+      appendForSlices(data, res);
+      return data;
     }
 
     private String slicesSql(DataRequest req) {
-      return format(SLICES_SQL, columns(), tableName("slices"), req.range.start, req.range.end);
+      return slicesSql.get().bind().arg(req.range.start).arg(req.range.end).sql();
+    }
+
+    private Template bindTable(Template template) {
+      return template.bind().arg(columns()).arg(tableName("slices")).partial();
     }
 
     protected final String columns() {
@@ -569,16 +714,16 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     }
 
     private String sliceSql(long id) {
-      return format(SLICE_SQL, columns(), tableName("slices"), id);
+      return sliceSql.get().bind().arg(id).sql();
     }
 
     @Override
-    public ListenableFuture<Slices> getSlices(String concatedId) {
-      return transform(qe.query(slicesByIdSql(concatedId)), this::buildSlices);
+    public ListenableFuture<Slices> getSlices(long[] ids) {
+      return transform(qe.queryWithIds(ids, this::slicesByIdSql), this::buildSlices);
     }
 
-    private String slicesByIdSql(String concatedId) {
-      return format(SLICES_BY_ID_SQL, columns(), tableName("slices"), concatedId);
+    private String slicesByIdSql(String idTable) {
+      return slicesByIdSql.get().bind().ids(idTable).sql();
     }
 
     @Override
@@ -587,8 +732,8 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     }
 
     private String sliceRangeSql(TimeSpan ts, int minDepth, int maxDepth) {
-      return format(SLICE_RANGE_SQL,
-          columns(), tableName("slices"), ts.end, ts.start, minDepth, maxDepth);
+      return sliceRangeSql.get().bind()
+          .arg(ts.end).arg(ts.start).arg(minDepth).arg(maxDepth).sql();
     }
 
     protected abstract Slices buildSlices(QueryEngine.Row row, ArgSet args);
@@ -23,6 +23,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropTable;
 import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.collect.Lists;
@@ -149,8 +150,8 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
     return CpuTrack.getSlice(qe, id);
   }
 
-  public ListenableFuture<Slices> getSlices(String concatedId) {
-    return sliceTrack.getSlices(concatedId);
+  public ListenableFuture<Slices> getSlices(long[] ids) {
+    return sliceTrack.getSlices(ids);
   }
 
   public ListenableFuture<Slices> getSlices(TimeSpan ts, int minDepth, int maxDepth) {
@@ -178,6 +179,7 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
     public final ThreadState[] schedStates;
     // slices
     public final SliceTrack.Data slices;
+    private IntervalIndex schedIndex; // Built on first use, by the UI thread.
 
     public Data(DataRequest request, boolean[] isSched, long[] ids, long[] schedStarts, long[] schedEnds,
         ThreadState[] schedStates, SliceTrack.Data slices) {
@@ -189,6 +191,19 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
       this.schedStates = schedStates;
       this.slices = slices;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(isSched) + sizeOf(ids) + sizeOf(schedStarts) +
+          sizeOf(schedEnds) + sizeOf(schedStates) + ((slices == null) ? 0 : slices.getSize());
+    }
+
+    public IntervalIndex getSchedIndex() {
+      if (schedIndex == null) {
+        schedIndex = IntervalIndex.of(schedStarts, schedEnds);
+      }
+      return schedIndex;
+    }
   }
 
   public static class StateSlices implements Selection<StateSlices> {
@@ -311,7 +326,7 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
     }
 
     @SuppressWarnings("unused")
-    public default ListenableFuture<Slices> getSlices(String concatedId) {
+    public default ListenableFuture<Slices> getSlices(long[] ids) {
       return Futures.immediateFuture(null);
     }
 
@@ -344,8 +359,8 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
         }
 
         @Override
-        public ListenableFuture<Slices> getSlices(String concatedId) {
-          return track.getSlices(concatedId);
+        public ListenableFuture<Slices> getSlices(long[] ids) {
+          return track.getSlices(ids);
         }
 
         @Override
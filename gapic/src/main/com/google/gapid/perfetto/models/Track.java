@@ -22,26 +22,47 @@ import static com.google.gapid.util.Scheduler.EXECUTOR;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.util.Caches;
-
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.LatencyStats;
+import com.google.gapid.util.Weighers;
+
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 // Note on multi-threading issues here:
 // Because of how the window tables work, the below computeData(..) calls have to be serialized
-// by track. That is, data for different requests can not be fetched in parallel. Thus, the calls
-// to computeData(..) are funneled through the getDataLock semaphore. Care needs to be taken not to
-// block the executor threads indefinitely, as otherwise a deadlock could occur, due to the results
-// of the query futures no longer being able to be executed. Thus, the semaphore is try-acquired
-// with a short timeout, followed by a slightly longer wait, before retrying.
+// by track. That is, data for different requests can not be fetched in parallel. Thus, each track
+// runs its requests through a serial queue: while a request is running, only the latest of the
+// requests that arrive is kept, and it is started once the running one completes. No executor
+// thread is ever blocked waiting on a track, so requests of different tracks run fully in parallel.
+// Once a track is idle, the data of the pages and zoom levels adjacent to the visible one is
+// prefetched into the cache through the same queue. Prefetches only run while no request is
+// waiting and the queued prefetches are dropped as soon as a new request is scheduled.
 
 /**
  * A {@link Track} is responsible for loading the data to be shown in the UI.
@@ -52,11 +73,20 @@ public abstract class Track<D extends Track.Data> {
   public static final long QUANTIZE_CUT_OFF = 2000;
 
   private static final long REQUEST_DELAY_MS = 50;
-  private static final long ACQUIRE_TIMEOUT_MS = 5;
-  private static final long ACQUIRE_RETRY_MS = 10;
+  private static final long PREFETCH_DELAY_MS = 250;
   private static final long PAGE_SIZE = 3600;
+  private static final int STREAM_BATCH_SIZE = 10000;
+  private static final TimeSpan UNBOUNDED = new TimeSpan(0, Long.MAX_VALUE);
+
+  public static final Flag<Integer> dataCacheSize = Flags.value("track-data-cache-mb", 256,
+      "Maximum size, in MiB, of the cache of loaded track data.", true);
+  public static final Flag<Boolean> prefetchData = Flags.value("track-prefetch", true,
+      "Prefetch the track data of the pages and zoom levels adjacent to the visible ones.", true);
 
-  private static DataCache cache = new DataCache();
+  // Created lazily, so that it is sized by the parsed flags.
+  private static final Supplier<DataCache> cache = Suppliers.memoize(DataCache::new);
+  // The latencies of computing the data of the tracks, by track type.
+  private static final Map<String, LatencyStats> queryLatencies = new ConcurrentSkipListMap<>();
 
   private final String trackId;
 
@@ -65,8 +95,16 @@ public abstract class Track<D extends Track.Data> {
   // Set to null on any thread, set to non-null only on the UI thread.
   private final AtomicReference<ScheduledRequest<D>> scheduledRequest =
       new AtomicReference<ScheduledRequest<D>>(null);
-  private final Semaphore getDataLock = new Semaphore(1);
-  private boolean initialized; // guarded by getDataLock
+  private final Object queueLock = new Object();
+  private boolean running; // guarded by queueLock
+  private ScheduledRequest<D> pending; // guarded by queueLock
+  private final ArrayDeque<DataRequest> prefetches = new ArrayDeque<DataRequest>(); // queueLock
+  private DataRequest prefetched; // only on the UI thread
+  private ListenableFuture<?> prefetchFuture; // only on the UI thread
+  private ListenableFuture<TimeSpan> traceBounds; // only set on the UI thread
+  private volatile boolean initialized; // only modified by the running request
+  // The priority of the queries issued by this track, depending on what holds its queue.
+  private volatile QueryEngine.Priority queryPriority = QueryEngine.Priority.Selection;
 
   public Track(String trackId) {
     this.trackId = trackId.replace("-", "_");
@@ -78,8 +116,12 @@ public abstract class Track<D extends Track.Data> {
 
   // on UI Thread
   public D getData(DataRequest req, OnUiThread<D> onUiThread) {
-    if (checkScheduledRequest(req, onUiThread) && (data == null || !data.request.satisfies(req))) {
-      schedule(req.pageAlign(), onUiThread);
+    if (checkScheduledRequest(req, onUiThread)) {
+      if (data == null || !satisfies(data.request, req)) {
+        schedule(req.pageAlign(), onUiThread);
+      } else {
+        schedulePrefetch(req.pageAlign());
+      }
     }
     return data;
   }
@@ -96,63 +138,287 @@ public abstract class Track<D extends Track.Data> {
 
     scheduledFuture.cancel(true);
     scheduledFuture = null;
+    scheduled.cancel();
     scheduledRequest.set(null);
     return true;
   }
 
+  // Returns whether the data loaded for the given request can be shown for the other request.
+  private boolean satisfies(DataRequest loaded, DataRequest req) {
+    return loaded.range.contains(req.range) && canServe(loaded.resolution, req.resolution);
+  }
+
   // on UI Thread
   private void schedule(DataRequest request, OnUiThread<D> onUiThread) {
-    D newData = cache.getIfPresent(this, request);
-    if (newData != null) {
-      data = newData;
+    cancelPrefetch();
+    DataCache.Lookup<D> cached = cache.get().lookup(this, request);
+    cache.get().record(cached, request);
+    if (cached.data != null) {
+      data = cached.data;
       return;
     }
 
-    ScheduledRequest<D> scheduled = new ScheduledRequest<D>(request, onUiThread);
+    ScheduledRequest<D> scheduled = new ScheduledRequest<D>(request, cached, onUiThread);
     scheduledRequest.set(scheduled);
+    if (cached.missing == null) {
+      // The request is fully covered by cached chunks, stitch them together off the UI thread.
+      ListenableFuture<D> stitched = EXECUTOR.submit(() -> stitch(request, cached.before));
+      scheduled.scheduleCallbacks(stitched, newData -> update(scheduled, newData));
+      scheduledFuture = stitched;
+      return;
+    }
     scheduledFuture = EXECUTOR.schedule(
         () -> query(scheduled), REQUEST_DELAY_MS, MILLISECONDS);
   }
 
   // *not* on UI Thread
   private void query(ScheduledRequest<D> scheduled) {
-    try {
-      if (!getDataLock.tryAcquire(ACQUIRE_TIMEOUT_MS, MILLISECONDS)) {
-        logFailure(LOG, EXECUTOR.schedule(
-            () -> query(scheduled), ACQUIRE_RETRY_MS, MILLISECONDS));
+    synchronized (queueLock) {
+      if (running) {
+        // Replaces any older request still waiting on the running one.
+        pending = scheduled;
         return;
       }
-    } catch (InterruptedException e) {
-      // We were cancelled while waiting on the lock.
-      scheduledRequest.compareAndSet(scheduled, null);
-      return;
+      running = true;
     }
+    run(scheduled);
+  }
 
+  // *not* on UI Thread. Only called by the request holding the queue.
+  private void run(ScheduledRequest<D> scheduled) {
     if (scheduledRequest.get() != scheduled) {
-      getDataLock.release();
+      // Skip requests that have been superseded while waiting in the queue.
+      runNext();
+      return;
+    }
+
+    queryPriority = QueryEngine.Priority.Visible;
+    ScheduledRequest<D> current = scheduled;
+    try {
+      long start = System.nanoTime();
+      ListenableFuture<D> computed = transformAsync(setup(), $ -> computeData(current.fetch));
+      LatencyStats latency = queryLatencies.computeIfAbsent(getType(), $ -> new LatencyStats());
+      computed.addListener(() -> {
+        if (!computed.isCancelled()) {
+          latency.add(System.nanoTime() - start);
+        }
+      }, EXECUTOR);
+      ListenableFuture<D> future = computed;
+      if (current.isPartial()) {
+        future = transform(future, fetched -> {
+          cache.get().put(this, current.fetch, fetched);
+          return stitch(current.request, current.chunks(fetched));
+        });
+      }
+      // Cancelling the outermost future also cancels the queries not yet sent to compute the data.
+      current.setComputation(future);
+      current.scheduleCallbacks(future, newData -> update(current, newData));
+      // Always run the next request when the future completes/fails/is cancelled. If cancelled,
+      // only once the already sent queries are done, as they may still update the track's tables.
+      ListenableFuture<D> done = future;
+      done.addListener(() -> {
+        if (done.isCancelled()) {
+          whenQueriesDone().addListener(this::runNext, EXECUTOR);
+        } else {
+          runNext();
+        }
+      }, EXECUTOR);
+    } catch (RuntimeException e) {
+      EXECUTOR.execute(this::runNext);
+      throw e;
+    }
+  }
+
+  // *not* on UI Thread. Runs the next waiting request, or else the next prefetch, or releases the
+  // queue. Only called by the request holding the queue.
+  private void runNext() {
+    ScheduledRequest<D> next;
+    DataRequest prefetch = null;
+    synchronized (queueLock) {
+      next = pending;
+      pending = null;
+      if (next == null) {
+        prefetch = prefetches.poll();
+      }
+      running = next != null || prefetch != null;
+      if (!running) {
+        // Queries issued outside of the queue are for the details of the selection.
+        queryPriority = QueryEngine.Priority.Selection;
+      }
+    }
+
+    if (next != null) {
+      run(next);
+    } else if (prefetch != null) {
+      runPrefetch(prefetch);
+    }
+  }
+
+  // on UI Thread
+  private void schedulePrefetch(DataRequest request) {
+    if (!prefetchData.get() || dataCacheSize.get() <= 0 || (prefetched != null &&
+        prefetched.resolution == request.resolution && prefetched.range.equals(request.range))) {
+      return;
+    }
+
+    cancelPrefetch();
+    prefetched = request;
+    if (traceBounds == null || (traceBounds.isDone() && getTraceBounds() == null)) {
+      traceBounds = loadTraceBounds(); // (Re-)load, if not yet loaded or failed.
+    }
+    prefetchFuture = EXECUTOR.schedule(() -> {
+      TimeSpan bounds = getTraceBounds();
+      List<DataRequest> adjacent = adjacent(request, (bounds == null) ? UNBOUNDED : bounds);
+      synchronized (queueLock) {
+        prefetches.addAll(adjacent);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+      runNext();
+    }, PREFETCH_DELAY_MS, MILLISECONDS);
+  }
+
+  // on UI Thread
+  private void cancelPrefetch() {
+    if (prefetchFuture != null) {
+      prefetchFuture.cancel(false);
+      prefetchFuture = null;
+    }
+    prefetched = null;
+    synchronized (queueLock) {
+      prefetches.clear();
+    }
+  }
+
+  // Returns the trace bounds, if loaded, or null.
+  private TimeSpan getTraceBounds() {
+    ListenableFuture<TimeSpan> future = traceBounds;
+    if (future == null || !future.isDone() || future.isCancelled()) {
+      return null;
+    }
+    try {
+      return Futures.getDone(future);
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  // Returns the pages before and after the given one, within the trace bounds, as well as the page
+  // zoomed out and zoomed in, at the resolutions one zoom level away. Quantized data is only ever
+  // used at exactly its resolution, so such zoom levels are not prefetched, as the view is
+  // unlikely to stop at exactly the same range and resolution.
+  private static List<DataRequest> adjacent(DataRequest req, TimeSpan bounds) {
+    long start = req.range.start, end = req.range.end, dur = req.range.getDuration();
+    List<DataRequest> result = Lists.newArrayList();
+    addAdjacent(result, new TimeSpan(end, end + dur), req.resolution, bounds);
+    addAdjacent(result, new TimeSpan(start - dur, start), req.resolution, bounds);
+    long out = DataRequest.zoomedOut(req.resolution), in = DataRequest.zoomedIn(req.resolution);
+    if (!Window.isQuantized(out)) {
+      addAdjacent(result, new TimeSpan(start - dur / 2, end + dur / 2), out, bounds);
+    }
+    if (in != req.resolution && !Window.isQuantized(in)) {
+      addAdjacent(result, new TimeSpan(start + dur / 4, end - dur / 4), in, bounds);
+    }
+    return result;
+  }
+
+  private static void addAdjacent(
+      List<DataRequest> result, TimeSpan range, long resolution, TimeSpan bounds) {
+    range.boundedBy(bounds).ifNotEmpty(
+        bounded -> result.add(new DataRequest(bounded, resolution).pageAlign()));
+  }
+
+  // *not* on UI Thread. Loads the data of the given request into the cache, unless already cached
+  // or a request is waiting. Only called by the request holding the queue.
+  private void runPrefetch(DataRequest req) {
+    DataCache.Lookup<D> cached = cache.get().lookup(this, req);
+    if (cached.data != null || cached.missing == null || scheduledRequest.get() != null) {
+      runNext();
       return;
     }
 
+    queryPriority = QueryEngine.Priority.Prefetch;
     try {
-      ListenableFuture<D> future = transformAsync(setup(), $ -> computeData(scheduled.request));
-      scheduled.scheduleCallbacks(future, newData -> update(scheduled, newData));
-      // Always unlock when the future completes/fails/is cancelled.
-      future.addListener(getDataLock::release, EXECUTOR);
+      ListenableFuture<D> future = transformAsync(setup(), $ -> computeData(cached.missing));
+      logFailure(LOG, transform(future, fetched -> {
+        cache.get().put(this, cached.missing, fetched);
+        return fetched;
+      }));
+      future.addListener(this::runNext, EXECUTOR);
     } catch (RuntimeException e) {
-      getDataLock.release();
+      EXECUTOR.execute(this::runNext);
       throw e;
     }
   }
 
   // on UI Thread
   private void update(ScheduledRequest<D> scheduled, D newData) {
-    cache.put(this, scheduled.request, newData);
+    if (!scheduled.isPartial()) {
+      cache.get().put(this, scheduled.request, newData);
+    }
     if (scheduledRequest.compareAndSet(scheduled, null)) {
       data = newData;
       scheduledFuture = null;
     }
   }
 
+  /**
+   * Runs the given query, which must be ordered by the timestamp in the given column and then by
+   * a unique key, in batches. While more batches are outstanding, the data built from the rows
+   * received so far is published as partial data, covering the range up to the last received
+   * timestamp. Partial data is only rebuilt once the number of received rows has doubled since it
+   * was last published, so that the total work stays linear in the size of the result. The
+   * returned future resolves to the complete result.
+   */
+  protected ListenableFuture<QueryEngine.Result> streamQuery(QueryEngine qe, DataRequest req,
+      String sql, int tsColumn, BiFunction<DataRequest, QueryEngine.Result, D> partial) {
+    List<QueryEngine.Result> batches = Lists.newArrayList();
+    int[] published = { 0 }; // The number of rows in the last published partial data.
+    return transform(qe.stream(sql, STREAM_BATCH_SIZE, (offset, batch) -> {
+      batches.add(batch);
+      int rows = batch.getNumRows(), total = offset + rows;
+      long lastTs = (rows == 0) ? req.range.start : batch.getLong(rows - 1, tsColumn, 0);
+      if (rows == STREAM_BATCH_SIZE && total >= 2 * published[0] && lastTs > req.range.start &&
+          isPublishing(req)) {
+        published[0] = total;
+        DataRequest partialReq = new DataRequest(
+            new TimeSpan(req.range.start, Math.min(req.range.end, lastTs - 1)), req.resolution);
+        publishPartial(req, partial.apply(partialReq, QueryEngine.Result.concat(batches)));
+      }
+    }), $ -> QueryEngine.Result.concat(batches));
+  }
+
+  // Returns whether partial data of the given fetch would still be shown.
+  private boolean isPublishing(DataRequest fetch) {
+    ScheduledRequest<D> scheduled = scheduledRequest.get();
+    return scheduled != null && scheduled.fetch == fetch;
+  }
+
+  // *not* on UI Thread
+  private void publishPartial(DataRequest fetch, D partial) {
+    ScheduledRequest<D> scheduled = scheduledRequest.get();
+    if (scheduled == null || scheduled.fetch != fetch) {
+      return;
+    }
+
+    D shown = partial;
+    if (!scheduled.before.isEmpty()) {
+      // Show the partial data following the cached chunks before the fetched range.
+      List<D> chunks = Lists.newArrayList(scheduled.before);
+      chunks.add(partial);
+      shown = stitch(new DataRequest(
+          new TimeSpan(scheduled.request.range.start, partial.request.range.end),
+          scheduled.request.resolution), chunks);
+    }
+    scheduled.schedulePartial(shown, newData -> {
+      if (scheduledRequest.get() == scheduled) {
+        data = newData;
+      }
+    });
+  }
+
   private ListenableFuture<?> setup() {
     if (initialized) {
       return Futures.immediateFuture(null);
@@ -163,6 +429,72 @@ public abstract class Track<D extends Track.Data> {
   protected abstract ListenableFuture<?> initialize();
   protected abstract ListenableFuture<D> computeData(DataRequest req);
 
+  /**
+   * Returns whether data computed for a request of the first resolution may be shown for a request
+   * of the second resolution. By default, only data of the exact same resolution is used.
+   */
+  protected boolean canServe(long loadedResolution, long requestedResolution) {
+    return loadedResolution == requestedResolution;
+  }
+
+  /**
+   * Returns whether this track can {@link #stitch} data of adjacent ranges for the given request.
+   */
+  protected boolean canStitch(DataRequest req) {
+    return false;
+  }
+
+  /**
+   * Combines the given chunks, which are ordered by time and together cover the range of the given
+   * request, into the data for the request. Only called if {@link #canStitch(DataRequest)}.
+   */
+  protected D stitch(DataRequest req, List<D> chunks) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Loads the time bounds of the trace, used to limit the prefetched ranges. Resolves to null, if
+   * the track does not know the trace bounds.
+   */
+  protected ListenableFuture<TimeSpan> loadTraceBounds() {
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Returns a future that completes once the queries issued by this track so far are done,
+   * including the cancelled ones that are still running in the trace processor.
+   */
+  protected ListenableFuture<?> whenQueriesDone() {
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Returns the priority the queries of this track should currently be run at.
+   */
+  protected QueryEngine.Priority getQueryPriority() {
+    return queryPriority;
+  }
+
+  private String getType() {
+    String name = getClass().getSimpleName();
+    return name.isEmpty() ? getClass().getName() : name;
+  }
+
+  /**
+   * Returns the latencies of loading the data of the tracks, from the start of the queries to the
+   * data being computed, by track type.
+   */
+  public static Map<String, LatencyStats> getQueryLatencies() {
+    return Collections.unmodifiableMap(queryLatencies);
+  }
+
+  /**
+   * Returns a summary of the hit ratio of the cache of loaded track data.
+   */
+  public static String getCacheStats() {
+    return cache.get().getStats();
+  }
+
   protected String tableName(String prefix) {
     return prefix + "_" + trackId;
   }
@@ -181,6 +513,13 @@ public abstract class Track<D extends Track.Data> {
     public Data(DataRequest request) {
       this.request = request;
     }
+
+    /**
+     * Returns an estimate of the retained size of this data in bytes, used to bound the cache.
+     */
+    public long getSize() {
+      return Weighers.OBJECT_SIZE;
+    }
   }
 
   public static class DataRequest {
@@ -192,6 +531,24 @@ public abstract class Track<D extends Track.Data> {
       this.resolution = resolution;
     }
 
+    /**
+     * Returns the resolution of the requests for the given number of nanoseconds per pixel, which
+     * is always a power of two, so zooming only ever changes it by a factor of two at a time.
+     */
+    public static long resolutionFor(double nanosPerPx) {
+      return (nanosPerPx < 2) ? 1 : 1L << DoubleMath.log2(nanosPerPx, RoundingMode.FLOOR);
+    }
+
+    // Returns the resolution the view reaches when zoomed out past the given resolution.
+    public static long zoomedOut(long resolution) {
+      return resolutionFor(2.0 * resolution);
+    }
+
+    // Returns the resolution the view reaches when zoomed in past the given resolution.
+    public static long zoomedIn(long resolution) {
+      return resolutionFor(resolution / 2.0);
+    }
+
     public DataRequest pageAlign() {
       return new DataRequest(range.align(PAGE_SIZE * resolution), resolution);
     }
@@ -228,7 +585,7 @@ public abstract class Track<D extends Track.Data> {
     }
 
     public static Window compute(DataRequest request, int bucketSizePx) {
-      if (request.resolution >= RESOLUTION_QUANTIZE_CUTOFF) {
+      if (isQuantized(request.resolution)) {
         return quantized(request, bucketSizePx);
       } else {
         return compute(request);
@@ -244,9 +601,26 @@ public abstract class Track<D extends Track.Data> {
     }
 
     public static Window quantized(DataRequest request, int bucketSizePx) {
-      long quantum = request.resolution * bucketSizePx;
-      long start = (request.range.start / quantum) * quantum;
-      return new Window(start, request.range.end, true, quantum);
+      return quantized(request.range, request.resolution * bucketSizePx);
+    }
+
+    public static Window quantized(TimeSpan range, long quantum) {
+      long start = (range.start / quantum) * quantum;
+      return new Window(start, range.end, true, quantum);
+    }
+
+    /**
+     * Returns whether windows computed with the default cutoff are quantized at the resolution.
+     */
+    public static boolean isQuantized(long resolution) {
+      return resolution >= RESOLUTION_QUANTIZE_CUTOFF;
+    }
+
+    /**
+     * Returns the smallest quantum of the windows computed with the given bucket size.
+     */
+    public static long minQuantum(int bucketSizePx) {
+      return RESOLUTION_QUANTIZE_CUTOFF * bucketSizePx;
     }
 
     public int getNumberOfBuckets() {
@@ -270,28 +644,87 @@ public abstract class Track<D extends Track.Data> {
 
     public WithQueryEngine(QueryEngine qe, String trackId) {
       super(trackId);
-      this.qe = qe;
+      this.qe = qe.withPriority(this::getQueryPriority);
+    }
+
+    @Override
+    protected ListenableFuture<?> whenQueriesDone() {
+      return qe.whenDone();
+    }
+
+    @Override
+    protected ListenableFuture<TimeSpan> loadTraceBounds() {
+      return qe.getTraceTimeBounds();
     }
   }
 
   private static class ScheduledRequest<D extends Track.Data> {
     public final DataRequest request;
+    // The range actually queried. Differs from the request, if parts of it are already cached,
+    // and null, if all of it is and the cached chunks only need to be stitched.
+    public final DataRequest fetch;
+    private final List<D> before, after;
     private final List<OnUiThread<D>> callbacks;
+    private ListenableFuture<?> computation; // guarded by this
+    private boolean cancelled; // guarded by this
 
-    public ScheduledRequest(DataRequest request, OnUiThread<D> callback) {
+    public ScheduledRequest(
+        DataRequest request, DataCache.Lookup<D> cached, OnUiThread<D> callback) {
       this.request = request;
+      this.fetch = cached.missing;
+      this.before = cached.before;
+      this.after = cached.after;
       this.callbacks = Lists.newArrayList(callback);
     }
 
+    public boolean isPartial() {
+      return fetch != request;
+    }
+
+    public List<D> chunks(D fetched) {
+      List<D> result = Lists.newArrayList(before);
+      result.add(fetched);
+      result.addAll(after);
+      return result;
+    }
+
     public boolean satisfies(DataRequest req) {
       return request.satisfies(req);
     }
 
+    // Not on UI thread. Cancels the given future right away, if this request has been cancelled.
+    public synchronized void setComputation(ListenableFuture<?> future) {
+      if (cancelled) {
+        future.cancel(true);
+      } else {
+        computation = future;
+      }
+    }
+
+    // Only on UI thread. Cancels the computation of the data of this superseded request.
+    public synchronized void cancel() {
+      cancelled = true;
+      if (computation != null) {
+        computation.cancel(true);
+        computation = null;
+      }
+    }
+
     // Only on UI thread.
     public void addCallback(OnUiThread<D> callback) {
       callbacks.add(callback);
     }
 
+    // Not on UI thread.
+    public void schedulePartial(D partial, Consumer<D> update) {
+      callbacks.get(0).onUiThread(Futures.immediateFuture(partial), data -> {
+        update.accept(data);
+        for (OnUiThread<D> callback : callbacks) {
+          callback.repaint();
+        }
+      });
+    }
+
     // Not on UI thread.
     public void scheduleCallbacks(ListenableFuture<D> future, Consumer<D> update) {
       // callbacks.get(0) is safe since we only ever append to the list.
@@ -304,19 +737,164 @@ public abstract class Track<D extends Track.Data> {
     }
   }
 
-  private static class DataCache {
-    private final Cache<Key, Object> dataCache = Caches.softCache();
+  static class DataCache {
+    private final Cache<Key, Track.Data> dataCache = Caches.weightedCache(dataCacheSize,
+        (key, data) -> Weighers.toWeight(data.getSize()), this::onRemoval);
+    // The keys of the cached data of each track, used to find the chunks covering a request.
+    private final Map<Track<?>, Set<Key>> index = Maps.newHashMap(); // guarded by index
+    private final AtomicLong hits = new AtomicLong(), partials = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     public DataCache() {
     }
 
+    /**
+     * Looks up the data for the given request. Data fully covering the request is used as is. If
+     * the track supports stitching, the adjacent cached chunks covering the request are returned,
+     * to be stitched by the caller off the UI thread, and, if only parts of the request are
+     * cached, the returned lookup also contains the remaining range to fetch.
+     */
     @SuppressWarnings("unchecked")
-    public <D extends Track.Data> D getIfPresent(Track<D> track, DataRequest req) {
-      return (D)dataCache.getIfPresent(new Key(track, req));
+    public <D extends Track.Data> Lookup<D> lookup(Track<D> track, DataRequest req) {
+      List<D> candidates = Lists.newArrayList();
+      for (Key key : keys(track)) {
+        if (key.start < req.range.end && key.end > req.range.start &&
+            track.canServe(key.resolution, req.resolution)) {
+          D data = (D)dataCache.getIfPresent(key);
+          if (data != null) {
+            if (data.request.range.contains(req.range)) {
+              return Lookup.hit(data);
+            }
+            candidates.add(data);
+          }
+        }
+      }
+      if (candidates.isEmpty() || !track.canStitch(req)) {
+        return Lookup.miss(req);
+      }
+
+      // Cover as much as possible of the request from its start and from its end.
+      List<D> before = Lists.newArrayList(), after = Lists.newArrayList();
+      long start = req.range.start, end = req.range.end;
+      for (D next; start < end && (next = coveringStart(candidates, start)) != null; ) {
+        before.add(next);
+        start = next.request.range.end;
+      }
+      for (D prev; start < end && (prev = coveringEnd(candidates, end)) != null; ) {
+        after.add(0, prev);
+        end = prev.request.range.start;
+      }
+
+      if (start >= end) {
+        before.addAll(after);
+        return Lookup.stitch(before);
+      } else if (before.isEmpty() && after.isEmpty()) {
+        return Lookup.miss(req);
+      }
+      return new Lookup<D>(null, before,
+          new DataRequest(new TimeSpan(start, end), req.resolution), after);
+    }
+
+    // Returns the chunk containing the given time, that extends the furthest.
+    private static <D extends Track.Data> D coveringStart(List<D> candidates, long time) {
+      D result = null;
+      for (D c : candidates) {
+        if (c.request.range.start <= time && c.request.range.end > time &&
+            (result == null || c.request.range.end > result.request.range.end)) {
+          result = c;
+        }
+      }
+      return result;
+    }
+
+    // Returns the chunk ending at or after the given time, that starts the earliest before it.
+    private static <D extends Track.Data> D coveringEnd(List<D> candidates, long time) {
+      D result = null;
+      for (D c : candidates) {
+        if (c.request.range.start < time && c.request.range.end >= time &&
+            (result == null || c.request.range.start < result.request.range.start)) {
+          result = c;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Records the outcome of the lookup of the given request for the cache statistics.
+     */
+    public void record(Lookup<?> lookup, DataRequest req) {
+      if (lookup.data != null || lookup.missing == null) {
+        hits.incrementAndGet();
+      } else if (lookup.missing == req) {
+        misses.incrementAndGet();
+      } else {
+        partials.incrementAndGet();
+      }
+    }
+
+    public String getStats() {
+      long h = hits.get(), p = partials.get(), m = misses.get(), total = h + p + m;
+      if (total == 0) {
+        return "no lookups";
+      }
+      return String.format("%.1f%% hits, %.1f%% partial hits of %d lookups",
+          100.0 * h / total, 100.0 * p / total, total);
     }
 
     public <D extends Track.Data> void put(Track<D> track, DataRequest req, D data) {
-      dataCache.put(new Key(track, req), data);
+      Key key = new Key(track, req);
+      synchronized (index) {
+        index.computeIfAbsent(track, $ -> Sets.newHashSet()).add(key);
+      }
+      dataCache.put(key, data);
+    }
+
+    private List<Key> keys(Track<?> track) {
+      synchronized (index) {
+        Set<Key> keys = index.get(track);
+        return (keys == null) ? Collections.emptyList() : Lists.newArrayList(keys);
+      }
+    }
+
+    private void onRemoval(RemovalNotification<Key, Track.Data> removed) {
+      if (removed.getCause() == RemovalCause.REPLACED) {
+        return;
+      }
+
+      Key key = removed.getKey();
+      synchronized (index) {
+        Set<Key> keys = index.get(key.track);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+          index.remove(key.track);
+        }
+      }
+    }
+
+    public static class Lookup<D extends Track.Data> {
+      public final D data;
+      public final List<D> before;
+      public final DataRequest missing;
+      public final List<D> after;
+
+      public Lookup(D data, List<D> before, DataRequest missing, List<D> after) {
+        this.data = data;
+        this.before = before;
+        this.missing = missing;
+        this.after = after;
+      }
+
+      public static <D extends Track.Data> Lookup<D> hit(D data) {
+        return new Lookup<D>(data, Collections.emptyList(), null, Collections.emptyList());
+      }
+
+      // The request is covered by the given chunks, which still need to be stitched together.
+      public static <D extends Track.Data> Lookup<D> stitch(List<D> chunks) {
+        return new Lookup<D>(null, chunks, null, Collections.emptyList());
+      }
+
+      public static <D extends Track.Data> Lookup<D> miss(DataRequest req) {
+        return new Lookup<D>(null, Collections.emptyList(), req, Collections.emptyList());
+      }
     }
 
     private static class Key {
@@ -94,19 +94,32 @@ public class Tracks {
     });
   }
 
+  /**
+   * Enumerates only the CPU, process and thread tracks, which are shown while the remaining
+   * tracks are still loading.
+   */
+  public static ListenableFuture<Perfetto.Data.Builder> enumerateCpuAndThreads(
+      Perfetto.Data.Builder data) {
+    return Scheduler.EXECUTOR.submit(() -> {
+      enumerateCpu(data);
+      enumerateProcesses(data);
+      return data;
+    });
+  }
+
   private static Perfetto.Data.Builder enumerateCpu(Perfetto.Data.Builder data) {
     if (!data.getCpu().hasCpus()) {
       return data;
     }
 
-    CpuSummaryTrack summary = new CpuSummaryTrack(data.qe, data.getCpu().count());
+    CpuSummaryTrack summary = data.reuse(new CpuSummaryTrack(data.qe, data.getCpu().count()));
     boolean hasAnyFrequency = false;
     for (CpuInfo.Cpu cpu : data.getCpu().cpus()) {
-      CpuTrack track = new CpuTrack(data.qe, cpu);
+      CpuTrack track = data.reuse(new CpuTrack(data.qe, cpu));
       data.tracks.addTrack(summary.getId(), track.getId(), "CPU " + cpu.id,
           single(state -> new CpuPanel(state, track), false, false));
       if (cpu.hasFrequency()) {
-        CpuFrequencyTrack freqTrack = new CpuFrequencyTrack(data.qe, cpu);
+        CpuFrequencyTrack freqTrack = data.reuse(new CpuFrequencyTrack(data.qe, cpu));
         data.tracks.addTrack(summary.getId(), freqTrack.getId(), "CPU " + cpu.id + " Frequency",
             single(state -> new CpuFrequencyPanel(state, freqTrack), false, false));
         hasAnyFrequency = true;
@@ -290,7 +303,7 @@ public class Tracks {
     boolean hasIdles = count > 1 && processes.get(processes.size() - 2).totalDur < idleCutoffProc;
     processes.forEach(process -> {
       ProcessSummaryTrack summary =
-          new ProcessSummaryTrack(data.qe, data.getCpu().count(), process);
+          data.reuse(new ProcessSummaryTrack(data.qe, data.getCpu().count(), process));
       boolean isIdleProcess = hasIdles && (process.totalDur < idleCutoffProc);
       String parent =  isIdleProcess ? "procs_idle" : "procs";
       data.tracks.addGroup(parent, summary.getId(), process.getDisplay(),
@@ -360,7 +373,7 @@ public class Tracks {
           .map(tid -> data.getThreads().get(tid))
           .filter(Objects::nonNull)
           .sorted((t1, t2) -> Long.compare(t2.totalDur, t1.totalDur))
-          .map(t -> new ThreadTrack(data.qe, t))
+          .map(t -> data.reuse(new ThreadTrack(data.qe, t)))
           .collect(Collectors.toList());
       final long idleCutoffThread =
           Math.min(idleCutoffProc, Math.round(IDLE_PERCENT_CUTOFF * process.totalDur));
@@ -17,6 +17,7 @@ package com.google.gapid.perfetto.models;
 
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.MoreFutures.transform;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.util.concurrent.ListenableFuture;
@@ -52,6 +53,11 @@ public interface VSync {
       this.ts = ts;
       this.fillFirst = fillFirst;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(ts);
+    }
   }
 
   public static class FromSurfaceFlingerAppCounter extends Track.WithQueryEngine<VSync.Data>
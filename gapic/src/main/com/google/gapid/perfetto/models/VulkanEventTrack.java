@@ -23,6 +23,7 @@ import static com.google.gapid.perfetto.models.QueryEngine.dropView;
 import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
+import static com.google.gapid.util.Weighers.sizeOf;
 import static java.lang.String.format;
 
 import com.google.common.collect.Lists;
@@ -34,6 +35,7 @@ import com.google.gapid.perfetto.views.VulkanEventsSelectionView;
 
 import org.eclipse.swt.widgets.Composite;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -86,7 +88,7 @@ public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Dat
 
   private ListenableFuture<Data> computeSlices(DataRequest req) {
     return transformAsync(qe.query(slicesSql(req)), res ->
-        transform(qe.getAllArgs(res.stream().mapToLong(r -> r.getLong(7))), args -> {
+        transform(qe.getAllArgs(Arrays.stream(res.getLongs(7))), args -> {
           int rows = res.getNumRows();
           Data data = new Data(req, new long[rows], new long[rows], new long[rows],
               new String[rows], new int[rows], new long[rows], new long[rows], new ArgSet[rows],
@@ -152,6 +154,13 @@ public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Dat
       this.args = args;
       this.dists = dists;
     }
+
+    @Override
+    public long getSize() {
+      return super.getSize() + sizeOf(ids) + sizeOf(starts) + sizeOf(ends) + sizeOf(names) +
+          sizeOf(depths) + sizeOf(commandBuffers) + sizeOf(submissionIds) + sizeOf(args) +
+          sizeOf(dists);
+    }
   }
 
   public static class Slices implements Selection<Slices> {
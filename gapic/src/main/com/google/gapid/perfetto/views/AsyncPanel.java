@@ -24,9 +24,11 @@ import com.google.common.collect.Lists;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.RectCoalescer;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.AsyncInfo;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.SliceTrack;
 
@@ -90,47 +92,48 @@ public class AsyncPanel extends TrackPanel<AsyncPanel> implements Selectable {
       TimeSpan visible = state.getVisibleTime();
       Selection<?> selected = state.getSelection(Selection.Kind.Async);
       List<Highlight> visibleSelected = Lists.newArrayList();
-      String[] concatedIds = data.getExtraStrings("concatedIds");
 
-      for (int i = 0; i < data.starts.length; i++) {
-        long tStart = data.starts[i];
-        long tEnd = data.ends[i];
-        int depth = data.depths[i];
-        long id = data.ids[i];
-        String title = data.titles[i];
+      RectCoalescer.Rows rects = new RectCoalescer.Rows(ctx, SLICE_HEIGHT);
+      IntervalIndex index = data.getIndex();
+      for (int d = 0; d < index.getDepths(); d++) {
+        IntervalIndex atDepth = index.atDepth(d);
+        for (int j = atDepth.first(visible.start), end = atDepth.end(visible.end); j < end; j++) {
+          int i = atDepth.row(j);
+          long tStart = data.starts[i];
+          long tEnd = data.ends[i];
+          int depth = data.depths[i];
+          long id = data.ids[i];
+          String title = data.titles[i];
+
+          if (tEnd <= visible.start || tStart >= visible.end) {
+            continue;
+          }
+          double rectStart = state.timeToPx(tStart);
+          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+          double y = depth * SLICE_HEIGHT;
+
+          StyleConstants.Gradient color = getSliceColor(data.titles[i]);
+          rects.get(depth, y).fillRect(color.base, rectStart, rectWidth);
+
+          // Highlight slice if it's selected.
+          if (selected.contains(id)) {
+            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+          } else if (selected.containsAny(data.concatedIds, i)) {
+            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+          }
 
-        if (tEnd <= visible.start || tStart >= visible.end) {
-          continue;
-        }
-        double rectStart = state.timeToPx(tStart);
-        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-        double y = depth * SLICE_HEIGHT;
-
-        StyleConstants.Gradient color = getSliceColor(data.titles[i]);
-        color.applyBase(ctx);
-        ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
-
-        // Highlight slice if it's selected.
-        if (selected.contains(id)) {
-          visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-        } else if (i < concatedIds.length) {
-          for (String cId : concatedIds[i].split(",")) {
-            if (selected.contains(Long.parseLong(cId))) {
-              visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-              break;
-            }
+          // Don't render text when we have less than 7px to play with.
+          if (rectWidth < 7) {
+            continue;
           }
-        }
 
-        // Don't render text when we have less than 7px to play with.
-        if (rectWidth < 7) {
-          continue;
+          rects.get(depth, y).flush();
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(
+              Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
         }
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
       }
+      rects.flush();
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
       for (Highlight highlight : visibleSelected) {
@@ -175,7 +178,9 @@ public class AsyncPanel extends TrackPanel<AsyncPanel> implements Selectable {
     mouseXpos = x;
     mouseYpos = depth * SLICE_HEIGHT;
     long t = state.pxToTime(x);
-    for (int i = 0; i < data.starts.length; i++) {
+    IntervalIndex index = data.getIndex().atDepth(depth);
+    for (int j = index.firstContaining(t), end = index.endContaining(t); j < end; j++) {
+      int i = index.row(j);
       long tStart = data.starts[i];
       long tEnd = data.ends[i];
       if (data.depths[i] == depth && tStart <= t && t <= tEnd) {
@@ -196,8 +201,7 @@ public class AsyncPanel extends TrackPanel<AsyncPanel> implements Selectable {
         mouseYpos = Math.max(0, Math.min(mouseYpos - (hoveredSize.h - SLICE_HEIGHT) / 2,
             (1 + async.maxDepth) * SLICE_HEIGHT - hoveredSize.h));
         long id = data.ids[i];
-        String concatedId = i < data.getExtraStrings("concatedIds").length ?
-            data.getExtraStrings("concatedIds")[i] : "";
+        long[] ids = data.concatedIds.get(i);
 
         return new Hover() {
           @Override
@@ -217,7 +221,7 @@ public class AsyncPanel extends TrackPanel<AsyncPanel> implements Selectable {
 
           @Override
           public Cursor getCursor(Display display) {
-            return (id < 0 && concatedId.isEmpty()) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
+            return (id < 0 && ids.length == 0) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
           }
 
           @Override
@@ -229,11 +233,11 @@ public class AsyncPanel extends TrackPanel<AsyncPanel> implements Selectable {
                 state.setSelection(Selection.Kind.Async, track.getSlice(id));
               }
               return true;
-            } else if (!concatedId.isEmpty()) {
+            } else if (ids.length != 0) {
               if ((mods & SWT.MOD1) == SWT.MOD1) {
-                state.addSelection(Selection.Kind.Async, track.getSlices(concatedId));
+                state.addSelection(Selection.Kind.Async, track.getSlices(ids));
               } else {
-                state.setSelection(Selection.Kind.Async, track.getSlices(concatedId));
+                state.setSelection(Selection.Kind.Async, track.getSlices(ids));
               }
               return true;
             }
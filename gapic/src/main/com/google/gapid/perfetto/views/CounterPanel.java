@@ -30,6 +30,7 @@ import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CounterInfo;
 import com.google.gapid.perfetto.models.CounterTrack;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.Selection;
 
 import org.eclipse.swt.SWT;
@@ -97,13 +98,19 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
       CounterInfo counter = track.getCounter();
       double min = counter.range.min, range = counter.range.range();
 
+      // Each value lasts until the next one, so the path includes the last value starting before
+      // the visible range and the first one starting after it.
+      TimeSpan visible = state.getVisibleTime();
+      int first = Math.max(0, IntervalIndex.upperBound(data.ts, visible.start) - 1);
+      int last = Math.min(data.ts.length, IntervalIndex.lowerBound(data.ts, visible.end) + 1);
+
       Selection<?> selected = state.getSelection(Selection.Kind.Counter);
       List<Integer> visibleSelected = Lists.newArrayList();
       mainGradient().applyBaseAndBorder(ctx);
       ctx.path(path -> {
-        double lastX = state.timeToPx(data.ts[0]), lastY = h;
+        double lastX = state.timeToPx(data.ts[first]), lastY = h;
         path.moveTo(lastX, lastY);
-        for (int i = 0; i < data.ts.length; i++) {
+        for (int i = first; i < last; i++) {
           double nextX = state.timeToPx(data.ts[i]);
           double nextY = (trackHeight - 1) * (1 - (data.values[i] - min) / range);
           path.lineTo(nextX, lastY);
@@ -178,16 +185,7 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
       return Hover.NONE;
     }
 
-    int idx = 0;
-    for (; idx < data.ts.length - 1; idx++) {
-      if (data.ts[idx + 1] > time) {
-        break;
-      }
-    }
-
-    if (idx >= data.ts.length) {
-      return Hover.NONE;
-    }
+    int idx = Math.max(0, IntervalIndex.upperBound(data.ts, time) - 1);
 
     long id = data.ids[idx];
     double startX = state.timeToPx(data.ts[idx]);
@@ -28,12 +28,13 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.RectCoalescer;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CpuTrack;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.ThreadInfo;
-import com.google.gapid.util.Arrays;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
@@ -111,11 +112,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
         path.lineTo(x, y);
         path.lineTo(x, nextY);
         y = nextY;
-        for (String id : Arrays.getOrDefault(data.concatedIds, i, "").split(",")) {
-          if (!id.isEmpty() && !selected.isEmpty() && selected.contains(Long.parseLong(id))) {
-            visibleSelected.add(i);
-            break;
-          }
+        if (!selected.isEmpty() && selected.containsAny(data.concatedIds, i)) {
+          visibleSelected.add(i);
         }
       }
       path.lineTo(x, h);
@@ -153,24 +151,23 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
     TimeSpan visible = state.getVisibleTime();
     Selection<?> selected = state.getSelection(Selection.Kind.Cpu);
     List<Highlight> visibleSelected = Lists.newArrayList();
-    for (int i = 0; i < data.starts.length; i++) {
+    RectCoalescer rects = new RectCoalescer(ctx, 0, h);
+    ThreadPalette palette = state.getThreadPalette();
+    IntervalIndex index = data.getIndex();
+    for (int i = index.first(visible.start), end = index.end(visible.end); i < end; i++) {
       long tStart = data.starts[i];
       long tEnd = data.ends[i];
-      long utid = data.utids[i];
       if (tEnd <= visible.start || tStart >= visible.end) {
         continue;
       }
       double rectStart = state.timeToPx(tStart);
       double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
 
-      ThreadInfo.Display threadInfo = ThreadInfo.getDisplay(state, utid, false);
-
-      ctx.setBackgroundColor(state.getSliceColorForThread(threadInfo.thread));
-      ctx.fillRect(rectStart, 0, rectWidth, h);
+      ThreadPalette.Entry thread = palette.get(data.utids[i]);
+      rects.fillRect(thread.color, rectStart, rectWidth);
 
       if (selected.contains(data.ids[i])) {
-        visibleSelected.add(
-            new Highlight(threadInfo.thread.getColor().border, rectStart, rectWidth));
+        visibleSelected.add(new Highlight(thread.border, rectStart, rectWidth));
       }
 
       // Don't render text when we have less than 7px to play with.
@@ -178,6 +175,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
         continue;
       }
 
+      rects.flush();
+      ThreadInfo.Display threadInfo = thread.display;
       ctx.setForegroundColor(colors().textMain);
       ctx.drawTextLeftTruncate(Fonts.Style.Normal, threadInfo.title, threadInfo.shortTitle,
           rectStart + 2, 2, rectWidth - 4, (h / 2) - 4);
@@ -188,6 +187,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
       }
     }
 
+    rects.flush();
+
     // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
     for (Highlight highlight : visibleSelected) {
       ctx.setForegroundColor(highlight.color);
@@ -229,7 +230,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
   private Hover sliceHover(CpuTrack.Data data, Fonts.TextMeasurer m, double x, int mods) {
     mouseXpos = x;
     long t = state.pxToTime(x);
-    for (int i = 0; i < data.starts.length; i++) {
+    IntervalIndex index = data.getIndex();
+    for (int i = index.firstContaining(t), end = index.endContaining(t); i < end; i++) {
       if (data.starts[i] <= t && t <= data.ends[i]) {
         hoveredThread = ThreadInfo.getDisplay(state, data.utids[i], true);
         if (hoveredThread == null) {
@@ -296,7 +298,7 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
         data.request.range.start + hovered.bucket * data.bucketSize + data.bucketSize / 2);
     double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
     double dy = height;
-    String ids = Arrays.getOrDefault(data.concatedIds, bucket, "");
+    long[] ids = data.concatedIds.get(bucket);
 
     return new Hover() {
       @Override
@@ -317,12 +319,12 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
 
       @Override
       public Cursor getCursor(Display display) {
-        return ids.isEmpty() ? null : display.getSystemCursor(SWT.CURSOR_HAND);
+        return ids.length == 0 ? null : display.getSystemCursor(SWT.CURSOR_HAND);
       }
 
       @Override
       public boolean click() {
-        if (ids.isEmpty()) {
+        if (ids.length == 0) {
           return false;
         }
         if ((mods & SWT.MOD1) == SWT.MOD1) {
@@ -25,10 +25,12 @@ import com.google.common.collect.Sets;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.RectCoalescer;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.ArgSet;
 import com.google.gapid.perfetto.models.GpuInfo;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.SliceTrack;
 import com.google.gapid.perfetto.models.VulkanEventTrack;
@@ -95,54 +97,54 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
 
       Set<Long> selectedSIds = getSelectedSubmissionIdsInVulkanEventTrack(state);
       long[] sIds = data.getExtraLongs("submissionIds");
-      String[] concatedIds = data.getExtraStrings("concatedIds");
 
-      for (int i = 0; i < data.starts.length; i++) {
-        long tStart = data.starts[i];
-        long tEnd = data.ends[i];
-        int depth = data.depths[i];
-        long id = data.ids[i];
-        String title = buildSliceTitle(data.titles[i], data.args[i]);
-
-        if (tEnd <= visible.start || tStart >= visible.end) {
-          continue;
-        }
-        double rectStart = state.timeToPx(tStart);
-        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-        double y = depth * SLICE_HEIGHT;
-
-        // Render slice entity.
-        // Grey out if there's vulkan api event selection but this GPU queue slice is not linked.
-        StyleConstants.Gradient color = getSliceColor(data.titles[i]);
-        if (!selectedSIds.isEmpty() && i < sIds.length && !selectedSIds.contains(sIds[i])) {
-          ctx.setBackgroundColor(color.disabled);
-        } else {
-          color.applyBase(ctx);
-        }
-        ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+      RectCoalescer.Rows rects = new RectCoalescer.Rows(ctx, SLICE_HEIGHT);
+      IntervalIndex index = data.getIndex();
+      for (int d = 0; d < index.getDepths(); d++) {
+        IntervalIndex atDepth = index.atDepth(d);
+        for (int j = atDepth.first(visible.start), end = atDepth.end(visible.end); j < end; j++) {
+          int i = atDepth.row(j);
+          long tStart = data.starts[i];
+          long tEnd = data.ends[i];
+          int depth = data.depths[i];
+          long id = data.ids[i];
+          String title = buildSliceTitle(data.titles[i], data.args[i]);
+
+          if (tEnd <= visible.start || tStart >= visible.end) {
+            continue;
+          }
+          double rectStart = state.timeToPx(tStart);
+          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+          double y = depth * SLICE_HEIGHT;
+
+          // Render slice entity.
+          // Grey out if there's vulkan api event selection but this GPU queue slice is not linked.
+          StyleConstants.Gradient color = getSliceColor(data.titles[i]);
+          boolean disabled =
+              !selectedSIds.isEmpty() && i < sIds.length && !selectedSIds.contains(sIds[i]);
+          rects.get(depth, y).fillRect(
+              disabled ? color.disabled : color.base, rectStart, rectWidth);
+
+          // Highlight GPU queue slice if it's selected or linked by a vulkan api event.
+          if (selected.contains(id) || (i < sIds.length && selectedSIds.contains(sIds[i]))) { // Unquantized track.
+            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+          }
+          if (selected.containsAny(data.concatedIds, i)) { // Quantized track.
+            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+          }
 
-        // Highlight GPU queue slice if it's selected or linked by a vulkan api event.
-        if (selected.contains(id) || (i < sIds.length && selectedSIds.contains(sIds[i]))) { // Unquantized track.
-          visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-        }
-        if (i < concatedIds.length) {                                                       // Quantized track.
-          for (String cId : concatedIds[i].split(",")) {
-            if (selected.contains(Long.parseLong(cId))) {
-              visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-              break;
-            }
+          // Don't render text when we have less than 7px to play with.
+          if (rectWidth < 7) {
+            continue;
           }
-        }
 
-        // Don't render text when we have less than 7px to play with.
-        if (rectWidth < 7) {
-          continue;
+          rects.get(depth, y).flush();
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(
+              Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
         }
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
       }
+      rects.flush();
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
       for (Highlight highlight : visibleSelected) {
@@ -192,7 +194,9 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
     mouseXpos = x;
     mouseYpos = depth * SLICE_HEIGHT;
     long t = state.pxToTime(x);
-    for (int i = 0; i < data.starts.length; i++) {
+    IntervalIndex index = data.getIndex().atDepth(depth);
+    for (int j = index.firstContaining(t), end = index.endContaining(t); j < end; j++) {
+      int i = index.row(j);
       long tStart = data.starts[i];
       long tEnd = data.ends[i];
       if (data.depths[i] == depth && tStart <= t && t <= tEnd) {
@@ -214,8 +218,7 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
         mouseYpos = Math.max(0, Math.min(mouseYpos - (hoveredSize.h - SLICE_HEIGHT) / 2,
             (1 + queue.maxDepth) * SLICE_HEIGHT - hoveredSize.h));
         long id = data.ids[i];
-        String concatedId = i < data.getExtraStrings("concatedIds").length ?
-            data.getExtraStrings("concatedIds")[i] : "";
+        long[] ids = data.concatedIds.get(i);
 
         return new Hover() {
           @Override
@@ -235,7 +238,7 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
 
           @Override
           public Cursor getCursor(Display display) {
-            return (id < 0 && concatedId.isEmpty()) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
+            return (id < 0 && ids.length == 0) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
           }
 
           @Override
@@ -247,11 +250,11 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
                 state.setSelection(Selection.Kind.Gpu, track.getSlice(id));
               }
               return true;
-            } else if (!concatedId.isEmpty()) { // Track data with quantization.
+            } else if (ids.length != 0) { // Track data with quantization.
               if ((mods & SWT.MOD1) == SWT.MOD1) {
-                state.addSelection(Selection.Kind.Gpu, track.getSlices(concatedId));
+                state.addSelection(Selection.Kind.Gpu, track.getSlices(ids));
               } else {
-                state.setSelection(Selection.Kind.Gpu, track.getSlices(concatedId));
+                state.setSelection(Selection.Kind.Gpu, track.getSlices(ids));
               }
               return true;
             }
@@ -27,14 +27,15 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.RectCoalescer;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CpuInfo;
 import com.google.gapid.perfetto.models.CpuTrack.Slices;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.ProcessSummaryTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.ThreadInfo;
-import com.google.gapid.util.Arrays;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
@@ -126,11 +127,8 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
         path.lineTo(x, y);
         path.lineTo(x, nextY);
         y = nextY;
-        for (String id : Arrays.getOrDefault(data.concatedIds, i, "").split(",")) {
-          if (!id.isEmpty() && !selected.isEmpty() && selected.contains(Long.parseLong(id))) {
-            visibleSelected.add(i);
-            break;
-          }
+        if (!selected.isEmpty() && selected.containsAny(data.concatedIds, i)) {
+          visibleSelected.add(i);
         }
       }
       path.lineTo(x, h);
@@ -172,26 +170,28 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
     List<Highlight> visibleSelected = Lists.newArrayList();
     int cpuCount = state.getCpuInfo().count();
     double cpuH = (h - cpuCount + 1) / cpuCount;
-    for (int i = 0; i < data.starts.length; i++) {
+    RectCoalescer.Rows rects = new RectCoalescer.Rows(ctx, cpuH);
+    ThreadPalette palette = state.getThreadPalette();
+    IntervalIndex index = data.getIndex();
+    for (int i = index.first(visible.start), end = index.end(visible.end); i < end; i++) {
       long tStart = data.starts[i];
       long tEnd = data.ends[i];
       CpuInfo.Cpu cpu = state.getCpuInfo().getById(data.cpus[i]);
-      long utid = data.utids[i];
       if (cpu == null || tEnd <= visible.start || tStart >= visible.end) {
         continue;
       }
       double rectStart = state.timeToPx(tStart);
       double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-      ThreadInfo thread = state.getThreadInfo(utid);
+      ThreadPalette.Entry thread = palette.get(data.utids[i]);
 
       double y = cpuH * cpu.index + cpu.index;
-      ctx.setBackgroundColor(state.getSliceColorForThread(thread));
-      ctx.fillRect(rectStart, y, rectWidth, cpuH);
+      rects.get(cpu.index, y).fillRect(thread.color, rectStart, rectWidth);
 
       if (selected.contains(data.ids[i])) {
-        visibleSelected.add(new Highlight(thread.getColor().border, rectStart, y, rectWidth));
+        visibleSelected.add(new Highlight(thread.border, rectStart, y, rectWidth));
       }
     }
+    rects.flush();
 
     // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
     for (Highlight highlight : visibleSelected) {
@@ -242,7 +242,8 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
 
     mouseXpos = x;
     long t = state.pxToTime(x);
-    for (int i = 0; i < data.starts.length; i++) {
+    IntervalIndex index = data.getIndex();
+    for (int i = index.firstContaining(t), end = index.endContaining(t); i < end; i++) {
       if (data.cpus[i] == cpu && data.starts[i] <= t && t <= data.ends[i]) {
         hoveredThread = ThreadInfo.getDisplay(state, data.utids[i], true);
         if (hoveredThread == null) {
@@ -310,7 +311,7 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
         data.request.range.start + hovered.bucket * data.bucketSize + data.bucketSize / 2);
     double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
     double dy = height;
-    String ids = Arrays.getOrDefault(data.concatedIds, bucket, "");
+    long[] ids = data.concatedIds.get(bucket);
 
     return new Hover() {
       @Override
@@ -338,12 +339,12 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
 
       @Override
       public Cursor getCursor(Display display) {
-        return ids.isEmpty() ? null : display.getSystemCursor(SWT.CURSOR_HAND);
+        return ids.length == 0 ? null : display.getSystemCursor(SWT.CURSOR_HAND);
       }
 
       @Override
       public boolean click() {
-        if (ids.isEmpty()) {
+        if (ids.length == 0) {
           return false;
         }
         if ((mods & SWT.MOD1) == SWT.MOD1) {
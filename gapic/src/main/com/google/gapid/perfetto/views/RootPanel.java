@@ -153,19 +153,10 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
   public void render(RenderContext ctx, Repainter repainter) {
     double topHeight = top.getPreferredHeight();
     Area clip = ctx.getClip();
-    if (clip.y < topHeight) {
-      preTopUiRender(ctx, repainter);
-      top.render(ctx, repainter);
-    }
-    if (clip.y + clip.h > topHeight) {
-      double newClipY = Math.max(clip.y, topHeight);
-      ctx.withClip(clip.x, newClipY, clip.w, clip.h - (newClipY - clip.y), () -> {
-        ctx.withTranslation(0, topHeight - state.getScrollOffset(), () -> {
-          preMainUiRender(ctx, repainter);
-          bottom.render(ctx, repainter.transformed(
-              a -> a.translate(0, topHeight - state.getScrollOffset())));
-        });
-      });
+    if (hasUnderlay()) {
+      ctx.withoutTiles(() -> renderPanels(ctx, repainter, topHeight, clip));
+    } else {
+      renderPanels(ctx, repainter, topHeight, clip);
     }
 
     postMainUiRender(ctx);
@@ -239,6 +230,31 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
     }
   }
 
+  private void renderPanels(RenderContext ctx, Repainter repainter, double topHeight, Area clip) {
+    if (clip.y < topHeight) {
+      preTopUiRender(ctx, repainter);
+      top.render(ctx, repainter);
+    }
+    if (clip.y + clip.h > topHeight) {
+      double newClipY = Math.max(clip.y, topHeight);
+      ctx.withClip(clip.x, newClipY, clip.w, clip.h - (newClipY - clip.y), () -> {
+        ctx.withTranslation(0, topHeight - state.getScrollOffset(), () -> {
+          preMainUiRender(ctx, repainter);
+          bottom.render(ctx, repainter.transformed(
+              a -> a.translate(0, topHeight - state.getScrollOffset())));
+        });
+      });
+    }
+  }
+
+  /**
+   * Returns whether anything is rendered beneath the panels, in which case the panels can't be
+   * drawn from their opaque cached tiles.
+   */
+  protected boolean hasUnderlay() {
+    return false;
+  }
+
   protected abstract void preTopUiRender(RenderContext ctx, Repainter repainter);
   protected abstract void preMainUiRender(RenderContext ctx, Repainter repainter);
   protected abstract void postMainUiRender(RenderContext ctx);
@@ -556,6 +572,11 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
       }
     }
 
+    @Override
+    protected boolean hasUnderlay() {
+      return showVSync && state.hasData() && state.getVSync().hasData();
+    }
+
     @Override
     protected void preMainUiRender(RenderContext ctx, Repainter repainter) {
       if (showVSync && state.hasData() && state.getVSync().hasData()) {
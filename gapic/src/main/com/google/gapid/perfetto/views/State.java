@@ -19,7 +19,6 @@ import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 import com.google.common.collect.HashMultimap;
-import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gapid.models.Perfetto;
@@ -40,7 +39,6 @@ import com.google.gapid.util.Events;
 import org.eclipse.swt.graphics.RGBA;
 import org.eclipse.swt.widgets.Widget;
 
-import java.math.RoundingMode;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -68,6 +66,10 @@ public abstract class State {
   private final AtomicInteger lastSelectionUpdateId = new AtomicInteger(0);
   private HashMultimap<Long, Long> selectedThreads;     // upid -> utids
   private TimeSpan highlight = TimeSpan.ZERO;
+  // Incremented on every change, other than of the visible area, that may affect how the tracks are
+  // rendered.
+  private long version = 0;
+  private ThreadPalette threadPalette = null; // reset when the data or selected threads change.
 
   private final Events.ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
 
@@ -87,6 +89,17 @@ public abstract class State {
     this.selectedThreads = HashMultimap.create();
     this.highlight = TimeSpan.ZERO;
     update();
+    version++;
+    threadPalette = null;
+    listeners.fire().onDataChanged();
+  }
+
+  /**
+   * Notifies the listeners of changed data of the same trace, keeping the current view.
+   */
+  protected void dataChanged() {
+    version++;
+    threadPalette = null;
     listeners.fire().onDataChanged();
   }
 
@@ -148,6 +161,24 @@ public abstract class State {
     }
   }
 
+  /**
+   * Returns the labels and slice colors of the threads, given the current selection.
+   */
+  public ThreadPalette getThreadPalette() {
+    if (threadPalette == null || !threadPalette.isCurrent()) {
+      threadPalette = new ThreadPalette(this);
+    }
+    return threadPalette;
+  }
+
+  /**
+   * Returns the version of the state, which changes whenever the selection, the highlight or the
+   * data changes, but not when the visible area changes.
+   */
+  public long getVersion() {
+    return version;
+  }
+
   public TimeSpan getHighlight() {
     return highlight;
   }
@@ -231,6 +262,7 @@ public abstract class State {
       setSelection(type, newSel);
     } else {
       selection.addSelection(type, newSel);
+      version++;
       listeners.fire().onSelectionChanged(selection);
     }
   }
@@ -243,6 +275,7 @@ public abstract class State {
           setSelection(newSelection);
         } else {
           selection.addSelection(newSelection);
+          version++;
           listeners.fire().onSelectionChanged(selection);
         }
       }
@@ -278,15 +311,20 @@ public abstract class State {
     if (selection == null || selection.getSelection(Selection.Kind.Cpu).isEmpty()) {
       clearSelectedThreads();
     }
+    version++;
     listeners.fire().onSelectionChanged(selection);
   }
 
   public void clearSelectedThreads() {
     selectedThreads = HashMultimap.create();
+    version++;
+    threadPalette = null;
   }
 
   public void addSelectedThread(ThreadInfo threadInfo) {
     selectedThreads.put(threadInfo.upid, threadInfo.utid);
+    version++;
+    threadPalette = null;
   }
 
   public void setSelectedThread(ThreadInfo threadInfo) {
@@ -296,6 +334,7 @@ public abstract class State {
 
   public void setHighlight(TimeSpan highlight) {
     this.highlight = highlight.boundedBy(traceTime);
+    version++;
   }
 
   public <T> void thenOnUiThread(ListenableFuture<T> future, Consumer<T> callback) {
@@ -331,7 +370,7 @@ public abstract class State {
       nanosPerPx = 1;
       resolution = 1;
     } else {
-      resolution = 1l << DoubleMath.log2(nanosPerPx, RoundingMode.FLOOR);
+      resolution = Track.DataRequest.resolutionFor(nanosPerPx);
     }
   }
 
@@ -366,6 +405,15 @@ public abstract class State {
       super.update((data == null) ? TimeSpan.ZERO : data.traceTime);
     }
 
+    /**
+     * Replaces the data with a more complete version of the same trace, such as once all tracks
+     * are loaded after a preview, keeping the current view and selection.
+     */
+    public void updateTracks(Perfetto.Data newData) {
+      this.data = newData;
+      dataChanged();
+    }
+
     public boolean hasData() {
       return data != null;
     }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.views;
+
+import static com.google.gapid.perfetto.views.StyleConstants.colors;
+
+import com.google.gapid.perfetto.models.ThreadInfo;
+
+import org.eclipse.swt.graphics.RGBA;
+
+import java.util.Arrays;
+
+/**
+ * Table of the labels and slice colors of the threads, indexed by utid, so that rendering thread
+ * colored slices only takes an array lookup per slice. The entries are computed on first use. The
+ * {@link State} creates a new table whenever the data, the selected threads or the theme change.
+ */
+public class ThreadPalette {
+  // The utids are dense, this only guards against the table growing unbounded.
+  private static final int MAX_UTID = 1 << 20;
+
+  private final State state;
+  private final StyleConstants.Colors theme;
+  private Entry[] entries = new Entry[0];
+
+  public ThreadPalette(State state) {
+    this.state = state;
+    this.theme = colors();
+  }
+
+  /**
+   * Returns whether this table was created for the current theme.
+   */
+  public boolean isCurrent() {
+    return theme == colors();
+  }
+
+  public Entry get(long utid) {
+    if (utid < 0 || utid >= MAX_UTID) {
+      return new Entry(state, utid);
+    }
+
+    int idx = (int)utid;
+    if (idx >= entries.length) {
+      entries = Arrays.copyOf(entries, Math.max(idx + 1, 2 * entries.length));
+    }
+    Entry entry = entries[idx];
+    if (entry == null) {
+      entry = entries[idx] = new Entry(state, utid);
+    }
+    return entry;
+  }
+
+  public static class Entry {
+    public final ThreadInfo.Display display;
+    public final RGBA color;
+    public final RGBA border;
+
+    public Entry(State state, long utid) {
+      this.display = ThreadInfo.getDisplay(state, utid, false);
+      this.color = state.getSliceColorForThread(display.thread);
+      this.border = display.thread.getColor().border;
+    }
+  }
+}
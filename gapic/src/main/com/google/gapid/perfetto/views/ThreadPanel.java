@@ -27,9 +27,11 @@ import com.google.gapid.perfetto.ThreadState;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.RectCoalescer;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CpuTrack.Slices;
+import com.google.gapid.perfetto.models.IntervalIndex;
 import com.google.gapid.perfetto.models.ProcessInfo;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.SliceTrack;
@@ -75,6 +77,7 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
 
   public void setExpanded(boolean expanded) {
     this.expanded = expanded;
+    invalidateTile();
   }
 
   @Override
@@ -116,7 +119,9 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
       double mergeStartX = 0;
       double mergeEndX = 0;
       ThreadState mergeState = ThreadState.NONE;
-      for (int i = 0; i < data.schedStarts.length; i++) {
+      IntervalIndex schedIndex = data.getSchedIndex();
+      for (int i = schedIndex.first(visible.start), end = schedIndex.end(visible.end);
+          i < end; i++) {
         long tStart = data.schedStarts[i];
         long tEnd = data.schedEnds[i];
         if (tEnd <= visible.start || tStart >= visible.end) {
@@ -189,46 +194,47 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
 
       if (expanded) {
         SliceTrack.Data slices = data.slices;
-        String[] concatedIds = slices.getExtraStrings("concatedIds");
-        for (int i = 0; i < slices.starts.length; i++) {
-          long tStart = slices.starts[i];
-          long tEnd = slices.ends[i];
-          int depth = slices.depths[i];
-          long id = slices.ids[i];
-          //String cat = data.categories[i];
-          String title = slices.titles[i];
-          if (tEnd <= visible.start || tStart >= visible.end) {
-            continue;
-          }
-          double rectStart = state.timeToPx(tStart);
-          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-          double y = (1 + depth) * SLICE_HEIGHT;
+        RectCoalescer.Rows rects = new RectCoalescer.Rows(ctx, SLICE_HEIGHT);
+        IntervalIndex index = slices.getIndex();
+        for (int d = 0; d < index.getDepths(); d++) {
+          IntervalIndex atDepth = index.atDepth(d);
+          for (int j = atDepth.first(visible.start), end = atDepth.end(visible.end); j < end; j++) {
+            int i = atDepth.row(j);
+            long tStart = slices.starts[i];
+            long tEnd = slices.ends[i];
+            int depth = slices.depths[i];
+            long id = slices.ids[i];
+            //String cat = data.categories[i];
+            String title = slices.titles[i];
+            if (tEnd <= visible.start || tStart >= visible.end) {
+              continue;
+            }
+            double rectStart = state.timeToPx(tStart);
+            double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+            double y = (1 + depth) * SLICE_HEIGHT;
 
-          StyleConstants.Gradient color = getSliceColor(title, depth);
-          color.applyBase(ctx);
-          ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+            StyleConstants.Gradient color = getSliceColor(title, depth);
+            rects.get(depth, y).fillRect(color.base, rectStart, rectWidth);
 
-          if (selectedThread.contains(id)) { // Unquantized track.
-            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-          }
-          if (i < concatedIds.length) {      // Quantized track.
-            for (String cId : concatedIds[i].split(",")) {
-              if (selectedThread.contains(Long.parseLong(cId))) {
-                visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-                break;
-              }
+            if (selectedThread.contains(id)) { // Unquantized track.
+              visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+            }
+            if (selectedThread.containsAny(slices.concatedIds, i)) { // Quantized track.
+              visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
             }
-          }
 
-          // Don't render text when we have less than 7px to play with.
-          if (rectWidth < 7) {
-            continue;
-          }
+            // Don't render text when we have less than 7px to play with.
+            if (rectWidth < 7) {
+              continue;
+            }
 
-          ctx.setForegroundColor(colors().textMain);
-          ctx.drawText(Fonts.Style.Normal, title,
-              rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+            rects.get(depth, y).flush();
+            ctx.setForegroundColor(colors().textMain);
+            ctx.drawText(Fonts.Style.Normal, title,
+                rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+          }
         }
+        rects.flush();
       }
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
@@ -275,7 +281,9 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
     mouseYpos = depth * SLICE_HEIGHT;
     long t = state.pxToTime(x);
     if (depth == 0) {
-      for (int i = 0; i < data.schedStarts.length; i++) {
+      IntervalIndex schedIndex = data.getSchedIndex();
+      for (int i = schedIndex.firstContaining(t), end = schedIndex.endContaining(t);
+          i < end; i++) {
         if (data.schedStarts[i] <= t && t <= data.schedEnds[i]) {
           int index = i;
           hoveredTitle = data.schedStates[i].label;
@@ -333,7 +341,9 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
     } else if (expanded) {
       depth--;
       SliceTrack.Data slices = data.slices;
-      for (int i = 0; i < slices.starts.length; i++) {
+      IntervalIndex index = slices.getIndex().atDepth(depth);
+      for (int j = index.firstContaining(t), end = index.endContaining(t); j < end; j++) {
+        int i = index.row(j);
         if (slices.depths[i] == depth && slices.starts[i] <= t && t <= slices.ends[i]) {
           hoveredTitle = slices.titles[i];
           hoveredCategory = slices.categories[i];
@@ -351,8 +361,7 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
           mouseYpos = Math.max(0, Math.min(mouseYpos - (hoveredSize.h - SLICE_HEIGHT) / 2,
               (1 + track.getThread().maxDepth) * SLICE_HEIGHT - hoveredSize.h));
           long id = slices.ids[i];
-          String concatedId = i < slices.getExtraStrings("concatedIds").length ?
-              slices.getExtraStrings("concatedIds")[i] : "";
+          long[] ids = slices.concatedIds.get(i);
 
           return new Hover() {
             @Override
@@ -372,7 +381,7 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
 
             @Override
             public Cursor getCursor(Display display) {
-              return (id < 0 && concatedId.isEmpty()) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
+              return (id < 0 && ids.length == 0) ? null : display.getSystemCursor(SWT.CURSOR_HAND);
             }
 
             @Override
@@ -384,11 +393,11 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
                   state.setSelection(Selection.Kind.Thread, track.getSlice(id));
                 }
                 return true;
-              } else if (!concatedId.isEmpty()) { // Track data with quantization.
+              } else if (ids.length != 0) { // Track data with quantization.
                 if ((mods & SWT.MOD1) == SWT.MOD1) {
-                  state.addSelection(Selection.Kind.Thread, track.getSlices(concatedId));
+                  state.addSelection(Selection.Kind.Thread, track.getSlices(ids));
                 } else {
-                  state.setSelection(Selection.Kind.Thread, track.getSlices(concatedId));
+                  state.setSelection(Selection.Kind.Thread, track.getSlices(ids));
                 }
                 return true;
               }
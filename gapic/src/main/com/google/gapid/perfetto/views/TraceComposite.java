@@ -39,6 +39,7 @@ import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.PanelCanvas;
 import com.google.gapid.perfetto.models.Selection.MultiSelection;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.views.RootPanel.MouseMode;
 import com.google.gapid.util.Keyboard;
 import com.google.gapid.widgets.Theme;
@@ -75,6 +76,8 @@ public abstract class TraceComposite<S extends State> extends Composite implemen
         new GridData(SWT.FILL, SWT.TOP, true, false));
     canvas = withLayoutData(new PanelCanvas(this, SWT.H_SCROLL | SWT.V_SCROLL, theme, rootPanel),
         new GridData(SWT.FILL, SWT.FILL, true, true));
+    canvas.getProfiler().addLatencies("Track queries", Track::getQueryLatencies);
+    canvas.getProfiler().addStat("Track data cache", Track::getCacheStats);
 
     Consumer<RootPanel.MouseMode> modeSelector =
         topBar.buildModeActions(theme, m -> rootPanel.setMouseMode(m));
@@ -163,10 +163,11 @@ public class TrackContainer {
         }
       });
 
+      // The track is rendered first, as it may draw an opaque tile covering its whole area.
+      track.render(ctx, repainter);
       ctx.setForegroundColor(colors().panelBorder);
       ctx.drawLine(LABEL_WIDTH - 1, 0, LABEL_WIDTH - 1, height);
       ctx.drawLine(sep ? 0 : LABEL_WIDTH, height - 1, width, height - 1);
-      track.render(ctx, repainter);
     }
 
     @Override
@@ -312,10 +313,10 @@ public class TrackContainer {
           }
         });
 
+        summary.render(ctx, repainter);
         ctx.setForegroundColor(colors().panelBorder);
         ctx.drawLine(LABEL_WIDTH - 1, 0, LABEL_WIDTH - 1, height - 1);
         ctx.drawLine(0, height - 1, width , height - 1);
-        summary.render(ctx, repainter);
       }
     }
 
@@ -25,6 +25,7 @@ import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
 import com.google.gapid.perfetto.canvas.Panel;
@@ -32,7 +33,11 @@ import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.Track;
 
+import org.eclipse.swt.graphics.Cursor;
+import org.eclipse.swt.widgets.Display;
+
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 /**
@@ -46,6 +51,10 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
 
   protected final State state;
   protected Tooltip tooltip;
+  // Incremented whenever the cached tile of this track becomes stale, such as when data arrives.
+  private long tileVersion = 0;
+  // While the track is hovered, it is rendered directly, since hovers typically highlight parts.
+  private boolean trackHovered = false;
 
   public TrackPanel(State state) {
     this.state = state;
@@ -61,10 +70,15 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
   @Override
   public void render(RenderContext ctx, Repainter repainter) {
     double w = width - LABEL_WIDTH, h = height - 2 * TRACK_MARGIN;
-    drawGridLines(ctx, state, LABEL_WIDTH, 0, w, height);
-    ctx.withTranslation(LABEL_WIDTH, TRACK_MARGIN, () ->
-      ctx.withClip(0, -TRACK_MARGIN, w, h + 2 * TRACK_MARGIN, () ->
-        renderTrack(ctx, repainter, w, h)));
+    ctx.withTranslation(LABEL_WIDTH, 0, () -> {
+      if (trackHovered) {
+        renderTile(ctx, repainter, w, h);
+      } else {
+        TileKey key = new TileKey(state, tileVersion, w, height, colors());
+        ctx.cached(this, key, colors().background, w, height,
+            tile -> renderTile(tile, invalidatingTile(repainter), w, h));
+      }
+    });
 
     if (tooltip != null) {
       ctx.addOverlay(() -> {
@@ -84,8 +98,30 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
     }
   }
 
+  private void renderTile(RenderContext ctx, Repainter repainter, double w, double h) {
+    drawGridLines(ctx, state, 0, 0, w, height);
+    ctx.withTranslation(0, TRACK_MARGIN, () ->
+      ctx.withClip(0, -TRACK_MARGIN, w, h + 2 * TRACK_MARGIN, () ->
+        renderTrack(ctx, repainter, w, h)));
+  }
+
   protected abstract void renderTrack(RenderContext ctx, Repainter repainter, double w, double h);
 
+  /**
+   * Marks the cached tile of this track as stale, for tracks whose rendering depends on anything
+   * other than the {@link State} and their data.
+   */
+  protected void invalidateTile() {
+    tileVersion++;
+  }
+
+  private Repainter invalidatingTile(Repainter repainter) {
+    return area -> {
+      invalidateTile();
+      repainter.repaint(area);
+    };
+  }
+
   @Override
   public void visit(Visitor v, Area area) {
     area.intersect(LABEL_WIDTH, TRACK_MARGIN, width - LABEL_WIDTH, height - 2 * TRACK_MARGIN)
@@ -122,9 +158,52 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
     } else if (y < TRACK_MARGIN || y > height - TRACK_MARGIN) {
       return Hover.NONE;
     }
-    return onTrackMouseMove(m, repainter.translated(LABEL_WIDTH, TRACK_MARGIN),
+    return bypassingTile(onTrackMouseMove(m, repainter.translated(LABEL_WIDTH, TRACK_MARGIN),
         x - LABEL_WIDTH, y - TRACK_MARGIN, mods
-      ).translated(LABEL_WIDTH, TRACK_MARGIN);
+      ).translated(LABEL_WIDTH, TRACK_MARGIN));
+  }
+
+  private Hover bypassingTile(Hover hover) {
+    if (hover == Hover.NONE) {
+      return hover;
+    }
+
+    trackHovered = true;
+    return new Hover() {
+      @Override
+      public Area getRedraw() {
+        return hover.getRedraw();
+      }
+
+      @Override
+      public Cursor getCursor(Display display) {
+        return hover.getCursor(display);
+      }
+
+      @Override
+      public void stop() {
+        hover.stop();
+        trackHovered = false;
+        invalidateTile();
+      }
+
+      @Override
+      public boolean isOverlay() {
+        return hover.isOverlay();
+      }
+
+      @Override
+      public boolean click() {
+        invalidateTile();
+        return hover.click();
+      }
+
+      @Override
+      public boolean rightClick() {
+        invalidateTile();
+        return hover.rightClick();
+      }
+    };
   }
 
   protected abstract Hover onTrackMouseMove(
@@ -161,6 +240,43 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
     return getSliceColor(title, 0);
   }
 
+  // The tile of a track depends on the visible time, the state and the track's own rendering.
+  private static class TileKey {
+    private final TimeSpan visibleTime;
+    private final long stateVersion;
+    private final long tileVersion;
+    private final double width, height;
+    private final StyleConstants.Colors colors;
+
+    public TileKey(State state, long tileVersion, double width, double height,
+        StyleConstants.Colors colors) {
+      this.visibleTime = state.getVisibleTime();
+      this.stateVersion = state.getVersion();
+      this.tileVersion = tileVersion;
+      this.width = width;
+      this.height = height;
+      this.colors = colors;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(visibleTime, stateVersion, tileVersion, width, height);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof TileKey)) {
+        return false;
+      }
+      TileKey o = (TileKey)obj;
+      return stateVersion == o.stateVersion && tileVersion == o.tileVersion &&
+          width == o.width && height == o.height && colors == o.colors &&
+          visibleTime.equals(o.visibleTime);
+    }
+  }
+
   private static class Tooltip {
     private static final Splitter LINE_SPLITTER =
         Splitter.on(CharMatcher.anyOf("\r\n")).omitEmptyStrings().trimResults();
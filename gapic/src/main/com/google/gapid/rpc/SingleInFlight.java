@@ -35,7 +35,7 @@ public class SingleInFlight {
       public synchronized <T> void listen(ListenableFuture<T> f, Rpc.Callback<T> callback) {
         Preconditions.checkState(future == null);
         if (cancelled) {
-          future.cancel(true);
+          f.cancel(true);
         }
         future = f;
         Rpc.listen(f, callback);
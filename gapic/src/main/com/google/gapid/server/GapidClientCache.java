@@ -18,20 +18,28 @@ package com.google.gapid.server;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.GapidGrpc;
 import com.google.gapid.proto.service.Service;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.FutureCache;
+import com.google.gapid.util.Weighers;
 
 /**
  * A caching {@link GapidClientGrpc}.
  */
 public class GapidClientCache extends GapidClientGrpc {
+  public static final Flag<Integer> getCacheSize = Flags.value("rpc-get-cache-mb", 512,
+      "Maximum size, in MiB, of the cache of get RPC responses.", true);
+  public static final Flag<Integer> followCacheSize = Flags.value("rpc-follow-cache-mb", 32,
+      "Maximum size, in MiB, of the cache of follow RPC responses.", true);
+
   private final FutureCache<Service.GetRequest, Service.GetResponse> getCache;
   private final FutureCache<Service.FollowRequest, Service.FollowResponse> followCache;
 
   public GapidClientCache(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub) {
     super(client, stub);
-    this.getCache = FutureCache.softCache(
+    this.getCache = FutureCache.weightedCache(getCacheSize, Weighers.protos(),
         client::get, result -> result.getResCase() == Service.GetResponse.ResCase.VALUE);
-    this.followCache = FutureCache.softCache(
+    this.followCache = FutureCache.weightedCache(followCacheSize, Weighers.protos(),
         client::follow, result -> result.getResCase() == Service.FollowResponse.ResCase.PATH);
   }
 
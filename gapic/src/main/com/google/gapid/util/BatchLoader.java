@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Loads values in batches. Keys requested within a short delay of each other are collected and
+ * fetched together, in batches of bounded size. Typically used as the fetcher of a
+ * {@link FutureCache}, which takes care of coalescing requests for the same key.
+ */
+public class BatchLoader<K, V> {
+  private static final Logger LOG = Logger.getLogger(BatchLoader.class.getName());
+
+  private final Function<List<K>, ListenableFuture<Map<K, V>>> fetcher;
+  private final V missing;
+  private final int maxBatchSize;
+  private final long delayMs;
+  private Map<K, SettableFuture<V>> queued = Maps.newLinkedHashMap(); // guarded by this
+
+  /**
+   * @param fetcher fetches the values of a batch of keys. Keys absent from the result map resolve
+   *     to the given missing value.
+   */
+  public BatchLoader(Function<List<K>, ListenableFuture<Map<K, V>>> fetcher, V missing,
+      int maxBatchSize, long delayMs) {
+    this.fetcher = fetcher;
+    this.missing = missing;
+    this.maxBatchSize = maxBatchSize;
+    this.delayMs = delayMs;
+  }
+
+  public ListenableFuture<V> load(K key) {
+    synchronized (this) {
+      SettableFuture<V> result = queued.get(key);
+      if (result == null) {
+        if (queued.isEmpty()) {
+          MoreFutures.logFailure(LOG, EXECUTOR.schedule(this::flush, delayMs, MILLISECONDS));
+        }
+        queued.put(key, result = SettableFuture.create());
+      }
+      return result;
+    }
+  }
+
+  private void flush() {
+    Map<K, SettableFuture<V>> batch;
+    synchronized (this) {
+      batch = queued;
+      queued = Maps.newLinkedHashMap();
+    }
+
+    for (List<K> keys : Lists.partition(Lists.newArrayList(batch.keySet()), maxBatchSize)) {
+      ListenableFuture<Map<K, V>> future;
+      try {
+        future = fetcher.apply(keys);
+      } catch (RuntimeException e) {
+        keys.forEach(key -> batch.get(key).setException(e));
+        continue;
+      }
+
+      MoreFutures.addCallback(future, new FutureCallback<Map<K, V>>() {
+        @Override
+        public void onSuccess(Map<K, V> values) {
+          for (K key : keys) {
+            batch.get(key).set(values.getOrDefault(key, missing));
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          for (K key : keys) {
+            batch.get(key).setException(t);
+          }
+        }
+      });
+    }
+  }
+}
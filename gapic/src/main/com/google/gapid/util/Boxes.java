@@ -18,6 +18,7 @@ package com.google.gapid.util;
 import com.google.common.collect.Maps;
 import com.google.gapid.proto.service.box.Box;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public class Boxes {
@@ -64,6 +65,14 @@ public class Boxes {
     }
   }
 
+  public static ByteBuffer getBuffer(Box.Value box) {
+    switch (box.getValCase()) {
+      case POD: return Pods.getBuffer(box.getPod());
+      default:
+        throw new RuntimeException("Don't know how to get bytes out of " + box.getValCase());
+    }
+  }
+
   public static class Context {
     private final Map<Integer, Object> values = Maps.newHashMap();
     private final Map<Integer, Box.Type> types = Maps.newHashMap();
@@ -36,4 +36,26 @@ public class Buffers {
   public static ByteBuffer nativeBuffer(byte[] data) {
     return flip(BufferUtils.createByteBuffer(data.length).put(data));
   }
+
+  /**
+   * Returns a view of the given range of the buffer, which shares its content, but has its own
+   * position and limit. The view's byte order is big endian, as for {@link ByteBuffer#slice()}.
+   */
+  public static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer result = buffer.duplicate();
+    result.limit(offset + length);
+    result.position(offset);
+    return result.slice();
+  }
+
+  /**
+   * Copies length bytes from src at srcOffset to dst at dstOffset, without modifying the
+   * position of either buffer.
+   */
+  public static void copy(
+      ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length) {
+    ByteBuffer to = dst.duplicate();
+    to.position(dstOffset);
+    to.put(slice(src, srcOffset, length));
+  }
 }
@@ -17,7 +17,10 @@ package com.google.gapid.util;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gapid.util.Flags.Flag;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -37,6 +40,34 @@ public class Caches {
     return CacheBuilder.newBuilder().build();
   }
 
+  /**
+   * Returns a cache bounded to the budget, in MiB, given by the flag, with the size of the entries
+   * computed by the given {@link Weigher}. Once over budget, the least recently used entries are
+   * evicted, independent of GC pressure. The cache is not split into segments, each of which would
+   * only get a share of the budget, so that any entry that fits the whole budget is retained.
+   */
+  public static <K, V> Cache<K, V> weightedCache(
+      Flag<Integer> budgetMb, Weigher<? super K, ? super V> weigher) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(Math.max(0, budgetMb.get()) * 1024L * 1024L)
+        .<K, V>weigher(weigher)
+        .build();
+  }
+
+  /**
+   * Same as {@link #weightedCache(Flag, Weigher)}, notifying the given listener of all removals.
+   */
+  public static <K, V> Cache<K, V> weightedCache(Flag<Integer> budgetMb,
+      Weigher<? super K, ? super V> weigher, RemovalListener<? super K, ? super V> listener) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(Math.max(0, budgetMb.get()) * 1024L * 1024L)
+        .<K, V>weigher(weigher)
+        .<K, V>removalListener(listener)
+        .build();
+  }
+
   /**
    * Calls and returns the result of {@link Cache#get(Object, Callable)}, where the loader
    * {@link Callable} is guaranteed not to throw a checked exception. Unchecked exceptions are
@@ -15,19 +15,33 @@
  */
 package com.google.gapid.util;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.util.Scheduler.EXECUTOR;
 
 import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * Cache of values that are fetched asynchronously. Concurrent requests for the same missing key
+ * are coalesced into a single fetch, the result of which is shared among all the callers.
+ */
 public class FutureCache<K, V> {
   private final Cache<K, V> cache;
   private final Function<K, ListenableFuture<V>> fetcher;
   private final Predicate<V> shouldCache;
+  private final ConcurrentMap<K, ListenableFuture<V>> pending = Maps.newConcurrentMap();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
 
   public FutureCache(
       Cache<K, V> cache, Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
@@ -41,28 +55,69 @@ public class FutureCache<K, V> {
     return new FutureCache<K, V>(Caches.softCache(), fetcher, shouldCache);
   }
 
+  public static <K, V> FutureCache<K, V> weightedCache(Flags.Flag<Integer> budgetMb,
+      Weigher<? super K, ? super V> weigher, Function<K, ListenableFuture<V>> fetcher,
+      Predicate<V> shouldCache) {
+    return new FutureCache<K, V>(Caches.weightedCache(budgetMb, weigher), fetcher, shouldCache);
+  }
+
   public static <K, V> FutureCache<K, V> hardCache(
       Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
     return new FutureCache<K, V>(Caches.hardCache(), fetcher, shouldCache);
   }
 
+  /**
+   * Returns the cached value for the given key, fetching it if needed. Cancelling the returned
+   * future does not cancel a fetch that is shared with other callers.
+   */
   public ListenableFuture<V> get(K key) {
     // Look up the value in the cache using the executor.
     ListenableFuture<V> cacheLookUp = EXECUTOR.submit(() -> cache.getIfPresent(key));
     return MoreFutures.transformAsync(cacheLookUp, fromCache -> {
       if (fromCache != null) {
+        hits.incrementAndGet();
         return Futures.immediateFuture(fromCache);
       }
-
-      return MoreFutures.transform(fetcher.apply(key), value -> {
-        if (shouldCache.test(value)) {
-          cache.put(key, value);
-        }
-        return value;
-      });
+      return Futures.nonCancellationPropagating(fetch(key));
     });
   }
 
+  private ListenableFuture<V> fetch(K key) {
+    SettableFuture<V> result = SettableFuture.create();
+    ListenableFuture<V> existing = pending.putIfAbsent(key, result);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      return existing;
+    }
+
+    // The value may have been cached between the look up and registering the pending fetch.
+    V fromCache = cache.getIfPresent(key);
+    if (fromCache != null) {
+      hits.incrementAndGet();
+      result.set(fromCache);
+      pending.remove(key, result);
+      return result;
+    }
+
+    misses.incrementAndGet();
+    ListenableFuture<V> fetched;
+    try {
+      fetched = fetcher.apply(key);
+    } catch (RuntimeException e) {
+      fetched = Futures.immediateFailedFuture(e);
+    }
+    // The value is put into the cache before the pending entry is removed, so there is no window
+    // in which a request would miss both.
+    result.setFuture(MoreFutures.transform(fetched, value -> {
+      if (shouldCache.test(value)) {
+        cache.put(key, value);
+      }
+      return value;
+    }));
+    result.addListener(() -> pending.remove(key, result), directExecutor());
+    return result;
+  }
+
   public V getIfPresent(K key) {
     return cache.getIfPresent(key);
   }
@@ -70,5 +125,35 @@ public class FutureCache<K, V> {
   public void clear() {
     cache.invalidateAll();
   }
-}
 
+  public Stats getStats() {
+    return new Stats(hits.get(), misses.get(), coalesced.get());
+  }
+
+  /**
+   * Snapshot of the request counters of a {@link FutureCache}.
+   */
+  public static class Stats {
+    /** Number of requests answered from the cache. */
+    public final long hits;
+    /** Number of requests that caused a fetch. */
+    public final long misses;
+    /** Number of requests that joined an already pending fetch. */
+    public final long coalesced;
+
+    public Stats(long hits, long misses, long coalesced) {
+      this.hits = hits;
+      this.misses = misses;
+      this.coalesced = coalesced;
+    }
+
+    public long getRequestCount() {
+      return hits + misses + coalesced;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{hits: " + hits + ", misses: " + misses + ", coalesced: " + coalesced + "}";
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of durations, in nanoseconds, over a window of the most recent samples. Thread
+ * safe, so samples may be added from any thread.
+ */
+public class LatencyStats {
+  private static final int DEFAULT_WINDOW = 1024;
+
+  private final long[] samples;
+  private long count = 0; // guarded by this
+
+  public LatencyStats() {
+    this(DEFAULT_WINDOW);
+  }
+
+  public LatencyStats(int window) {
+    this.samples = new long[window];
+  }
+
+  public synchronized void add(long nanos) {
+    samples[(int)(count % samples.length)] = nanos;
+    count++;
+  }
+
+  /**
+   * Returns the total number of samples ever added.
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the given percentiles, in [0, 100], of the samples in the window, or zeros if empty.
+   */
+  public long[] percentiles(double... ps) {
+    long[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(samples, (int)Math.min(count, samples.length));
+    }
+    Arrays.sort(sorted);
+
+    long[] result = new long[ps.length];
+    if (sorted.length > 0) {
+      for (int i = 0; i < ps.length; i++) {
+        int idx = (int)Math.ceil(ps[i] / 100 * sorted.length) - 1;
+        result[i] = sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a summary of the median, 95th and 99th percentile, in milliseconds.
+   */
+  @Override
+  public String toString() {
+    long[] p = percentiles(50, 95, 99);
+    return String.format("p50 %.1fms p95 %.1fms p99 %.1fms (n=%d)",
+        p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, getCount());
+  }
+}
@@ -18,6 +18,8 @@ package com.google.gapid.util;
 import com.google.common.primitives.UnsignedLong;
 import com.google.gapid.proto.core.pod.Pod;
 
+import java.nio.ByteBuffer;
+
 /**
  * Plain-Old-Data utilities.
  */
@@ -249,4 +251,16 @@ public class Pods {
         throw new RuntimeException("Don't know how to get bytes out of " + pod.getValCase());
     }
   }
+
+  /**
+   * Returns a read-only view, starting at position 0, of the bytes of the pod, without copying
+   * them.
+   */
+  public static ByteBuffer getBuffer(Pod.Value pod) {
+    switch (pod.getValCase()) {
+      case UINT8_ARRAY: return pod.getUint8Array().asReadOnlyByteBuffer().slice();
+      default:
+        throw new RuntimeException("Don't know how to get bytes out of " + pod.getValCase());
+    }
+  }
 }
@@ -18,6 +18,8 @@ package com.google.gapid.util;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.api.API;
 
+import java.nio.ByteBuffer;
+
 /**
  * Utility functions to deal with {@code Service.Value} protos.
  */
@@ -38,4 +40,15 @@ public class Values {
         throw new RuntimeException("Don't know how to get bytes out of " + value.getValCase());
     }
   }
+
+  /**
+   * Returns a read-only view of the bytes of the value, without copying them.
+   */
+  public static ByteBuffer getBuffer(Service.Value value) {
+    switch (value.getValCase()) {
+      case BOX: return Boxes.getBuffer(value.getBox());
+      default:
+        throw new RuntimeException("Don't know how to get bytes out of " + value.getValCase());
+    }
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import com.google.common.cache.Weigher;
+import com.google.protobuf.MessageLite;
+
+/**
+ * {@link Weigher Weighers} and size estimates, in bytes, for size bounded caches.
+ */
+public class Weighers {
+  public static final long OBJECT_SIZE = 16;
+  public static final long REFERENCE_SIZE = 8;
+  public static final long ARRAY_SIZE = 16;
+
+  private Weighers() {
+  }
+
+  /**
+   * Returns a weigher for entries whose keys and values are both protobuf messages. The
+   * serialized size is used as the estimate, which protobuf memoizes for each message.
+   */
+  public static <K extends MessageLite, V extends MessageLite> Weigher<K, V> protos() {
+    return (key, value) ->
+        toWeight(2 * OBJECT_SIZE + key.getSerializedSize() + value.getSerializedSize());
+  }
+
+  /**
+   * Returns a weigher that weighs every entry the same.
+   */
+  public static <K, V> Weigher<K, V> constant(long size) {
+    int weight = toWeight(size);
+    return (key, value) -> weight;
+  }
+
+  public static int toWeight(long size) {
+    return (int)Math.min(Integer.MAX_VALUE, Math.max(1, size));
+  }
+
+  public static long sizeOf(long[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + 8L * array.length;
+  }
+
+  public static long sizeOf(double[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + 8L * array.length;
+  }
+
+  public static long sizeOf(int[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + 4L * array.length;
+  }
+
+  public static long sizeOf(boolean[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + array.length;
+  }
+
+  public static long sizeOf(byte[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + array.length;
+  }
+
+  public static long sizeOf(String string) {
+    return (string == null) ? 0 : OBJECT_SIZE + ARRAY_SIZE + string.length();
+  }
+
+  /**
+   * Returns the size of the given array of references. The referenced objects are not included,
+   * as they are typically shared (e.g. the dictionary encoded strings of a query result).
+   */
+  public static long sizeOf(Object[] array) {
+    return (array == null) ? 0 : ARRAY_SIZE + REFERENCE_SIZE * array.length;
+  }
+}
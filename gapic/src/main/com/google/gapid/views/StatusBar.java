@@ -45,20 +45,22 @@ import org.eclipse.swt.widgets.Link;
 public class StatusBar extends Composite {
   private final Composite memoryStatus;
   private final Composite replayStatus;
+  private final Composite loadStatus;
   private final Composite serverStatus;
   private final HeapStatus heap;
   private final Label serverPrefix;
   private final Label server;
   private final Label replay;
+  private final Label load;
   private final Link notification;
   private Runnable onNotificationClick = null;
 
   public StatusBar(Composite parent, Theme theme) {
     super(parent, SWT.NONE);
 
-    setLayout(withSpacing(withMargin(new GridLayout(5, false), 0, 0), 5, 0));
+    setLayout(withSpacing(withMargin(new GridLayout(6, false), 0, 0), 5, 0));
     withLayoutData(new Label(this, SWT.SEPARATOR | SWT.HORIZONTAL),
-        withSpans(new GridData(SWT.FILL, SWT.TOP, true, false), 5, 1));
+        withSpans(new GridData(SWT.FILL, SWT.TOP, true, false), 6, 1));
 
     memoryStatus = withLayoutData(
         createComposite(this, filling(new RowLayout(SWT.HORIZONTAL), true, false)),
@@ -66,6 +68,9 @@ public class StatusBar extends Composite {
     replayStatus = withLayoutData(
         createComposite(this, filling(new RowLayout(SWT.HORIZONTAL), true, false)),
         new GridData(SWT.LEFT, SWT.FILL, false, false));
+    loadStatus = withLayoutData(
+        createComposite(this, filling(new RowLayout(SWT.HORIZONTAL), true, false)),
+        new GridData(SWT.LEFT, SWT.FILL, false, false));
     serverStatus = withLayoutData(
         createComposite(this, filling(new RowLayout(SWT.HORIZONTAL), true, false)),
         new GridData(SWT.LEFT, SWT.FILL, true, false));
@@ -84,6 +89,11 @@ public class StatusBar extends Composite {
     withLayoutData(new Label(replayStatus, SWT.SEPARATOR | SWT.VERTICAL), new RowData(SWT.DEFAULT, 1));
     replayStatus.setVisible(false);
 
+    createLabel(loadStatus, "Trace:");
+    load = createLabel(loadStatus, "");
+    withLayoutData(new Label(loadStatus, SWT.SEPARATOR | SWT.VERTICAL), new RowData(SWT.DEFAULT, 1));
+    loadStatus.setVisible(false);
+
     serverPrefix = createLabel(serverStatus, "");
     server = createLabel(serverStatus, "");
     serverStatus.setVisible(false);
@@ -125,6 +135,12 @@ public class StatusBar extends Composite {
     layout();
   }
 
+  public void setLoadStatus(String text) {
+    loadStatus.setVisible(true);
+    load.setText(text);
+    layout();
+  }
+
   private static class HeapStatus extends Canvas {
     private static final int PADDING = 2;
 
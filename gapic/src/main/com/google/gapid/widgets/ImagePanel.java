@@ -16,7 +16,7 @@
 package com.google.gapid.widgets;
 
 import static com.google.gapid.util.Caches.getUnchecked;
-import static com.google.gapid.util.Caches.softCache;
+import static com.google.gapid.util.Caches.weightedCache;
 import static com.google.gapid.util.Loadable.MessageType.Error;
 import static com.google.gapid.util.Loadable.MessageType.Info;
 import static com.google.gapid.widgets.Widgets.centered;
@@ -31,6 +31,8 @@ import static com.google.gapid.widgets.Widgets.createToolItem;
 import static com.google.gapid.widgets.Widgets.withSpans;
 import static org.eclipse.swt.widgets.SwtUtil.disableAutoHideScrollbars;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -56,14 +58,18 @@ import com.google.gapid.proto.stream.Stream.Channel;
 import com.google.gapid.rpc.Rpc;
 import com.google.gapid.rpc.RpcException;
 import com.google.gapid.rpc.SingleInFlight;
+import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.rpc.UiErrorCallback;
 import com.google.gapid.server.Client.DataUnavailableException;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.MouseAdapter;
 import com.google.gapid.util.OS;
 import com.google.gapid.util.Range;
+import com.google.gapid.util.Weighers;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseEvent;
@@ -123,12 +129,20 @@ public class ImagePanel extends Composite implements Loadable {
   private static final float ALPHA_WARNING_THRESHOLD = 2 / 255f;
   protected static final Image[] NO_LAYERS = new Image[] { Image.EMPTY };
 
-  private static final Cache<Image.Key, Histogram> HISTOGRAM_CACHE = softCache();
+  public static final Flag<Integer> histogramCacheSize = Flags.value("histogram-cache-mb", 16,
+      "Maximum size, in MiB, of the cache of computed image histograms.", true);
+
+  // Created lazily, so that it is sized by the parsed flags.
+  private static final Supplier<Cache<Image.Key, Histogram>> HISTOGRAM_CACHE = Suppliers.memoize(
+      () -> weightedCache(histogramCacheSize, (key, h) -> Weighers.toWeight(h.getSize())));
 
   private final View analyticsView;
   private final Analytics analytics;
   private final Widgets widgets;
   private final SingleInFlight imageRequestController = new SingleInFlight();
+  private final SingleInFlight previewRequestController = new SingleInFlight();
+  private int levelRequest = 0; // Identifies the latest level load, only used on the UI thread.
+  private boolean levelLoaded = false; // Whether the latest level load has completed.
   protected final LoadablePanel<Composite> loading;
   private final StatusBar status;
   private final Group group;
@@ -507,6 +521,8 @@ public class ImagePanel extends Composite implements Loadable {
   public void clearImage() {
     this.image = MultiLayerAndLevelImage.EMPTY;
     this.layers = NO_LAYERS;
+    levelLoaded = true;
+    previewRequestController.start(); // Cancels any loading preview.
     if (saveItem != null) {
       saveItem.setEnabled(false);
     }
@@ -530,6 +546,8 @@ public class ImagePanel extends Composite implements Loadable {
 
     int level = Math.min(image.getLevelCount() - 1, requestedLecel);
     startLoading();
+    levelLoaded = false;
+    loadPreview(level, ++levelRequest);
 
     List<ListenableFuture<Image>> layerFutures = Lists.newArrayList();
     for (int layer = 0; layer < image.getLayerCount(); layer++) {
@@ -538,7 +556,7 @@ public class ImagePanel extends Composite implements Loadable {
     ListenableFuture<LevelData> future = MoreFutures.transform(Futures.allAsList(layerFutures), imageList -> {
       Image[] images = imageList.toArray(new Image[imageList.size()]);
 
-      Histogram histogram = getUnchecked(HISTOGRAM_CACHE, image.getLevelKey(level),
+      Histogram histogram = getUnchecked(HISTOGRAM_CACHE.get(), image.getLevelKey(level),
           () -> new Histogram(images, NUM_HISTOGRAM_BINS));
       return new LevelData(images, histogram);
     });
@@ -570,7 +588,47 @@ public class ImagePanel extends Composite implements Loadable {
     });
   }
 
+  // Shows a low resolution preview of the level, if the image offers one, until it has loaded.
+  private void loadPreview(int level, int request) {
+    List<ListenableFuture<Image>> previewFutures = Lists.newArrayList();
+    for (int layer = 0; layer < image.getLayerCount(); layer++) {
+      ListenableFuture<Image> preview = image.getPreview(layer, level);
+      if (preview == null) {
+        previewRequestController.start(); // Cancels any previous preview.
+        return;
+      }
+      previewFutures.add(preview);
+    }
+
+    ListenableFuture<LevelData> future =
+        MoreFutures.transform(Futures.allAsList(previewFutures), imageList -> {
+      Image[] images = imageList.toArray(new Image[imageList.size()]);
+      // Not cached, as the histogram of a preview only approximates the one of the level.
+      return new LevelData(images, new Histogram(images, NUM_HISTOGRAM_BINS));
+    });
+
+    previewRequestController.start().listen(future,
+        new UiCallback<LevelData, LevelData>(this, LOG) {
+      @Override
+      protected LevelData onRpcThread(Rpc.Result<LevelData> result)
+          throws RpcException, ExecutionException {
+        return result.get();
+      }
+
+      @Override
+      protected void onUiThread(LevelData data) {
+        if (request == levelRequest && !levelLoaded) {
+          stopLoading();
+          imageComponent.setImages(data.images);
+          imageComponent.setHistogram(data.histogram);
+        }
+      }
+    });
+  }
+
   protected void updateLayers(LevelData data) {
+    levelLoaded = true;
+    previewRequestController.start(); // Cancels the preview, if still loading.
     layers = data.layers;
     if (data.valid) {
       status.setLevelSize(layers[0].getWidth(), layers[0].getHeight());
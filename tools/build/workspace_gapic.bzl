@@ -206,6 +206,43 @@ def gapic_dependencies(no_maven = False, no_swt = False, no_jface = False, local
             sha256_src = "092346eebbb1657b51aa7485a246bf602bb464cc0b0e2e1c7e7201fadce1e98f",
         )
 
+        # JMH, only used by the benchmarks.
+        ############################################################################
+        maybe_repository(
+            maven_jar,
+            name = "org_openjdk_jmh_core",
+            locals = locals,
+            artifact = "org.openjdk.jmh:jmh-core:1.23",
+            sha256 = "5b202159b21555045affccdde23c57005b9efceaea32ca6e4406d4fe5811e743",
+            sha256_src = "386fb2988fdae424dfec4388a9c0c5a31d77662be4f3576976896d859c286fb6",
+        )
+
+        maybe_repository(
+            maven_jar,
+            name = "org_openjdk_jmh_generator_annprocess",
+            locals = locals,
+            artifact = "org.openjdk.jmh:jmh-generator-annprocess:1.23",
+            sha256 = "218c80cd06b61097ccd59011480361d4dcbeabf0b280209e781365733d9e7121",
+        )
+
+        maybe_repository(
+            maven_jar,
+            name = "net_sf_jopt_simple",
+            locals = locals,
+            artifact = "net.sf.jopt-simple:jopt-simple:4.6",
+            sha256 = "3fcfbe3203c2ea521bf7640484fd35d6303186ea2e08e72f032d640ca067ffda",
+            sha256_src = "edceaf232b2480e282af8dd9509176507e1781bef92cd06800c2cefed917c85b",
+        )
+
+        maybe_repository(
+            maven_jar,
+            name = "org_apache_commons_math3",
+            locals = locals,
+            artifact = "org.apache.commons:commons-math3:3.2",
+            sha256 = "6268a9a0ea3e769fc493a21446664c0ef668e48c93d126791f6f3f757978fee2",
+            sha256_src = "b62d60712ea06fb6259506269b3a0ed73a7da5ee11f891c0eb0399eb9bc71e3f",
+        )
+
     if not no_swt:
         maybe_repository(
             swt,
@@ -247,6 +284,10 @@ DEFAULT_MAPPINGS = {
     # Others
     "com_google_guava": "@com_google_guava//:jar",
     "com_google_guava-failureaccess": "@com_google_guava-failureaccess//:jar",
+    "org_openjdk_jmh_core": "@org_openjdk_jmh_core//:jar",
+    "org_openjdk_jmh_generator_annprocess": "@org_openjdk_jmh_generator_annprocess//:jar",
+    "net_sf_jopt_simple": "@net_sf_jopt_simple//:jar",
+    "org_apache_commons_math3": "@org_apache_commons_math3//:jar",
     "jface": "@jface",
     "swt": "@swt",
 }